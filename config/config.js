@@ -83,6 +83,36 @@
 	"type": "Integer",
 	"comment": "Margin around the help splash."
 },
+{
+	"key": "latency_report_file",
+	"value": "",
+	"type": "String",
+	"comment": "File that the stroke and page flip latencies of each session are appended to, relative to the config directory. Leave empty to not write them."
+},
+{
+	"key": "log_file",
+	"value": "",
+	"type": "String",
+	"comment": "File to also write the log to, relative to the config directory. Empty to log to standard output only."
+},
+{
+	"key": "log_file_count",
+	"value": "3",
+	"type": "Integer",
+	"comment": "Number of rotated log files to keep."
+},
+{
+	"key": "log_file_size",
+	"value": "1024",
+	"type": "Integer",
+	"comment": "Size in KiB after which the log file is rotated."
+},
+{
+	"key": "log_json",
+	"value": "false",
+	"type": "Boolean",
+	"comment": "Whether to write the log as JSON objects, one per line."
+},
 {
 	"key": "memory_usage_position_bottom",
 	"value": "10",
@@ -113,12 +143,6 @@
 	"type": "Color",
 	"comment": "Color of the paper."
 },
-{
-	"key": "notebook_cache_width",
-	"value": "10",
-	"type": "Integer",
-	"comment": "Number of notesheets that are to be cached when moving back and forward in the notebook."
-},
 {
 	"key": "notebook_close_key",
 	"value": "q",
@@ -215,6 +239,18 @@
 	"type": "Key",
 	"comment": "Key to go to last page."
 },
+{
+	"key": "notebook_journal",
+	"value": "true",
+	"type": "Boolean",
+	"comment": "Whether every line is written to a journal in the folder of the notebook, so that it survives a crash of the program."
+},
+{
+	"key": "notebook_journal_commit_millis",
+	"value": "250",
+	"type": "Integer",
+	"comment": "Milliseconds between writing the collected lines to the journal."
+},
 {
 	"key": "notebook_name_validation_pattern",
 	"value": "[A-Za-z0-9-_]+",
@@ -233,6 +269,18 @@
 	"type": "Integer",
 	"comment": "Width of the initial selection window."
 },
+{
+	"key": "notebook_sheet_bits",
+	"value": "8",
+	"type": "Integer",
+	"comment": "Bits per pixel that pages are kept with in memory: 8, or 4, 2 or 1 to save memory at the cost of shades of gray. A notebook can override this with sheet_bits in its notebook.properties file."
+},
+{
+	"key": "notebook_vector_mode",
+	"value": "false",
+	"type": "Boolean",
+	"comment": "Whether to also keep every line of a page as vectors. The image of the page is then only a cache that is drawn again from the vectors, which are saved next to the image."
+},
 {
 	"key": "onion_info_position_left",
 	"value": "10",
@@ -263,18 +311,48 @@
 	"type": "Float",
 	"comment": "Opacity of the individual onion layers. If this is set high, one can see the other layers pretty well, if one sets it low, a better separation is achieved."
 },
+{
+	"key": "page_cache_budget",
+	"value": "64",
+	"type": "Integer",
+	"comment": "Memory in MiB for the pages of all open notebooks. Recently used pages are kept as they are, colder ones are compressed, and the coldest are loaded from disk again."
+},
 {
 	"key": "page_number_position_top",
 	"value": "15",
 	"type": "Integer",
 	"comment": "Position of the page number from the top."
 },
+{
+	"key": "png_deflate_level",
+	"value": "4",
+	"type": "Integer",
+	"comment": "Deflate level for saved pages, from 0 (fastest, largest files) to 9 (slowest, smallest files)."
+},
+{
+	"key": "png_shade_levels",
+	"value": "0",
+	"type": "Integer",
+	"comment": "Number of gray levels from the foreground to the background color that the shades of saved pages are rounded to, which loses some detail. 16 writes black on white pages with 4 bits per pixel. 0 keeps every shade."
+},
+{
+	"key": "prefetch_pages",
+	"value": "3",
+	"type": "Integer",
+	"comment": "Highest number of pages that are read ahead in the direction of page flipping. With 0, only the shown page is read in the background."
+},
 {
 	"key": "program_name",
 	"value": "jscribble",
 	"type": "String",
 	"comment": "The name is used for the settings directory. If this is changed, all previously made notebooks are still on the disk, but cannot be accessed through the program any more."
 },
+{
+	"key": "render_fps",
+	"value": "60",
+	"type": "Integer",
+	"comment": "Maximum number of times per second the screen is updated. All changes within that time are painted at once, and the points of a stroke are drawn as one path."
+},
 {
 	"key": "ruling_graph_toggle_key",
 	"value": "g",
@@ -328,5 +406,11 @@
 	"value": "config.properties",
 	"type": "String",
 	"comment": "It does not make much sense to overwrite this since this property is always looked up in the default config."
+},
+{
+	"key": "writeout_thread_count",
+	"value": "0",
+	"type": "Integer",
+	"comment": "Number of threads that encode and write the page images. 0 uses one thread per processor."
 }
 ]
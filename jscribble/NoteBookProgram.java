@@ -133,12 +133,17 @@ public class NoteBookProgram {
 
         printVersionIfNeeded(args);
 
-        Logger.log(getProgramname(), Localizer.get("Starting up."));
+        // Parse the settings needed while drawing now, so that invalid values
+        // are reported right away.
+        Config.getSnapshot();
+        Logger.configure();
+
+        Logger.logFormat(getProgramname(), "Starting up.");
 
         showSelectionWindow();
 
-        Logger.log(NoteBookProgram.class.getClass().getName(),
-                   Localizer.get("Entering interactive mode."));
+        Logger.logFormat(NoteBookProgram.class.getClass().getName(),
+                         "Entering interactive mode.");
     }
 
     /**
@@ -24,7 +24,7 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 
-import jscribble.helpers.Config;
+import jscribble.helpers.CommandTable;
 
 /**
  * Listens to the keyboard for the command key and then polls the user for a
@@ -33,11 +33,29 @@ import jscribble.helpers.Config;
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class CommandListener implements KeyListener, MouseListener {
+    /**
+     * The commands that can be triggered by a key or mouse button.
+     */
+    private enum Command {
+        HELP_CLOSE, HELP_TOGGLE, RULING_TOGGLE, RULING_GRAPH_TOGGLE,
+        ONION_INCREASE, ONION_DECREASE, CLOSE, GO_FORWARD, GO_BACK
+    }
+
     /**
      * The DrawPanel that is displaying the NoteBook.
      */
     private DrawPanel drawPanel;
 
+    /**
+     * Commands by key.
+     */
+    private CommandTable<Command> keys = new CommandTable<Command>();
+
+    /**
+     * Commands by mouse button.
+     */
+    private CommandTable<Command> buttons = new CommandTable<Command>();
+
     /**
      * The listener that is to be notified when something is changed.
      */
@@ -51,6 +69,17 @@ public class CommandListener implements KeyListener, MouseListener {
     public CommandListener(DrawPanel drawPanel) {
         this.drawPanel = drawPanel;
         drawPanel.addMouseListener(this);
+
+        keys.add("help_screen_close_key", Command.HELP_CLOSE);
+        keys.add("help_screen_toggle_key", Command.HELP_TOGGLE);
+        keys.add("ruling_toggle_key", Command.RULING_TOGGLE);
+        keys.add("ruling_graph_toggle_key", Command.RULING_GRAPH_TOGGLE);
+        keys.add("onion_layer_increase_key", Command.ONION_INCREASE);
+        keys.add("onion_layer_decrease_key", Command.ONION_DECREASE);
+        keys.add("notebook_close_key", Command.CLOSE);
+
+        buttons.add("notebook_go_forward_mouse_button", Command.GO_FORWARD);
+        buttons.add("notebook_go_back_mouse_button", Command.GO_BACK);
     }
 
     /**
@@ -75,30 +104,39 @@ public class CommandListener implements KeyListener, MouseListener {
      */
     @Override
     public void keyReleased(KeyEvent event) {
-        if (Config.isKeyForCommand(event, "help_screen_close_key")) {
+        Command command = keys.get(event);
+        if (command == null) {
+            return;
+        }
+
+        switch (command) {
+        case HELP_CLOSE:
             drawPanel.setShowHelp(false);
             redrawer.actionPerformed(null);
-        }
-        else if (Config.isKeyForCommand(event, "help_screen_toggle_key")) {
+            break;
+        case HELP_TOGGLE:
             drawPanel.toggleHelp();
             redrawer.actionPerformed(null);
-        }
-        else if (Config.isKeyForCommand(event, "ruling_toggle_key")) {
+            break;
+        case RULING_TOGGLE:
             drawPanel.toggleRuling();
             redrawer.actionPerformed(null);
-        }
-        else if (Config.isKeyForCommand(event, "ruling_graph_toggle_key")) {
+            break;
+        case RULING_GRAPH_TOGGLE:
             drawPanel.toggleGraphRuling();
             redrawer.actionPerformed(null);
-        }
-        else if (Config.isKeyForCommand(event, "onion_layer_increase_key")) {
+            break;
+        case ONION_INCREASE:
             drawPanel.onionLayersIncrease();
-        }
-        else if (Config.isKeyForCommand(event, "onion_layer_decrease_key")) {
+            break;
+        case ONION_DECREASE:
             drawPanel.onionLayersDecrease();
-        }
-        else if (Config.isKeyForCommand(event, "notebook_close_key")) {
+            break;
+        case CLOSE:
             drawPanel.shutdown();
+            break;
+        default:
+            break;
         }
     }
 
@@ -114,10 +152,11 @@ public class CommandListener implements KeyListener, MouseListener {
      */
     @Override
     public void mouseClicked(MouseEvent event) {
-        if (Config.isButtonForCommand(event, "notebook_go_forward_mouse_button")) {
+        Command command = buttons.get(event);
+        if (command == Command.GO_FORWARD) {
             drawPanel.goForward();
         }
-        else if (Config.isButtonForCommand(event, "notebook_go_back_mouse_button")) {
+        else if (command == Command.GO_BACK) {
             drawPanel.goBackwards();
         }
     }
@@ -25,19 +25,25 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
-import java.awt.geom.Line2D;
+import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
+import java.io.File;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
 import jscribble.VersionName;
 import jscribble.helpers.Localizer;
-import jscribble.helpers.Logger;
+import jscribble.helpers.MessageTemplate;
 import jscribble.helpers.Config;
+import jscribble.helpers.ConfigSnapshot;
 import jscribble.notebook.BufferedImageWrapper;
 import jscribble.notebook.NoteBook;
+import jscribble.notebook.NoteSheet;
+import jscribble.notebook.PageCache;
 
 /**
  * Displays the current page of a NoteBook. It also listens to the mouse and
@@ -48,16 +54,6 @@ import jscribble.notebook.NoteBook;
  */
 @SuppressWarnings("serial")
 public class DrawPanel extends JPanel {
-    /**
-     * Color of the help lines.
-     */
-    private static final Color lineColor = Config.getColor("ruling_line_color");
-
-    /**
-     * The spacing between the help lines.
-     */
-    private static final int lineSpacing = Config.getInteger("ruling_line_spacing");
-
     /**
      * The NoteBook that is currently displayed.
      */
@@ -122,6 +118,48 @@ public class DrawPanel extends JPanel {
         ),
     };
 
+    /**
+     * Localized text of the help splash.
+     */
+    private final String helpSplashText =
+        Localizer.get("Press h or F1 to get help.");
+
+    /**
+     * Localized text shown while the page is read.
+     */
+    private final String loadingText = Localizer.get("Loading page …");
+
+    /**
+     * Template for the memory usage.
+     */
+    private final MessageTemplate memoryUsageTemplate =
+        Localizer.getTemplate("%d MiB used, %d MiB free, %d MiB total");
+
+    /**
+     * Template for the number of onion layers.
+     */
+    private final MessageTemplate onionInfoTemplate =
+        Localizer.getTemplate("Onion Layers: %d");
+
+    /**
+     * Template for the page cache statistics.
+     */
+    private final MessageTemplate pageCacheTemplate =
+        Localizer.getTemplate(
+            "Page cache: %d of %d MiB, hot %d/%d, compressed %d/%d");
+
+    /**
+     * Template for the page number.
+     */
+    private final MessageTemplate pageNumberTemplate =
+        Localizer.getTemplate("Page %d/%d");
+
+    /**
+     * Localized version identifier for the help screen.
+     */
+    private final String versionText =
+        Localizer.getTemplate("Version %s").format(VersionName.version);
+
     /**
      * How many images should be composed in a see through way.
      */
@@ -138,6 +176,42 @@ public class DrawPanel extends JPanel {
      */
     private BufferedImageWrapper imageWrapper;
 
+    /**
+     * Blank page with the lines that were drawn while the current page is
+     * read. It is kept as long as the size of the panel stays the same.
+     */
+    private BufferedImage placeholder;
+
+    /**
+     * Sheet whose lines are on the placeholder, null if it is blank.
+     */
+    private NoteSheet placeholderSheet;
+
+    /**
+     * Number of lines of the sheet that are on the placeholder.
+     */
+    private int placeholderStrokes;
+
+    /**
+     * Wrapper to draw onto the placeholder.
+     */
+    private BufferedImageWrapper placeholderWrapper;
+
+    /**
+     * Settings that are used while painting.
+     */
+    private ConfigSnapshot config = Config.getSnapshot();
+
+    /**
+     * Listener that collects the strokes of the mouse.
+     */
+    private PaintListener paintListener;
+
+    /**
+     * Measures how long strokes and page flips take to show up.
+     */
+    private LatencyMonitor latencyMonitor = new LatencyMonitor();
+
     /**
      * Whether the help splash screen is (still) displayed.
      */
@@ -154,9 +228,15 @@ public class DrawPanel extends JPanel {
     private Runtime r;
 
     /**
-     * Thread that handles redrawing after the erasing stops.
+     * Composes the onion layers.
+     */
+    private OnionCompositor onionCompositor = new OnionCompositor();
+
+    /**
+     * Repaints this panel once per frame and refreshes the layers after the
+     * erasing stops.
      */
-    private InvalidationThread invalidationThread;
+    private RenderScheduler renderScheduler;
 
     /**
      * Parent frame that needs to be closed when the user hits the close button.
@@ -174,10 +254,20 @@ public class DrawPanel extends JPanel {
         this.notebook = notebook;
         this.parent = parent;
 
+        renderScheduler = new RenderScheduler(this,
+                Config.getInteger("render_fps"),
+                Config.getInteger("notebook_erase_timeout"));
+        renderScheduler.setIdleListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                resetCachedImage();
+            }
+        });
+
         // Notify this instance when the notebook was is done drawing.
-        notebook.setDoneDrawing(new Redrawer(this));
+        notebook.setDoneDrawing(new Redrawer(renderScheduler, notebook));
 
-        new PaintListener(this);
+        paintListener = new PaintListener(this);
 
         r = Runtime.getRuntime();
     }
@@ -193,9 +283,9 @@ public class DrawPanel extends JPanel {
         }
 
         // Draw a dark rectangle to write the help text on.
-        g.setColor(Config.getColor("help_screen_background_color"));
-        int helpMargin = Config.getInteger("help_screen_margin");
-        int helpBorderRadius = Config.getInteger("help_screen_border_radius");
+        g.setColor(config.helpScreenBackgroundColor);
+        int helpMargin = config.helpScreenMargin;
+        int helpBorderRadius = config.helpScreenBorderRadius;
         g.fillRoundRect(
             helpMargin,
             helpMargin,
@@ -207,9 +297,9 @@ public class DrawPanel extends JPanel {
 
         // Iterate through the help items and display them.
         int i = 0;
-        int vspacing = Config.getInteger("help_screen_vspacing");
-        int spacing = Config.getInteger("help_screen_spacing");
-        int padding = Config.getInteger("help_screen_padding");
+        int vspacing = config.helpScreenVspacing;
+        int spacing = config.helpScreenSpacing;
+        int padding = config.helpScreenPadding;
         for (HelpItem h : helpItems) {
             g.drawString(h.helptext, padding, i * vspacing + padding);
             g.drawString(h.key, spacing + padding, i * vspacing +
@@ -219,8 +309,7 @@ public class DrawPanel extends JPanel {
 
         // Print the version identifier.
         g.setColor(Color.GRAY);
-        g.drawString(String.format(Localizer.get("Version %s"),
-                VersionName.version), padding, getHeight() - padding);
+        g.drawString(versionText, padding, getHeight() - padding);
     }
 
     /**
@@ -234,11 +323,11 @@ public class DrawPanel extends JPanel {
         }
 
         // Draw a dark rectangle to write the help text on.
-        g.setColor(Config.getColor("help_splash_background_color"));
+        g.setColor(config.helpSplashBackgroundColor);
         Dimension splashSize = new Dimension(
-            getWidth() - Config.getInteger("help_splash_margin") * 2,
-            Config.getInteger("help_splash_height"));
-        int helpSplashBorderRadius = Config.getInteger("help_splash_border_radius");
+            getWidth() - config.helpSplashMargin * 2,
+            config.helpSplashHeight);
+        int helpSplashBorderRadius = config.helpSplashBorderRadius;
         g.fillRoundRect(
             (getWidth() - splashSize.width) / 2,
             (getHeight() - splashSize.height) / 2,
@@ -247,8 +336,8 @@ public class DrawPanel extends JPanel {
             helpSplashBorderRadius);
         g.setColor(Color.WHITE);
 
-        g.drawString(Localizer.get("Press h or F1 to get help."),
-                (getWidth() - splashSize.width) / 2 + Config.getInteger("help_splash_margin"),
+        g.drawString(helpSplashText,
+                (getWidth() - splashSize.width) / 2 + config.helpSplashMargin,
                 getHeight() / 2 + 5);
     }
 
@@ -258,13 +347,13 @@ public class DrawPanel extends JPanel {
      *
      * @param line Line to draw.
      */
-    public void drawLine(Line2D line) {
+    public void drawLine(Shape line) {
         if (hasCachedImage()) {
             getImageWrapper().drawLine(line);
         }
         notebook.drawLine(line);
 
-        showHelpSplash = false;
+        hideHelpSplash();
     }
 
     /**
@@ -274,7 +363,8 @@ public class DrawPanel extends JPanel {
      */
     private void drawLines(Graphics2D g) {
         if (ruling != RulingType.NONE) {
-            g.setColor(lineColor);
+            g.setColor(config.rulingLineColor);
+            int lineSpacing = config.rulingLineSpacing;
 
             // Vertical lines.
             if (ruling == RulingType.GRAPH) {
@@ -291,24 +381,38 @@ public class DrawPanel extends JPanel {
     }
 
     /**
-     * Draws the memory usage onto the screen.
+     * Draws the memory usage and the page cache statistics onto the screen.
      *
      * @param g Graphics2D to draw on
      */
     private void drawMemoryUsage(Graphics2D g) {
-        if (!Config.getBoolean("memory_usage_show")) {
+        if (!config.memoryUsageShow) {
             return;
         }
 
         g.drawString(
-            String.format(
-                Localizer.get("%d MiB used, %d MiB free, %d MiB total"),
+            memoryUsageTemplate.format(
                 (r.totalMemory() - r.freeMemory()) / 1024 / 1024,
                 r.freeMemory() / 1024 / 1024,
                 r.totalMemory() / 1024 / 1024
             ),
-            Config.getInteger("memory_usage_position_left"),
-            getHeight() - Config.getInteger("memory_usage_position_bottom")
+            config.memoryUsagePositionLeft,
+            getHeight() - config.memoryUsagePositionBottom
+        );
+
+        PageCache cache = PageCache.getInstance();
+        g.drawString(
+            pageCacheTemplate.format(
+                cache.getUsedBytes() / 1024 / 1024,
+                cache.getBudget() / 1024 / 1024,
+                cache.getHotHits(),
+                cache.getHotMisses(),
+                cache.getCompressedHits(),
+                cache.getCompressedMisses()
+            ),
+            config.memoryUsagePositionLeft,
+            getHeight() - config.memoryUsagePositionBottom -
+            g.getFontMetrics().getHeight()
         );
     }
 
@@ -323,9 +427,9 @@ public class DrawPanel extends JPanel {
         }
 
         g.drawString(
-            String.format(Localizer.get("Onion Layers: %d"), onionMode),
-            Config.getInteger("onion_info_position_left"),
-            Config.getInteger("onion_info_position_top")
+            onionInfoTemplate.format(onionMode),
+            config.onionInfoPositionLeft,
+            config.onionInfoPositionTop
         );
     }
 
@@ -336,11 +440,47 @@ public class DrawPanel extends JPanel {
      */
     private void drawPageNumber(Graphics2D g) {
         g.setColor(Color.BLUE);
-        g.drawString(String.format(Localizer.get("Page %d/%d"),
+        g.drawString(pageNumberTemplate.format(
                 notebook.getCurrentSheet().getPagenumber(),
                 notebook.getSheetCount()),
                 getWidth() / 2,
-                Config.getInteger("page_number_position_top"));
+                config.pageNumberPositionTop);
+    }
+
+    /**
+     * Draws a blank page with the lines that were drawn so far while the
+     * current page is still read in the background.
+     *
+     * @param g Graphics2D to draw on
+     */
+    private void drawPlaceholder(Graphics2D g) {
+        if (placeholder == null || placeholder.getWidth() != getWidth() ||
+                placeholder.getHeight() != getHeight()) {
+            placeholder = new BufferedImage(getWidth(), getHeight(),
+                    BufferedImage.TYPE_BYTE_GRAY);
+            placeholderWrapper = new BufferedImageWrapper(placeholder);
+            placeholderSheet = null;
+        }
+
+        // Only the lines that are new since the last frame are drawn.
+        NoteSheet sheet = notebook.getCurrentSheet();
+        if (sheet != placeholderSheet) {
+            Graphics2D pg = placeholder.createGraphics();
+            pg.setColor(config.notebookBackgroundColor);
+            pg.fillRect(0, 0, getWidth(), getHeight());
+            pg.dispose();
+            placeholderSheet = sheet;
+            placeholderStrokes = 0;
+        }
+        placeholderStrokes = sheet.paintPendingStrokes(placeholderWrapper,
+                placeholderStrokes);
+        g.drawImage(placeholder, 0, 0, io);
+
+        g.setColor(Color.GRAY);
+        g.drawString(loadingText,
+                getWidth() / 2,
+                config.pageNumberPositionTop +
+                g.getFontMetrics().getHeight());
     }
 
     /**
@@ -351,30 +491,24 @@ public class DrawPanel extends JPanel {
      */
     private void drawScrollPanels(Graphics2D g) {
         // Do nothing if the option is not set.
-        if (!Config.getBoolean("scroll_panels_show")) {
+        if (!config.scrollPanelsShow) {
             return;
         }
 
-        try {
-            // Read the dimension of the panel from the config file.
-            int scrollPanelRadius = Config.getInteger("scroll_panel_width");
-            int scrollPanelPadding = Config.getInteger("scroll_panel_padding");
-
-            // Draw the panels on the sides.
-            g.setColor(Config.getColor("scroll_panel_color"));
-            g.fillRoundRect(-scrollPanelRadius, scrollPanelPadding,
-                    2 * scrollPanelRadius,
-                    getHeight() - 2 * scrollPanelPadding,
-                    scrollPanelRadius, scrollPanelRadius);
-            g.fillRoundRect(getWidth() - scrollPanelRadius,
-                    scrollPanelPadding, 2 * scrollPanelRadius,
-                    getHeight() - 2 * scrollPanelPadding,
-                    scrollPanelRadius, scrollPanelRadius);
-        }
-        catch (NumberFormatException e) {
-            Logger.handleError(Localizer.get(
-                        "Malformed entry in config file."));
-        }
+        // Read the dimension of the panel from the config file.
+        int scrollPanelRadius = config.scrollPanelWidth;
+        int scrollPanelPadding = config.scrollPanelPadding;
+
+        // Draw the panels on the sides.
+        g.setColor(config.scrollPanelColor);
+        g.fillRoundRect(-scrollPanelRadius, scrollPanelPadding,
+                2 * scrollPanelRadius,
+                getHeight() - 2 * scrollPanelPadding,
+                scrollPanelRadius, scrollPanelRadius);
+        g.fillRoundRect(getWidth() - scrollPanelRadius,
+                scrollPanelPadding, 2 * scrollPanelRadius,
+                getHeight() - 2 * scrollPanelPadding,
+                scrollPanelRadius, scrollPanelRadius);
     }
 
     /**
@@ -383,7 +517,7 @@ public class DrawPanel extends JPanel {
      *
      * @param line Line to erase.
      */
-    public void eraseLine(Line2D line) {
+    public void eraseLine(Shape line) {
         if (hasCachedImage()) {
             getImageWrapper().eraseLine(line);
 
@@ -394,65 +528,47 @@ public class DrawPanel extends JPanel {
              * expiration if that did not happen yet. If it is scheduled
              * already, keep it alive for a little longer.
              */
-            getInvalidationThread().keepAlive();
+            renderScheduler.keepAlive();
         }
 
         notebook.eraseLine(line);
 
-        showHelpSplash = false;
+        hideHelpSplash();
     }
 
     /**
-     * Returns the cached image. This can be the original image if there is no
-     * onion mode used, or the layered image if used. If there is no image yet,
-     * it will be created and composed.
+     * Returns the layered image for onion mode and ruling. If there is no
+     * image yet, it will be created and composed.
      *
      * @return Image which contains all the drawing information
      */
     private BufferedImage getCachedImage() {
-        // If the onion mode is not enabled, the original image can be used.
-        if (!isOnionMode() && ruling == RulingType.NONE) {
-            return notebook.getCurrentSheet().getImg();
-        }
-
         if (cachedImage == null) {
-            // Create a new blank image.
+            // Start with the onion layers, the compositor only reads the
+            // pages that are new since last time.
             cachedImage = new BufferedImage(getWidth(), getHeight(),
                     BufferedImage.TYPE_BYTE_GRAY);
             Graphics2D g2 = (Graphics2D) cachedImage.getGraphics();
-            g2.setColor(Config.getColor("notebook_background_color"));
-            g2.fillRect(0, 0, getWidth(), getHeight());
-
-            // Go back as many pages as there should be onion layers.
-            int wentBack = 0;
-            for (; wentBack < onionMode; wentBack++) {
-                int prevPageNumber = notebook.getCurrentSheet()
-                        .getPagenumber();
-                notebook.goBackwards();
-                if (prevPageNumber == notebook.getCurrentSheet()
-                        .getPagenumber()) {
-                    break;
-                }
+            BufferedImage underlay = isOnionMode() ?
+                onionCompositor.getUnderlay(notebook, onionMode, getWidth(),
+                        getHeight()) : null;
+            if (underlay != null) {
+                g2.drawImage(underlay, 0, 0, io);
+            }
+            else {
+                g2.setColor(config.notebookBackgroundColor);
+                g2.fillRect(0, 0, getWidth(), getHeight());
             }
 
-            // Set the layers to a given opacity.
+            // Set the ruling and the current page to the opacity of the
+            // layers.
             g2.setComposite(AlphaComposite.getInstance(
                         AlphaComposite.SRC_ATOP,
-                        (float)(Config.getDouble("onion_mode_opacity") / Math.max(onionMode, 1))));
-
-            // Iterate through from the bottom to the top layer and compose
-            // the images onto the cache image.
-            while (wentBack > 0) {
-                g2.drawImage(notebook.getCurrentSheet().getImg(), 0, 0, io);
-
-                // Move on to the next NoteSheet.
-                wentBack--;
-                notebook.goForward();
-            }
+                        OnionCompositor.getOpacity(onionMode)));
 
             drawLines(g2);
 
-            g2.drawImage(notebook.getCurrentSheet().getImg(), 0, 0, io);
+            notebook.getCurrentSheet().getTiledImage().paint(g2, io);
         }
 
         return cachedImage;
@@ -473,21 +589,29 @@ public class DrawPanel extends JPanel {
     }
 
     /**
-     * Returns an initializes the InvalidationThread.
-     * @return Initialized InvalidationThread.
+     * Returns the monitor that measures the latency of this panel.
+     *
+     * @return Latency monitor of this panel.
      */
-    private InvalidationThread getInvalidationThread() {
-        if (invalidationThread == null || !invalidationThread.isAlive()) {
-            invalidationThread = new InvalidationThread(this);
-            invalidationThread.start();
-        }
-        return invalidationThread;
+    public LatencyMonitor getLatencyMonitor() {
+        return latencyMonitor;
+    }
+
+    /**
+     * Returns the scheduler that repaints this panel.
+     *
+     * @return Scheduler of this panel.
+     */
+    public RenderScheduler getRenderScheduler() {
+        return renderScheduler;
     }
 
     /**
      * Goes one page back.
      */
     public void goBackwards() {
+        paintListener.finishStroke();
+        latencyMonitor.flipRequested(notebook.getCurrentSheet());
         resetCachedImage();
         notebook.goBackwards();
     }
@@ -496,6 +620,8 @@ public class DrawPanel extends JPanel {
      * Goes one page forward.
      */
     public void goForward() {
+        paintListener.finishStroke();
+        latencyMonitor.flipRequested(notebook.getCurrentSheet());
         resetCachedImage();
         notebook.goForward();
     }
@@ -504,6 +630,8 @@ public class DrawPanel extends JPanel {
      * Goes to the first page.
      */
     public void gotoFirst() {
+        paintListener.finishStroke();
+        latencyMonitor.flipRequested(notebook.getCurrentSheet());
         resetCachedImage();
         notebook.gotoFirst();
     }
@@ -512,6 +640,8 @@ public class DrawPanel extends JPanel {
      * Goes to the last page.
      */
     public void gotoLast() {
+        paintListener.finishStroke();
+        latencyMonitor.flipRequested(notebook.getCurrentSheet());
         resetCachedImage();
         notebook.gotoLast();
     }
@@ -525,6 +655,17 @@ public class DrawPanel extends JPanel {
         return cachedImage != null;
     }
 
+    /**
+     * Hides the help splash screen. The screen is covered by the splash, so
+     * it has to be repainted as a whole, not only the changed area.
+     */
+    private void hideHelpSplash() {
+        if (showHelpSplash) {
+            showHelpSplash = false;
+            renderScheduler.invalidate();
+        }
+    }
+
     /**
      * Whether there are any onion layers displayed.
      *
@@ -545,7 +686,7 @@ public class DrawPanel extends JPanel {
 
         resetCachedImage();
         onionMode--;
-        repaint();
+        renderScheduler.invalidate();
     }
 
     /**
@@ -555,7 +696,7 @@ public class DrawPanel extends JPanel {
         resetCachedImage();
 
         onionMode++;
-        repaint();
+        renderScheduler.invalidate();
     }
 
     /**
@@ -571,8 +712,24 @@ public class DrawPanel extends JPanel {
                         RenderingHints.VALUE_ANTIALIAS_ON));
 
 
-        // Draw the current image.
-        g.drawImage(getCachedImage(), 0, 0, io);
+        // Draw the current image. While it is read, a placeholder is shown.
+        // Without onion mode and ruling, the tiles of the sheet can be drawn
+        // directly.
+        boolean ready = notebook.isCurrentSheetReady();
+        if (ready) {
+            // The next wait starts with a blank placeholder again.
+            placeholderSheet = null;
+        }
+
+        if (!ready) {
+            drawPlaceholder(g);
+        }
+        else if (!isOnionMode() && ruling == RulingType.NONE) {
+            notebook.getCurrentSheet().getTiledImage().paint(g, io);
+        }
+        else {
+            g.drawImage(getCachedImage(), 0, 0, io);
+        }
 
         drawPageNumber(g);
         drawOnionInfo(g);
@@ -580,6 +737,8 @@ public class DrawPanel extends JPanel {
         drawHelp(g);
         drawHelpSplash(g);
         drawMemoryUsage(g);
+
+        latencyMonitor.painted(ready ? notebook.getCurrentSheet() : null);
     }
 
     /**
@@ -602,6 +761,15 @@ public class DrawPanel extends JPanel {
      * Saves the NoteBook and closes the window.
      */
     public void shutdown() {
+        renderScheduler.stop();
+
+        latencyMonitor.logStatistics();
+        if (!Config.getString("latency_report_file").isEmpty()) {
+            latencyMonitor.export(new File(
+                        Config.getString("latency_report_file")));
+        }
+
+        onionCompositor.reset();
         notebook.saveToFiles();
         parent.setVisible(false);
     }
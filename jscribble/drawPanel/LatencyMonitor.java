@@ -0,0 +1,241 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.drawPanel;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import jscribble.NoteBookProgram;
+import jscribble.helpers.Config;
+import jscribble.helpers.LatencyHistogram;
+import jscribble.helpers.Logger;
+import jscribble.notebook.NoteSheet;
+
+/**
+ * Measures how long it takes until an input is visible on the screen.
+ *
+ * Each pointer movement is timestamped when it comes in. Once its stroke was
+ * drawn onto the page and the panel was painted after that, the time in
+ * between is recorded. Page flips are measured from the request to the first
+ * paint that shows the new page rather than a placeholder. A flip that does
+ * not change the page, like going back on the first page, is not counted.
+ *
+ * All methods have to be called on the event dispatch thread.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class LatencyMonitor {
+    /**
+     * Percentiles that are reported.
+     */
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    /**
+     * Latencies of strokes in nanoseconds.
+     */
+    private LatencyHistogram strokeLatency = new LatencyHistogram();
+
+    /**
+     * Latencies of page flips in nanoseconds.
+     */
+    private LatencyHistogram flipLatency = new LatencyHistogram();
+
+    /**
+     * Times of inputs that are not drawn onto the page yet.
+     */
+    private long[] waiting = new long[64];
+
+    /**
+     * Number of entries in waiting.
+     */
+    private int waitingCount;
+
+    /**
+     * Times of inputs that are drawn onto the page but not painted yet.
+     */
+    private long[] drawn = new long[64];
+
+    /**
+     * Number of entries in drawn.
+     */
+    private int drawnCount;
+
+    /**
+     * Time of the page flip that is not painted yet, 0 if there is none.
+     */
+    private long flipTime;
+
+    /**
+     * Sheet that was shown when the page flip was requested.
+     */
+    private NoteSheet flipFrom;
+
+    /**
+     * Appends the percentiles of the given histogram to the report.
+     *
+     * @param report Report to append to.
+     * @param name Name of the histogram.
+     * @param histogram Histogram to report.
+     */
+    private static void appendSummary(StringBuilder report, String name,
+            LatencyHistogram histogram) {
+        report.append(name);
+        report.append(String.format("\t%d", histogram.getCount()));
+        for (double percentile : PERCENTILES) {
+            report.append(String.format("\t%.3f",
+                        histogram.getPercentile(percentile) / 1e6));
+        }
+        report.append(String.format("\t%.3f", histogram.getMax() / 1e6));
+        report.append('\n');
+    }
+
+    /**
+     * Appends the report to the given file. A relative path is taken within
+     * the config directory.
+     *
+     * @param file File to append to.
+     */
+    public void export(File file) {
+        if (!file.isAbsolute()) {
+            file = new File(NoteBookProgram.getConfigDirectory(),
+                    file.getPath());
+        }
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(file, true));
+            SimpleDateFormat formatter = new SimpleDateFormat(
+                Config.getString("date_format"));
+            writer.println("# " + formatter.format(new Date()));
+            writer.print(getReport());
+        }
+        catch (IOException e) {
+            Logger.logFormat(getClass().getName(),
+                             "Could not write %s.", file.getAbsolutePath());
+            e.printStackTrace();
+        }
+        finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Marks the page flip that was just requested.
+     *
+     * @param shown Sheet that is shown before the flip.
+     */
+    public void flipRequested(NoteSheet shown) {
+        if (flipTime == 0) {
+            flipTime = System.nanoTime();
+            flipFrom = shown;
+        }
+    }
+
+    /**
+     * Returns the latencies of page flips.
+     *
+     * @return Histogram in nanoseconds.
+     */
+    public LatencyHistogram getFlipLatency() {
+        return flipLatency;
+    }
+
+    /**
+     * Gives a table of the latencies. Each line has the name, the count, the
+     * 50th, 99th and 99.9th percentile and the maximum, in milliseconds.
+     *
+     * @return Report with one line per kind of input.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        appendSummary(report, "stroke", strokeLatency);
+        appendSummary(report, "flip", flipLatency);
+        return report.toString();
+    }
+
+    /**
+     * Returns the latencies of strokes.
+     *
+     * @return Histogram in nanoseconds.
+     */
+    public LatencyHistogram getStrokeLatency() {
+        return strokeLatency;
+    }
+
+    /**
+     * Marks all inputs that came in so far as drawn onto the page.
+     */
+    public void inputDrawn() {
+        if (drawnCount + waitingCount > drawn.length) {
+            drawn = Arrays.copyOf(drawn, 2 * (drawnCount + waitingCount));
+        }
+        System.arraycopy(waiting, 0, drawn, drawnCount, waitingCount);
+        drawnCount += waitingCount;
+        waitingCount = 0;
+    }
+
+    /**
+     * Marks an input that just came in.
+     */
+    public void inputReceived() {
+        if (waitingCount == waiting.length) {
+            waiting = Arrays.copyOf(waiting, 2 * waiting.length);
+        }
+        waiting[waitingCount++] = System.nanoTime();
+    }
+
+    /**
+     * Logs the percentiles of the latencies.
+     */
+    public void logStatistics() {
+        if (Logger.isDebug()) {
+            Logger.log(getClass().getName(), getReport());
+        }
+    }
+
+    /**
+     * Records the latency of all inputs that were drawn and are now painted.
+     *
+     * @param shown Sheet that was painted, null if it was a placeholder.
+     */
+    public void painted(NoteSheet shown) {
+        long now = System.nanoTime();
+
+        for (int i = 0; i < drawnCount; i++) {
+            strokeLatency.record(now - drawn[i]);
+        }
+        drawnCount = 0;
+
+        if (shown != null && flipTime != 0) {
+            if (shown != flipFrom) {
+                flipLatency.record(now - flipTime);
+            }
+            flipTime = 0;
+            flipFrom = null;
+        }
+    }
+}
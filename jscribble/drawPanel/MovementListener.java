@@ -22,7 +22,7 @@ package jscribble.drawPanel;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 
-import jscribble.helpers.Config;
+import jscribble.helpers.CommandTable;
 
 /**
  * Handles movement commands from the keyboard.
@@ -31,57 +31,34 @@ import jscribble.helpers.Config;
  */
 public class MovementListener implements KeyListener {
     /**
-     * The DrawPanel that displays the current NoteBook.
-     */
-    private final DrawPanel drawPanel;
-
-    /**
-     * Creates a MovementListener that relays to the given DrawPanel.
-     *
-     * @param drawPanel Notify this.
+     * The movements that can be triggered by a key.
      */
-    public MovementListener(DrawPanel drawPanel) {
-        this.drawPanel = drawPanel;
+    private enum Movement {
+        FORWARD, BACK, FIRST, LAST
     }
 
     /**
-     * Determines whether a given KeyEvent should fire going back a page.
-     *
-     * @param event KeyEvent to process
-     * @return Whether this should fire going back a page.
+     * The DrawPanel that displays the current NoteBook.
      */
-    private boolean isKeyGoBack(KeyEvent event) {
-        return Config.isKeyForCommand(event, "notebook_go_back_key");
-    }
+    private final DrawPanel drawPanel;
 
     /**
-     * Determines whether a given KeyEvent should fire going forward a page.
-     *
-     * @param event KeyEvent to process
-     * @return Whether this should fire going forward a page.
+     * Movements by key.
      */
-    private boolean isKeyGoForward(KeyEvent event) {
-        return Config.isKeyForCommand(event, "notebook_go_forward_key");
-    }
+    private final CommandTable<Movement> keys = new CommandTable<Movement>();
 
     /**
-     * Determines whether a given KeyEvent should fire going to the first page.
+     * Creates a MovementListener that relays to the given DrawPanel.
      *
-     * @param event KeyEvent to process
-     * @return Whether this should fire going to the first page.
+     * @param drawPanel Notify this.
      */
-    private boolean isKeyGotoFirst(KeyEvent event) {
-        return Config.isKeyForCommand(event, "notebook_goto_first_key");
-    }
+    public MovementListener(DrawPanel drawPanel) {
+        this.drawPanel = drawPanel;
 
-    /**
-     * Determines whether a given KeyEvent should fire going to the last page.
-     *
-     * @param event KeyEvent to process
-     * @return Whether this should fire going to the last page.
-     */
-    private boolean isKeyGotoLast(KeyEvent event) {
-        return Config.isKeyForCommand(event, "notebook_goto_last_key");
+        keys.add("notebook_go_forward_key", Movement.FORWARD);
+        keys.add("notebook_go_back_key", Movement.BACK);
+        keys.add("notebook_goto_first_key", Movement.FIRST);
+        keys.add("notebook_goto_last_key", Movement.LAST);
     }
 
     /**
@@ -93,20 +70,24 @@ public class MovementListener implements KeyListener {
      * Handles various keys.
      */
     public void keyReleased(KeyEvent event) {
-        if (isKeyGoForward(event)) {
-            drawPanel.goForward();
+        Movement movement = keys.get(event);
+        if (movement == null) {
+            return;
         }
 
-        if (isKeyGoBack(event)) {
+        switch (movement) {
+        case FORWARD:
+            drawPanel.goForward();
+            break;
+        case BACK:
             drawPanel.goBackwards();
-        }
-
-        if (isKeyGotoFirst(event)) {
+            break;
+        case FIRST:
             drawPanel.gotoFirst();
-        }
-
-        if (isKeyGotoLast(event)) {
+            break;
+        case LAST:
             drawPanel.gotoLast();
+            break;
         }
     }
 
@@ -24,7 +24,6 @@ import java.awt.event.WindowEvent;
 
 import javax.swing.JFrame;
 
-import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
 import jscribble.notebook.NoteBook;
 
@@ -53,9 +52,8 @@ public class NoteBookClosingAdapter extends WindowAdapter {
      */
     public void windowClosing(WindowEvent winEvt) {
         notebook.saveToFiles();
-        Logger.log(getClass().getName(),
-                   String.format(Localizer.get("Closing NoteBook \"%s\"."),
-                           notebook.getName()));
+        Logger.logFormat(getClass().getName(),
+                         "Closing NoteBook \"%s\".", notebook.getName());
         f.setVisible(false);
     }
 }
@@ -0,0 +1,280 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.drawPanel;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jscribble.helpers.Config;
+import jscribble.helpers.Logger;
+import jscribble.notebook.NoteBook;
+import jscribble.notebook.NoteSheet;
+import jscribble.notebook.TiledImage;
+
+/**
+ * Composes the onion layers, the pages before the current one, into a single
+ * underlay. The pages are read without turning the pages of the NoteBook.
+ *
+ * Every layer is kept as a snapshot of its page. When the user goes to the
+ * next page, only the page that was just left needs to be read, all the
+ * other layers are taken over and the oldest one is dropped. Pages that are
+ * not in memory are read in parallel. The blended underlay is kept until the
+ * pages, the lines on them or the number of layers change.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class OnionCompositor {
+    /**
+     * Threads that read the pages. They are shared by all compositors.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Background color of the pages.
+     */
+    private Color background = Config.getSnapshot().notebookBackgroundColor;
+
+    /**
+     * Change counts of the sheets at the time their snapshots were taken.
+     */
+    private ArrayList<Long> changeCounts = new ArrayList<Long>();
+
+    /**
+     * Snapshots of the layer pages, the closest page first. A blank page is
+     * null.
+     */
+    private ArrayList<TiledImage> layers = new ArrayList<TiledImage>();
+
+    /**
+     * Number of layer pages that were read since the compositor exists.
+     */
+    private long readCount;
+
+    /**
+     * Number of layer pages that were taken over from the previous underlay.
+     */
+    private long reuseCount;
+
+    /**
+     * The sheets that the layers belong to, in the same order.
+     */
+    private ArrayList<NoteSheet> sheets = new ArrayList<NoteSheet>();
+
+    /**
+     * The blended layers.
+     */
+    private BufferedImage underlay;
+
+    /**
+     * Number of layers the underlay was blended for.
+     */
+    private int underlayDepth;
+
+    /**
+     * Blends the layers onto a fresh underlay. The farthest page is drawn
+     * first, every page is drawn with the same opacity on top.
+     *
+     * @param depth Number of layers that are wanted.
+     * @param width Width of the underlay.
+     * @param height Height of the underlay.
+     */
+    private void blend(int depth, int width, int height) {
+        underlay = new BufferedImage(width, height,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = underlay.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_ATOP,
+                    getOpacity(depth)));
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            TiledImage layer = layers.get(i);
+            if (layer == null) {
+                g.setColor(background);
+                g.fillRect(0, 0, width, height);
+            }
+            else {
+                layer.paint(g, null);
+            }
+        }
+        g.dispose();
+
+        underlayDepth = depth;
+    }
+
+    /**
+     * Returns the thread pool that reads the pages.
+     *
+     * @return Shared thread pool.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OnionCompositor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the opacity that every layer is drawn with.
+     *
+     * @param depth Number of layers.
+     * @return Opacity of a single layer.
+     */
+    public static float getOpacity(int depth) {
+        return (float) (Config.getSnapshot().onionModeOpacity /
+                Math.max(depth, 1));
+    }
+
+    /**
+     * Returns how many layer pages were read.
+     *
+     * @return Number of read pages.
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Returns how many layer pages were taken over from an earlier underlay.
+     *
+     * @return Number of reused pages.
+     */
+    public long getReuseCount() {
+        return reuseCount;
+    }
+
+    /**
+     * Returns the blended layers for the current page of the given NoteBook.
+     * If the pages behind did not change, the underlay from last time is
+     * returned.
+     *
+     * @param notebook NoteBook to take the pages from.
+     * @param depth Number of layers.
+     * @param width Width of the underlay.
+     * @param height Height of the underlay.
+     * @return Underlay that must not be changed, or null if the layers
+     * could not be read.
+     */
+    public BufferedImage getUnderlay(NoteBook notebook, int depth, int width,
+            int height) {
+        ArrayList<NoteSheet> wanted = new ArrayList<NoteSheet>();
+        ArrayList<Long> wantedCounts = new ArrayList<Long>();
+        for (int distance = 1; distance <= depth; distance++) {
+            NoteSheet sheet = notebook.getSheetBehind(distance);
+            if (sheet == null) {
+                break;
+            }
+            wanted.add(sheet);
+            wantedCounts.add(sheet.getChangeCount());
+        }
+
+        if (underlay != null && wanted.equals(sheets) &&
+                wantedCounts.equals(changeCounts) && depth == underlayDepth && underlay.getWidth() == width &&
+                underlay.getHeight() == height) {
+            return underlay;
+        }
+
+        // Take over the layers that are still wanted and were not drawn on
+        // since.
+        HashMap<NoteSheet, Integer> known = new HashMap<NoteSheet, Integer>();
+        for (int i = 0; i < sheets.size(); i++) {
+            known.put(sheets.get(i), i);
+        }
+
+        ArrayList<TiledImage> newLayers = new ArrayList<TiledImage>();
+        ArrayList<Integer> missing = new ArrayList<Integer>();
+        List<Callable<TiledImage>> readers =
+            new ArrayList<Callable<TiledImage>>();
+        for (int i = 0; i < wanted.size(); i++) {
+            NoteSheet sheet = wanted.get(i);
+            Integer index = known.get(sheet);
+            if (index != null &&
+                    changeCounts.get(index).equals(wantedCounts.get(i))) {
+                newLayers.add(layers.get(index));
+                reuseCount++;
+            }
+            else {
+                newLayers.add(null);
+                missing.add(i);
+                readers.add(sheet.getSnapshotReader());
+            }
+        }
+
+        // Read all the other pages at the same time.
+        if (!readers.isEmpty()) {
+            try {
+                List<Future<TiledImage>> results =
+                    getExecutor().invokeAll(readers);
+                for (int i = 0; i < results.size(); i++) {
+                    newLayers.set(missing.get(i), results.get(i).get());
+                    readCount++;
+                }
+            }
+            catch (InterruptedException e) {
+                // The layers are only decoration, the page is shown without
+                // them this time.
+                Thread.currentThread().interrupt();
+                reset();
+                return null;
+            }
+            catch (ExecutionException e) {
+                Logger.logFormat(getClass().getName(),
+                                 "Could not read an onion layer.");
+            }
+        }
+
+        sheets = wanted;
+        changeCounts = wantedCounts;
+        layers = newLayers;
+        blend(depth, width, height);
+        return underlay;
+    }
+
+    /**
+     * Drops the layers and the underlay, for instance when the NoteBook is
+     * closed.
+     */
+    public void reset() {
+        sheets.clear();
+        changeCounts.clear();
+        layers.clear();
+        underlay = null;
+    }
+}
@@ -20,16 +20,25 @@
 package jscribble.drawPanel;
 
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
 
+import jscribble.helpers.CommandTable;
 import jscribble.helpers.Config;
+import jscribble.helpers.ConfigSnapshot;
 
 /**
  * Listens to mouse movements on the displaying panel and updates the NoteBook.
  *
+ * The mouse sends far more motion events than the screen can show. The points
+ * of a stroke are therefore collected and drawn as a single path once per
+ * frame.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class PaintListener implements MouseMotionListener, MouseListener {
@@ -45,6 +54,34 @@ public class PaintListener implements MouseMotionListener, MouseListener {
      */
     private DrawPanel drawPanel;
 
+    /**
+     * Settings that are used with every pointer movement.
+     */
+    private ConfigSnapshot config = Config.getSnapshot();
+
+    /**
+     * Whether a mouse button draws or erases.
+     */
+    private enum Tool {
+        DRAW, ERASE
+    }
+
+    /**
+     * Tools by mouse button.
+     */
+    private CommandTable<Tool> buttons = new CommandTable<Tool>();
+
+    /**
+     * Points of the current stroke that are not drawn yet, null if there are
+     * none.
+     */
+    private Path2D.Float pendingPath;
+
+    /**
+     * Whether the pending path is to be erased.
+     */
+    private boolean pendingErase;
+
     /**
      * Generates a new Listener that relays its commands to a given DrawPanel.
      *
@@ -54,6 +91,62 @@ public class PaintListener implements MouseMotionListener, MouseListener {
         this.drawPanel = drawPanel;
         drawPanel.addMouseListener(this);
         drawPanel.addMouseMotionListener(this);
+
+        buttons.add("notebook_draw_mouse_button", Tool.DRAW);
+        if (config.notebookEraseEnable) {
+            buttons.add("notebook_erase_mouse_button", Tool.ERASE);
+        }
+
+        drawPanel.getRenderScheduler().addFrameListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                finishStroke();
+            }
+        });
+    }
+
+    /**
+     * Adds a point to the pending path. A path of the other kind is drawn
+     * first.
+     *
+     * @param point Point the pointer moved to.
+     * @param erase Whether the stroke erases.
+     */
+    private void addToStroke(Point point, boolean erase) {
+        if (pendingPath != null && pendingErase != erase) {
+            finishStroke();
+        }
+
+        if (pendingPath == null) {
+            pendingPath = new Path2D.Float();
+            pendingPath.moveTo(lastPosition.x, lastPosition.y);
+            pendingErase = erase;
+        }
+        pendingPath.lineTo(point.x, point.y);
+        drawPanel.getLatencyMonitor().inputReceived();
+
+        drawPanel.getRenderScheduler().requestFrame();
+    }
+
+    /**
+     * Draws the points collected so far onto the DrawPanel. This has to be
+     * called before the page is changed.
+     */
+    public void finishStroke() {
+        if (pendingPath == null) {
+            return;
+        }
+
+        Path2D path = pendingPath;
+        pendingPath = null;
+
+        if (pendingErase) {
+            drawPanel.eraseLine(path);
+        }
+        else {
+            drawPanel.drawLine(path);
+        }
+        drawPanel.getLatencyMonitor().inputDrawn();
     }
 
     /**
@@ -62,43 +155,41 @@ public class PaintListener implements MouseMotionListener, MouseListener {
      */
     @Override
     public void mouseClicked(MouseEvent event) {
+        finishStroke();
+
         int x = event.getX();
 
-        if (Config.getBoolean("scroll_panels_show")) {
-            if (x <= Config.getInteger("scroll_panel_width")) {
+        if (config.scrollPanelsShow) {
+            if (x <= config.scrollPanelWidth) {
                 drawPanel.goBackwards();
                 return;
             }
             if (x >= drawPanel.getWidth() -
-                    Config.getInteger("scroll_panel_width")) {
+                    config.scrollPanelWidth) {
                 drawPanel.goForward();
                 return;
             }
         }
 
-        if (Config.isButtonForCommand(event, "notebook_draw_mouse_button")) {
+        Tool tool = buttons.get(event);
+        if (tool == Tool.DRAW) {
             Line2D line = new Line2D.Float(event.getPoint(), event.getPoint());
             drawPanel.drawLine(line);
         }
-        else if (Config.getBoolean("notebook_erase_enable")
-                 && Config.isButtonForCommand(event, "notebook_erase_mouse_button")) {
+        else if (tool == Tool.ERASE) {
             Line2D line = new Line2D.Float(event.getPoint(), event.getPoint());
             drawPanel.eraseLine(line);
         }
     }
 
     /**
-     * Tells the NoteBook to draw a line on it.
+     * Adds the line to the current stroke, which is drawn at the end of the
+     * frame.
      */
     public void mouseDragged(MouseEvent event) {
-        if (Config.isButtonForCommand(event, "notebook_draw_mouse_button")) {
-            Line2D line = new Line2D.Float(lastPosition, event.getPoint());
-            drawPanel.drawLine(line);
-        }
-        else if (Config.getBoolean("notebook_erase_enable")
-                 && Config.isButtonForCommand(event, "notebook_erase_mouse_button")) {
-            Line2D line = new Line2D.Float(lastPosition, event.getPoint());
-            drawPanel.eraseLine(line);
+        Tool tool = buttons.get(event);
+        if (tool != null) {
+            addToStroke(event.getPoint(), tool == Tool.ERASE);
         }
 
         lastPosition = event.getPoint();
@@ -131,8 +222,10 @@ public class PaintListener implements MouseMotionListener, MouseListener {
     public void mousePressed(MouseEvent ignored) { }
 
     /**
-     * Ignored.
+     * Draws the rest of the stroke right away.
      */
     @Override
-    public void mouseReleased(MouseEvent ignored) { }
+    public void mouseReleased(MouseEvent ignored) {
+        finishStroke();
+    }
 }
@@ -19,37 +19,70 @@
 
 package jscribble.drawPanel;
 
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
-import javax.swing.JPanel;
+import jscribble.notebook.NoteBook;
 
 
 /**
  * Listens to changes from the NoteBook and updates the panel.
  *
+ * If the NoteBook tells which area of the page changed, only that area is
+ * repainted. The RenderScheduler merges the areas requested during a frame
+ * into a single one, so fast strokes cost one small repaint per frame.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class Redrawer implements ActionListener {
     /**
-     * Panel which is to be redrawn.
+     * Scheduler of the panel which is to be redrawn.
+     */
+    private RenderScheduler scheduler;
+
+    /**
+     * NoteBook to ask for the changed area, might be null.
+     */
+    private NoteBook notebook;
+
+    /**
+     * Creates a new Redrawer that tells the given scheduler to redraw its
+     * panel.
+     *
+     * @param scheduler scheduler of the panel to redraw when notified
      */
-    private JPanel panel;
+    public Redrawer(RenderScheduler scheduler) {
+        this(scheduler, null);
+    }
 
     /**
-     * Creates a new Redrawer that tells the given Panel to redraw.
+     * Creates a new Redrawer that only redraws the changed area of the given
+     * NoteBook.
      *
-     * @param panel panel to redraw when notified
+     * @param scheduler scheduler of the panel to redraw when notified
+     * @param notebook NoteBook that notifies this Redrawer
      */
-    public Redrawer(JPanel panel) {
-        this.panel = panel;
+    public Redrawer(RenderScheduler scheduler, NoteBook notebook) {
+        this.scheduler = scheduler;
+        this.notebook = notebook;
     }
 
     /**
-     * Redraws the previously set panel.
+     * Redraws the changed area of the previously set panel.
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        panel.repaint();
+        Rectangle region = null;
+        if (notebook != null) {
+            region = notebook.getChangedRegion();
+        }
+
+        if (region == null) {
+            scheduler.invalidate();
+        }
+        else {
+            scheduler.invalidate(region);
+        }
     }
 }
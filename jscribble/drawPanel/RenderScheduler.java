@@ -0,0 +1,259 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.drawPanel;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Collects the requests to repaint a component and repaints it at most once
+ * per frame.
+ *
+ * All requests that come in during a frame are merged into a single repaint
+ * at the end of the frame. Listeners that need to do work once per frame,
+ * like drawing the collected points of a stroke, are called right before.
+ * The scheduler can also wait until no more events came in for a while, which
+ * is used to refresh the layers after erasing.
+ *
+ * A single timer does all of this. It only runs while there is something to
+ * do. All methods have to be called on the event dispatch thread.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class RenderScheduler implements ActionListener {
+    /**
+     * Component to repaint.
+     */
+    private JComponent component;
+
+    /**
+     * Timer that ends the frames.
+     */
+    private Timer timer;
+
+    /**
+     * Length of a frame in milliseconds.
+     */
+    private int frameMillis;
+
+    /**
+     * Time in milliseconds without events after which the idle listener is
+     * called.
+     */
+    private int idleMillis;
+
+    /**
+     * Listeners that are called at the end of each frame.
+     */
+    private ArrayList<ActionListener> frameListeners =
+        new ArrayList<ActionListener>();
+
+    /**
+     * Listener that is called once no events came in for a while.
+     */
+    private ActionListener idleListener;
+
+    /**
+     * Time when the idle listener is to be called, 0 if it is not.
+     */
+    private long idleDeadline;
+
+    /**
+     * Whether the whole component has to be repainted.
+     */
+    private boolean dirtyAll;
+
+    /**
+     * Area of the component that has to be repainted, null if none.
+     */
+    private Rectangle dirtyRegion;
+
+    /**
+     * Whether the frame listeners asked for another frame.
+     */
+    private boolean framePending;
+
+    /**
+     * Time when the last frame ended.
+     */
+    private long lastFrame;
+
+    /**
+     * Number of repaints that were issued.
+     */
+    private int frameCount;
+
+    /**
+     * Creates a new scheduler for the given component.
+     *
+     * @param component Component to repaint.
+     * @param fps Maximum number of repaints per second.
+     * @param idleMillis Time in milliseconds without events after which the
+     * idle listener is called.
+     */
+    public RenderScheduler(JComponent component, int fps, int idleMillis) {
+        this.component = component;
+        this.frameMillis = 1000 / Math.max(1, fps);
+        this.idleMillis = idleMillis;
+
+        timer = new Timer(frameMillis, this);
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Ends the current frame. The frame listeners are called, an expired
+     * idle deadline is handled and the dirty area is repainted.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        lastFrame = System.currentTimeMillis();
+        framePending = false;
+
+        for (ActionListener listener : frameListeners) {
+            listener.actionPerformed(e);
+        }
+
+        if (idleDeadline != 0 && lastFrame >= idleDeadline) {
+            idleDeadline = 0;
+            if (idleListener != null) {
+                idleListener.actionPerformed(e);
+            }
+            dirtyAll = true;
+        }
+
+        if (dirtyAll) {
+            component.repaint();
+            frameCount++;
+        }
+        else if (dirtyRegion != null) {
+            component.repaint(dirtyRegion);
+            frameCount++;
+        }
+        dirtyAll = false;
+        dirtyRegion = null;
+
+        if (idleDeadline == 0 && !framePending) {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Adds a listener that is called at the end of every frame, before the
+     * component is repainted.
+     *
+     * @param listener Listener to add.
+     */
+    public void addFrameListener(ActionListener listener) {
+        frameListeners.add(listener);
+    }
+
+    /**
+     * Returns the number of repaints that were issued so far.
+     *
+     * @return Number of repaints.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Requests that the whole component is repainted with the next frame.
+     */
+    public void invalidate() {
+        dirtyAll = true;
+        start();
+    }
+
+    /**
+     * Requests that the given area is repainted with the next frame.
+     *
+     * @param region Area to repaint.
+     */
+    public void invalidate(Rectangle region) {
+        if (dirtyAll) {
+            return;
+        }
+
+        if (dirtyRegion == null) {
+            dirtyRegion = new Rectangle(region);
+        }
+        else {
+            dirtyRegion.add(region);
+        }
+        start();
+    }
+
+    /**
+     * Tells the scheduler that another event came in. The idle listener is
+     * called once this was not done for the idle time.
+     */
+    public void keepAlive() {
+        idleDeadline = System.currentTimeMillis() + idleMillis;
+        start();
+    }
+
+    /**
+     * Requests another frame, so that the frame listeners are called.
+     */
+    public void requestFrame() {
+        framePending = true;
+        start();
+    }
+
+    /**
+     * Sets the listener that is called once no events came in for a while.
+     *
+     * @param listener Listener to call.
+     */
+    public void setIdleListener(ActionListener listener) {
+        idleListener = listener;
+    }
+
+    /**
+     * Starts the timer if it is not running. The first frame ends one frame
+     * length after the last one, so that there are no more repaints than
+     * frames.
+     */
+    private void start() {
+        if (timer.isRunning()) {
+            return;
+        }
+
+        long wait = lastFrame + frameMillis - System.currentTimeMillis();
+        timer.setInitialDelay((int) Math.max(0, Math.min(wait, frameMillis)));
+        timer.start();
+    }
+
+    /**
+     * Stops the timer. Requests that are still open are dropped.
+     */
+    public void stop() {
+        timer.stop();
+        idleDeadline = 0;
+        framePending = false;
+        dirtyAll = false;
+        dirtyRegion = null;
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.helpers;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+
+/**
+ * Looks up which command a key or mouse button triggers.
+ *
+ * The bindings of the commands are compiled into sorted arrays of key
+ * characters, key codes and mouse modifiers once. Finding the command of an
+ * event is then a binary search without any allocation, instead of parsing
+ * every setting again with each event.
+ *
+ * A table either holds keys or mouse buttons, since the key codes and the
+ * mouse modifiers would be mixed up otherwise. If an input is bound to
+ * several commands, the command that was added first wins.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ *
+ * @param <T> Type of the commands.
+ */
+public class CommandTable<T> {
+    /**
+     * Sorted key characters.
+     */
+    private int[] chars = new int[0];
+
+    /**
+     * Commands of the key characters.
+     */
+    private Object[] charCommands = new Object[0];
+
+    /**
+     * Sorted key codes or mouse modifiers.
+     */
+    private int[] codes = new int[0];
+
+    /**
+     * Commands of the key codes or mouse modifiers.
+     */
+    private Object[] codeCommands = new Object[0];
+
+    /**
+     * Adds the keys or mouse buttons of a setting.
+     *
+     * @param setting Name of the setting, ending in "_key" or
+     * "_mouse_button".
+     * @param command Command that the inputs trigger.
+     */
+    public void add(String setting, T command) {
+        InputBinding binding = Config.getSnapshot().getBinding(setting);
+        if (binding == null) {
+            Logger.handleError(String.format(
+                        Localizer.get("There is no default setting for %s."),
+                        setting));
+            return;
+        }
+
+        for (char c : binding.getChars()) {
+            int index = Arrays.binarySearch(chars, c);
+            if (index < 0) {
+                chars = insert(chars, -index - 1, c);
+                charCommands = insert(charCommands, -index - 1, command);
+            }
+        }
+        for (int code : binding.getCodes()) {
+            int index = Arrays.binarySearch(codes, code);
+            if (index < 0) {
+                codes = insert(codes, -index - 1, code);
+                codeCommands = insert(codeCommands, -index - 1, command);
+            }
+        }
+    }
+
+    /**
+     * Looks up the command of a value.
+     *
+     * @param keys Sorted values.
+     * @param commands Commands of the values.
+     * @param key Value to look up.
+     * @return Command, null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private T find(int[] keys, Object[] commands, int key) {
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            return null;
+        }
+        return (T) commands[index];
+    }
+
+    /**
+     * Finds the command of a key. The character of the key is looked up
+     * first, then its key code.
+     *
+     * @param event Pressed key.
+     * @return Command, null if the key does not trigger any.
+     */
+    public T get(KeyEvent event) {
+        T command = find(chars, charCommands, event.getKeyChar());
+        if (command == null) {
+            command = find(codes, codeCommands, event.getKeyCode());
+        }
+        return command;
+    }
+
+    /**
+     * Finds the command of the buttons and modifiers of a mouse event.
+     *
+     * @param event Mouse event.
+     * @return Command, null if the buttons do not trigger any.
+     */
+    public T get(MouseEvent event) {
+        return find(codes, codeCommands, event.getModifiersEx());
+    }
+
+    /**
+     * Inserts a value into an array.
+     *
+     * @param array Array to insert into.
+     * @param index Position of the new value.
+     * @param value Value to insert.
+     * @return New array.
+     */
+    private static int[] insert(int[] array, int index, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1,
+                array.length - index);
+        return result;
+    }
+
+    /**
+     * Inserts a value into an array.
+     *
+     * @param array Array to insert into.
+     * @param index Position of the new value.
+     * @param value Value to insert.
+     * @return New array.
+     */
+    private static Object[] insert(Object[] array, int index, Object value) {
+        Object[] result = new Object[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1,
+                array.length - index);
+        return result;
+    }
+}
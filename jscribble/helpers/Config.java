@@ -20,13 +20,13 @@
 package jscribble.helpers;
 
 import java.awt.Color;
-import java.awt.event.KeyEvent;
-import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 import jscribble.NoteBookProgram;
 
@@ -53,6 +53,12 @@ public class Config {
      */
     private static Properties sessionConfig;
 
+    /**
+     * Parsed settings for the code that runs with every paint, null if they
+     * were not resolved yet.
+     */
+    private static ConfigSnapshot snapshot;
+
     /**
      * Looks up a boolean value in the config file.
      *
@@ -108,6 +114,34 @@ public class Config {
         return color > 0xFFFFFF || color < 0;
     }
 
+    /**
+     * Returns the names of all settings.
+     *
+     * @return Names of the settings.
+     */
+    static Set<String> getKeys() {
+        TreeSet<String> keys = new TreeSet<String>(
+            getDefaultConfig().stringPropertyNames());
+        keys.addAll(getUserConfig().stringPropertyNames());
+        if (sessionConfig != null) {
+            keys.addAll(sessionConfig.stringPropertyNames());
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the parsed settings, resolves them if needed. Invalid values
+     * are reported then.
+     *
+     * @return Snapshot of the settings.
+     */
+    public static synchronized ConfigSnapshot getSnapshot() {
+        if (snapshot == null) {
+            snapshot = new ConfigSnapshot();
+        }
+        return snapshot;
+    }
+
     /**
      * Looks up a string value in the config file.
      *
@@ -159,11 +193,15 @@ public class Config {
             File configfile = new File(NoteBookProgram.getConfigDirectory() + File.separator +
                     getString("user_config_filename"));
             if (configfile.exists()) {
-                Logger.log(Config.class.getClass().getName(), String.format(Localizer.get("Loading user configuration file from %s."), configfile.getName()));
+                Logger.logFormat(Config.class.getClass().getName(),
+                                 "Loading user configuration file from %s.",
+                                 configfile.getName());
                 userConfig.load(new FileInputStream(configfile));
             }
             else {
-                Logger.log(Config.class.getClass().getName(), String.format(Localizer.get("There is no user config in %s."), configfile.getAbsolutePath()));
+                Logger.logFormat(Config.class.getClass().getName(),
+                                 "There is no user config in %s.",
+                                 configfile.getAbsolutePath());
             }
         }
         catch (FileNotFoundException e) {
@@ -213,65 +251,17 @@ public class Config {
     }
 
     /**
-     * Checks whether a pressed key should trigger a command.
-     *
-     * @param event Pressed key.
-     * @param command Command in question.
-     * @return Whether this should trigger.
-     */
-    public static boolean isKeyForCommand(KeyEvent event, String command) {
-        String raw_array = retrieve(command);
-        if (raw_array.length() == 0) {
-            return false;
-        }
-        String[] parts = raw_array.split(",");
-        for (String part : parts) {
-            if (part.length() == 1) {
-                if (event.getKeyChar() == part.charAt(0)) {
-                    Logger.log(Config.class.getName(), String.format(Localizer.get("%c is a valid key for %s."), event.getKeyChar(), command));
-                    return true;
-                }
-            }
-            else if (event.getKeyCode() == Integer.parseInt(part)) {
-                Logger.log(Config.class.getName(), String.format(Localizer.get("%s is a valid key for %s."), KeyEvent.getKeyText(event.getKeyChar()), command));
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Checks whether a pressed mouse button should trigger a command.
-     *
-     * @param event Pressed mouse button.
-     * @param command Command in question.
-     * @return Whether this should trigger.
-     */
-    public static boolean isButtonForCommand(MouseEvent event, String command) {
-        String raw_array = retrieve(command);
-        if (raw_array.length() == 0) {
-            return false;
-        }
-        String[] parts = raw_array.split(",");
-        for (String part : parts) {
-            if (event.getModifiersEx() == Integer.parseInt(part)) {
-                Logger.log(Config.class.getName(), String.format(Localizer.get("%s is a valid key for %s."), MouseEvent.getModifiersExText(event.getModifiersEx()), command));
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Override a config setting for this session.
+     * Override a config setting for this session. The next snapshot sees the
+     * new value.
      *
      * @param key Key to override.
      * @param value New value.
      */
-    public static void set(String key, String value) {
+    public static synchronized void set(String key, String value) {
         if (sessionConfig == null) {
             sessionConfig = new Properties();
         }
         sessionConfig.setProperty(key, value);
+        snapshot = null;
     }
 }
@@ -0,0 +1,312 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.helpers;
+
+import java.awt.Color;
+import java.util.HashMap;
+
+/**
+ * The settings that are needed while painting and drawing, resolved and
+ * parsed once.
+ *
+ * Looking a setting up in the Config goes through up to three tables and
+ * parses the string every time. That is fine for setting up windows, but
+ * not for code that runs with every paint or pointer movement. Such code
+ * reads the fields of a snapshot instead. A setting with an invalid value is
+ * reported when the snapshot is created, not in the middle of painting.
+ *
+ * Get the snapshot with Config.getSnapshot(). It does not change, a setting
+ * that is changed afterwards is only seen by the next snapshot.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class ConfigSnapshot {
+    /**
+     * Background color of the help screen.
+     */
+    public final Color helpScreenBackgroundColor;
+
+    /**
+     * Radius of the corners of the help screen.
+     */
+    public final int helpScreenBorderRadius;
+
+    /**
+     * Margin around the help screen.
+     */
+    public final int helpScreenMargin;
+
+    /**
+     * Padding within the help screen.
+     */
+    public final int helpScreenPadding;
+
+    /**
+     * Horizontal spacing on the help screen.
+     */
+    public final int helpScreenSpacing;
+
+    /**
+     * Vertical spacing on the help screen.
+     */
+    public final int helpScreenVspacing;
+
+    /**
+     * Background color of the help splash.
+     */
+    public final Color helpSplashBackgroundColor;
+
+    /**
+     * Radius of the corners of the help splash.
+     */
+    public final int helpSplashBorderRadius;
+
+    /**
+     * Height of the help splash.
+     */
+    public final int helpSplashHeight;
+
+    /**
+     * Margin around the help splash.
+     */
+    public final int helpSplashMargin;
+
+    /**
+     * Distance of the memory usage from the bottom.
+     */
+    public final int memoryUsagePositionBottom;
+
+    /**
+     * Distance of the memory usage from the left.
+     */
+    public final int memoryUsagePositionLeft;
+
+    /**
+     * Whether the memory usage is shown.
+     */
+    public final boolean memoryUsageShow;
+
+    /**
+     * Background color of the pages.
+     */
+    public final Color notebookBackgroundColor;
+
+    /**
+     * Width of the pen.
+     */
+    public final int notebookDrawStrokeWidth;
+
+    /**
+     * Whether erasing is possible.
+     */
+    public final boolean notebookEraseEnable;
+
+    /**
+     * Width of the eraser.
+     */
+    public final int notebookEraseStrokeWidth;
+
+    /**
+     * Color of the pen.
+     */
+    public final Color notebookForegroundColor;
+
+    /**
+     * Whether the lines of a page are kept as vectors, too.
+     */
+    public final boolean notebookVectorMode;
+
+    /**
+     * Distance of the onion info from the left.
+     */
+    public final int onionInfoPositionLeft;
+
+    /**
+     * Distance of the onion info from the top.
+     */
+    public final int onionInfoPositionTop;
+
+    /**
+     * Opacity of the onion layers.
+     */
+    public final double onionModeOpacity;
+
+    /**
+     * Distance of the page number from the top.
+     */
+    public final int pageNumberPositionTop;
+
+    /**
+     * Color of the ruling.
+     */
+    public final Color rulingLineColor;
+
+    /**
+     * Distance between the lines of the ruling.
+     */
+    public final int rulingLineSpacing;
+
+    /**
+     * Color of the scroll panels.
+     */
+    public final Color scrollPanelColor;
+
+    /**
+     * Padding of the arrows in the scroll panels.
+     */
+    public final int scrollPanelPadding;
+
+    /**
+     * Width of the scroll panels.
+     */
+    public final int scrollPanelWidth;
+
+    /**
+     * Whether the scroll panels are shown.
+     */
+    public final boolean scrollPanelsShow;
+
+    /**
+     * Parsed keys and mouse buttons, by the name of their setting.
+     */
+    private final HashMap<String, InputBinding> bindings =
+        new HashMap<String, InputBinding>();
+
+    /**
+     * Resolves and parses the settings. Invalid values are reported right
+     * away.
+     */
+    ConfigSnapshot() {
+        helpScreenBackgroundColor = color("help_screen_background_color");
+        helpScreenBorderRadius = integer("help_screen_border_radius");
+        helpScreenMargin = integer("help_screen_margin");
+        helpScreenPadding = integer("help_screen_padding");
+        helpScreenSpacing = integer("help_screen_spacing");
+        helpScreenVspacing = integer("help_screen_vspacing");
+        helpSplashBackgroundColor = color("help_splash_background_color");
+        helpSplashBorderRadius = integer("help_splash_border_radius");
+        helpSplashHeight = integer("help_splash_height");
+        helpSplashMargin = integer("help_splash_margin");
+        memoryUsagePositionBottom = integer("memory_usage_position_bottom");
+        memoryUsagePositionLeft = integer("memory_usage_position_left");
+        memoryUsageShow = Config.getBoolean("memory_usage_show");
+        notebookBackgroundColor = color("notebook_background_color");
+        notebookDrawStrokeWidth = integer("notebook_draw_stroke_width");
+        notebookEraseEnable = Config.getBoolean("notebook_erase_enable");
+        notebookEraseStrokeWidth = integer("notebook_erase_stroke_width");
+        notebookForegroundColor = color("notebook_foreground_color");
+        notebookVectorMode = Config.getBoolean("notebook_vector_mode");
+        onionInfoPositionLeft = integer("onion_info_position_left");
+        onionInfoPositionTop = integer("onion_info_position_top");
+        onionModeOpacity = decimal("onion_mode_opacity");
+        pageNumberPositionTop = integer("page_number_position_top");
+        rulingLineColor = color("ruling_line_color");
+        rulingLineSpacing = integer("ruling_line_spacing");
+        scrollPanelColor = color("scroll_panel_color");
+        scrollPanelPadding = integer("scroll_panel_padding");
+        scrollPanelWidth = integer("scroll_panel_width");
+        scrollPanelsShow = Config.getBoolean("scroll_panels_show");
+
+        for (String key : Config.getKeys()) {
+            try {
+                if (key.endsWith("_mouse_button")) {
+                    bindings.put(key, InputBinding.parseButtons(
+                                Config.getString(key)));
+                }
+                else if (key.endsWith("_key")) {
+                    bindings.put(key, InputBinding.parseKeys(
+                                Config.getString(key)));
+                }
+            }
+            catch (NumberFormatException e) {
+                reportInvalid(key);
+            }
+        }
+    }
+
+    /**
+     * Parses a color setting.
+     *
+     * @param key Setting to parse.
+     * @return Parsed color.
+     */
+    private static Color color(String key) {
+        try {
+            return Config.getColor(key);
+        }
+        catch (NumberFormatException e) {
+            reportInvalid(key);
+            return Color.BLACK;
+        }
+    }
+
+    /**
+     * Parses a floating point setting.
+     *
+     * @param key Setting to parse.
+     * @return Parsed value.
+     */
+    private static double decimal(String key) {
+        try {
+            return Config.getDouble(key);
+        }
+        catch (NumberFormatException e) {
+            reportInvalid(key);
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the keys or mouse buttons of a setting.
+     *
+     * @param key Name of the setting, ending in "_key" or "_mouse_button".
+     * @return Parsed binding, null if there is no such setting.
+     */
+    public InputBinding getBinding(String key) {
+        return bindings.get(key);
+    }
+
+    /**
+     * Parses an integer setting.
+     *
+     * @param key Setting to parse.
+     * @return Parsed value.
+     */
+    private static int integer(String key) {
+        try {
+            return Config.getInteger(key);
+        }
+        catch (NumberFormatException e) {
+            reportInvalid(key);
+            return 0;
+        }
+    }
+
+    /**
+     * Reports a setting that cannot be parsed.
+     *
+     * @param key Name of the setting.
+     */
+    private static void reportInvalid(String key) {
+        Logger.handleError(String.format(
+                    Localizer.get("The setting %s has the invalid value \"%s\"."),
+                    key, Config.getString(key)));
+    }
+}
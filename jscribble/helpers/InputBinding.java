@@ -0,0 +1,161 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.helpers;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+
+/**
+ * The keys or mouse buttons that trigger a command, parsed from a setting.
+ *
+ * A key setting is a comma separated list of characters and key codes, like
+ * "j,40,39". A mouse setting is a list of modifier masks, like "0,1024".
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class InputBinding {
+    /**
+     * Characters that trigger the command.
+     */
+    private final char[] chars;
+
+    /**
+     * Key codes or modifier masks that trigger the command.
+     */
+    private final int[] codes;
+
+    /**
+     * Creates a new binding.
+     *
+     * @param chars Characters that trigger the command.
+     * @param codes Key codes or modifier masks that trigger the command.
+     */
+    private InputBinding(char[] chars, int[] codes) {
+        this.chars = chars;
+        this.codes = codes;
+    }
+
+    /**
+     * Returns the characters that trigger the command.
+     *
+     * @return Copy of the characters.
+     */
+    public char[] getChars() {
+        return Arrays.copyOf(chars, chars.length);
+    }
+
+    /**
+     * Returns the key codes or modifier masks that trigger the command.
+     *
+     * @return Copy of the codes.
+     */
+    public int[] getCodes() {
+        return Arrays.copyOf(codes, codes.length);
+    }
+
+    /**
+     * Checks whether the given key triggers the command.
+     *
+     * @param event Pressed key.
+     * @return Whether it triggers.
+     */
+    public boolean matches(KeyEvent event) {
+        for (char c : chars) {
+            if (event.getKeyChar() == c) {
+                return true;
+            }
+        }
+        for (int code : codes) {
+            if (event.getKeyCode() == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the buttons and modifiers of the given mouse event
+     * trigger the command.
+     *
+     * @param event Mouse event.
+     * @return Whether it triggers.
+     */
+    public boolean matches(MouseEvent event) {
+        for (int code : codes) {
+            if (event.getModifiersEx() == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a list of mouse modifier masks.
+     *
+     * @param raw Comma separated masks.
+     * @return Parsed binding.
+     * @throws NumberFormatException If a part is not a number.
+     */
+    public static InputBinding parseButtons(String raw) {
+        String[] parts = split(raw);
+        int[] codes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            codes[i] = Integer.parseInt(parts[i]);
+        }
+        return new InputBinding(new char[0], codes);
+    }
+
+    /**
+     * Parses a list of characters and key codes. A part with a single
+     * character is a character, everything else a key code.
+     *
+     * @param raw Comma separated characters and key codes.
+     * @return Parsed binding.
+     * @throws NumberFormatException If a longer part is not a number.
+     */
+    public static InputBinding parseKeys(String raw) {
+        StringBuilder chars = new StringBuilder();
+        int[] codes = new int[0];
+        for (String part : split(raw)) {
+            if (part.length() == 1) {
+                chars.append(part.charAt(0));
+            }
+            else {
+                codes = Arrays.copyOf(codes, codes.length + 1);
+                codes[codes.length - 1] = Integer.parseInt(part);
+            }
+        }
+        return new InputBinding(chars.toString().toCharArray(), codes);
+    }
+
+    /**
+     * Splits a comma separated list.
+     *
+     * @param raw List to split.
+     * @return Parts, none for an empty string.
+     */
+    private static String[] split(String raw) {
+        if (raw.length() == 0) {
+            return new String[0];
+        }
+        return raw.split(",");
+    }
+}
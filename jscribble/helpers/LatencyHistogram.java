@@ -0,0 +1,158 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.helpers;
+
+/**
+ * Counts latencies in buckets that grow with the value, like an HDR
+ * histogram.
+ *
+ * Values below 32 get a bucket of their own. Above that, every power of two
+ * is split into 32 buckets, so a value is known to about three percent
+ * precision, no matter whether it is a few microseconds or several seconds.
+ * Recording is a constant time operation without any allocation.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class LatencyHistogram {
+    /**
+     * Number of bits that are kept of each value.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of values in each bucket.
+     */
+    private long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+
+    /**
+     * Number of recorded values.
+     */
+    private long total;
+
+    /**
+     * Largest recorded value.
+     */
+    private long max;
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return Number of values.
+     */
+    public synchronized long getCount() {
+        return total;
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     *
+     * @param index Index of the bucket.
+     * @return Upper end of the bucket.
+     */
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Determines the bucket of the given value.
+     *
+     * @param value Value to sort in.
+     * @return Index of the bucket.
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >> shift);
+        return (shift + 1) * SUB_BUCKETS + sub - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return Largest value, 0 if there is none.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value that the given percentage of the recorded values do
+     * not exceed. The value is the upper end of its bucket.
+     *
+     * @param percentile Percentage between 0 and 100.
+     * @return Value at the percentile, 0 if there are no values.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        // A percentage like 99.9 is not exact in binary, the tolerance keeps
+        // it from counting one value too many.
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100.0 *
+                    total - 1e-9));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return Math.min(getHighestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Records a value. Negative values are counted as 0.
+     *
+     * @param value Value to record.
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts[getIndex(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public synchronized void reset() {
+        counts = new long[counts.length];
+        total = 0;
+        max = 0;
+    }
+}
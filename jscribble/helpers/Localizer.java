@@ -19,58 +19,122 @@
 
 package jscribble.helpers;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 
 /**
  * Localizes strings.
  *
+ * All translations for the current locale are read from the bundle once and
+ * kept in a table, so that looking up a string is only a hash lookup. Strings
+ * without a translation are returned as they are and only reported once.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class Localizer {
     /**
-     * Bundle containing the l10n into.
+     * Translations of a single locale.
      */
-    static ResourceBundle bundle;
+    private static class Table {
+        /**
+         * Locale the translations are for.
+         */
+        final Locale locale;
 
-    /**
-     * Translate a string.
-     *
-     * @param ident English language string.
-     * @return Native language string.
-     */
-    public static String get(String ident) {
-        // Try to load the ResourceBundle.
-        if (bundle == null) {
+        /**
+         * Translations by their English language string.
+         */
+        final Map<String, String> messages;
+
+        /**
+         * Reads all translations for the given locale.
+         *
+         * @param locale Locale to read.
+         */
+        Table(Locale locale) {
+            this.locale = locale;
+
+            Map<String, String> map = new HashMap<String, String>();
             try {
-                bundle = ResourceBundle.getBundle("l10n/jscribble");
+                ResourceBundle bundle = ResourceBundle.getBundle(
+                                            "l10n/jscribble", locale);
+                for (String key : bundle.keySet()) {
+                    map.put(key, bundle.getString(key));
+                }
             }
             catch (ExceptionInInitializerError e) {
                 Logger.log(Localizer.class.getName(),
                            "Error: " + e.getMessage());
-                bundle = null;
             }
             catch (MissingResourceException e) {
                 Logger.log(Localizer.class.getName(),
                            "Error: " + e.getMessage());
-                bundle = null;
             }
+            messages = Collections.unmodifiableMap(map);
         }
+    }
 
-        // Do not translate if there is no translation around.
-        if (bundle == null) {
-            return ident;
+    /**
+     * Strings that were asked for but have no translation. They are only
+     * kept to report every one of them once.
+     */
+    private static final Set<String> misses = new HashSet<String>();
+
+    /**
+     * Translations for the current locale.
+     */
+    private static volatile Table table;
+
+    /**
+     * Translate a string.
+     *
+     * @param ident English language string.
+     * @return Native language string.
+     */
+    public static String get(String ident) {
+        String message = getTable().messages.get(ident);
+        if (message != null) {
+            return message;
         }
-        else {
-            try {
-                return bundle.getString(ident);
-            }
-            catch (MissingResourceException e) {
+
+        // Do not translate if there is no translation around.
+        synchronized (misses) {
+            if (misses.add(ident)) {
                 Logger.log(Localizer.class.getName(),
-                           e.getMessage());
-                return ident;
+                           "Can't find resource for key " + ident);
             }
         }
+        return ident;
+    }
+
+    /**
+     * Returns the table for the current locale, reading it if the locale
+     * changed since.
+     */
+    private static Table getTable() {
+        Table current = table;
+        Locale locale = Locale.getDefault();
+        if (current == null || !current.locale.equals(locale)) {
+            current = new Table(locale);
+            table = current;
+        }
+        return current;
+    }
+
+    /**
+     * Translates a pattern and parses it for repeated formatting.
+     *
+     * @param pattern English language pattern as for {@link String#format}.
+     * @return Template for the native language pattern.
+     */
+    public static MessageTemplate getTemplate(String pattern) {
+        return new MessageTemplate(get(pattern));
     }
 }
@@ -20,22 +20,345 @@
 package jscribble.helpers;
 
 import java.awt.HeadlessException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.IllegalFormatException;
 
 import javax.swing.JOptionPane;
 
+import jscribble.NoteBookProgram;
+
 /**
- * Handles logging and error reporting
+ * Handles logging and error reporting.
+ *
+ * Log records are not formatted by the calling thread. They are put into a
+ * ring buffer with a fixed number of slots and a background thread formats
+ * and writes them. When logging is disabled, nothing is copied or formatted
+ * at all. When the ring buffer is full, records are dropped instead of
+ * blocking the caller, so that logging never stalls the drawing.
  *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class Logger {
+    /**
+     * A single slot in the ring buffer.
+     */
+    private static class Record {
+        /**
+         * Arguments for the pattern, or null.
+         */
+        Object[] args;
+
+        /**
+         * Whether the pattern has to be localized before formatting.
+         */
+        boolean localize;
+
+        /**
+         * Message or untranslated pattern.
+         */
+        String message;
+
+        /**
+         * Name of the reporting class.
+         */
+        String reportingClass;
+
+        /**
+         * Name of the thread that logged the record.
+         */
+        String thread;
+
+        /**
+         * Time of logging in milliseconds.
+         */
+        long time;
+    }
+
+    /**
+     * Number of slots in the ring buffer.
+     */
+    private static final int BUFFER_SIZE = 1024;
+
     /**
      * Whether to show debug information by default. This can be overridden by
      * the "-v" command line option.
      */
-    private static boolean debug = false;
+    private static volatile boolean debug = false;
+
+    /**
+     * Number of records that were dropped because the ring buffer was full
+     * and that have not been reported yet.
+     */
+    private static long dropped;
+
+    /**
+     * The current log file, or null if only standard output is used.
+     */
+    private static File file;
+
+    /**
+     * Number of rotated log files to keep.
+     */
+    private static int fileCount;
+
+    /**
+     * Size in bytes after which the log file is rotated.
+     */
+    private static long fileSize;
+
+    /**
+     * Formatter for the time stamps, only used by the writer thread.
+     */
+    private static SimpleDateFormat formatter;
+
+    /**
+     * Index of the oldest record in the ring buffer.
+     */
+    private static int head;
+
+    /**
+     * Whether to write every record as a JSON object on a line of its own.
+     */
+    private static boolean json;
+
+    /**
+     * Lock guarding the ring buffer and the counters.
+     */
+    private static final Object lock = new Object();
+
+    /**
+     * Lock guarding the output settings and streams.
+     */
+    private static final Object outputLock = new Object();
+
+    /**
+     * Stream to the log file, opened by the writer thread.
+     */
+    private static PrintStream out;
+
+    /**
+     * Preallocated slots of the ring buffer.
+     */
+    private static final Record[] ring = new Record[BUFFER_SIZE];
+
+    /**
+     * Number of records in the ring buffer.
+     */
+    private static int size;
+
+    /**
+     * Total number of records that were put into the ring buffer.
+     */
+    private static long submitted;
+
+    /**
+     * Total number of records that were written out.
+     */
+    private static long written;
+
+    /**
+     * Thread that formats and writes the records.
+     */
+    private static Thread writer;
+
+    static {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Record();
+        }
+    }
+
+    /**
+     * Reads the logging settings from the config. This has to be called after
+     * the command line options were parsed.
+     */
+    public static void configure() {
+        flush();
+        synchronized (outputLock) {
+            String name = Config.getString("log_file");
+            if (name.length() == 0) {
+                file = null;
+            }
+            else {
+                file = new File(name);
+                if (!file.isAbsolute()) {
+                    file = new File(NoteBookProgram.getConfigDirectory(), name);
+                }
+            }
+            fileCount = Math.max(0, Config.getInteger("log_file_count"));
+            fileSize = Math.max(1, Config.getInteger("log_file_size")) * 1024L;
+            json = Config.getBoolean("log_json");
+            formatter = new SimpleDateFormat(Config.getString("date_format"));
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Puts a record into the ring buffer and starts the writer thread if
+     * needed.
+     *
+     * @param reportingClass name of the reporting class
+     * @param message message or pattern
+     * @param localize whether the pattern has to be localized
+     * @param args arguments for the pattern
+     */
+    private static void enqueue(String reportingClass, String message,
+            boolean localize, Object[] args) {
+        long time = System.currentTimeMillis();
+        String thread = Thread.currentThread().getName();
+        synchronized (lock) {
+            if (size == ring.length) {
+                dropped++;
+                return;
+            }
+            Record record = ring[(head + size) % ring.length];
+            record.reportingClass = reportingClass;
+            record.message = message;
+            record.localize = localize;
+            record.args = args;
+            record.time = time;
+            record.thread = thread;
+            size++;
+            submitted++;
+
+            if (writer == null) {
+                writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeRecords();
+                    }
+                }, "Logger");
+                writer.setDaemon(true);
+                writer.start();
+
+                try {
+                    Runtime.getRuntime().addShutdownHook(new Thread() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    });
+                }
+                catch (IllegalStateException ignored) {
+                    // The program is already shutting down.
+                }
+            }
+            else if (size == 1) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Escapes a string to be used as a JSON string value.
+     *
+     * @param string string to escape
+     * @return quoted string
+     */
+    static String escapeJson(String string) {
+        StringBuilder sb = new StringBuilder(string.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                }
+                else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Waits until all records that were logged so far are written out. This
+     * gives up after a second so that a broken log file cannot hang the
+     * program.
+     */
+    public static void flush() {
+        long deadline = System.currentTimeMillis() + 1000;
+        synchronized (lock) {
+            long target = submitted;
+            while (written < target && writer != null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    lock.wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats a single record into a line.
+     *
+     * @param record record to format
+     * @return line without line break
+     */
+    private static String format(Record record) {
+        String message = record.message;
+        if (record.localize) {
+            message = Localizer.get(message);
+        }
+        if (record.args != null) {
+            try {
+                message = String.format(message, record.args);
+            }
+            catch (IllegalFormatException e) {
+                message = message + " " + Arrays.toString(record.args);
+            }
+        }
+
+        if (formatter == null) {
+            formatter = new SimpleDateFormat(Config.getString("date_format"));
+        }
+        String date = formatter.format(new Date(record.time));
+
+        if (json) {
+            return "{\"time\":" + escapeJson(date) +
+                   ",\"millis\":" + record.time +
+                   ",\"thread\":" + escapeJson(record.thread) +
+                   ",\"class\":" + escapeJson(String.valueOf(record.reportingClass)) +
+                   ",\"message\":" + escapeJson(message) + "}";
+        }
+        else {
+            return date + " " + record.reportingClass + ":\t" + message;
+        }
+    }
 
     /**
      * Handles some error message centrally, right now it just displays a
@@ -45,6 +368,7 @@ public class Logger {
      */
     public static void handleError(String errorMessage) {
         log("ERROR", errorMessage);
+        flush();
         try {
             JOptionPane.showMessageDialog(null, errorMessage);
         }
@@ -55,6 +379,14 @@ public class Logger {
         System.exit(1);
     }
 
+    /**
+     * Whether log messages are recorded at all. Callers that have to do
+     * expensive work only for logging can check this first.
+     */
+    public static boolean isDebug() {
+        return debug;
+    }
+
     /**
      * Writes a message to a log file.
      *
@@ -63,11 +395,112 @@ public class Logger {
      */
     public static void log(String reportingClass, String message) {
         if (debug) {
-            SimpleDateFormat formatter = new SimpleDateFormat(Config.getString("date_format"));
-            String date = formatter.format(new Date());
-            String output =  date + " " + reportingClass + ":\t" + message;
-            System.out.println(output);
+            enqueue(reportingClass, message, false, null);
+        }
+    }
+
+    /**
+     * Writes a localized message without arguments to the log.
+     *
+     * @param reportingClass name of the reporting class
+     * @param pattern untranslated pattern as for {@link String#format}
+     */
+    public static void logFormat(String reportingClass, String pattern) {
+        if (debug) {
+            enqueue(reportingClass, pattern, true, null);
+        }
+    }
+
+    /**
+     * Writes a localized and formatted message with one argument to the log.
+     * Unlike the variant with a variable number of arguments, no array is
+     * created when logging is disabled.
+     *
+     * @param reportingClass name of the reporting class
+     * @param pattern untranslated pattern as for {@link String#format}
+     * @param arg argument for the pattern
+     */
+    public static void logFormat(String reportingClass, String pattern,
+            Object arg) {
+        if (debug) {
+            enqueue(reportingClass, pattern, true, new Object[] {arg});
+        }
+    }
+
+    /**
+     * Writes a localized and formatted message with two arguments to the
+     * log.
+     *
+     * @param reportingClass name of the reporting class
+     * @param pattern untranslated pattern as for {@link String#format}
+     * @param arg1 first argument for the pattern
+     * @param arg2 second argument for the pattern
+     */
+    public static void logFormat(String reportingClass, String pattern,
+            Object arg1, Object arg2) {
+        if (debug) {
+            enqueue(reportingClass, pattern, true, new Object[] {arg1, arg2});
+        }
+    }
+
+    /**
+     * Writes a localized and formatted message with three arguments to the
+     * log.
+     *
+     * @param reportingClass name of the reporting class
+     * @param pattern untranslated pattern as for {@link String#format}
+     * @param arg1 first argument for the pattern
+     * @param arg2 second argument for the pattern
+     * @param arg3 third argument for the pattern
+     */
+    public static void logFormat(String reportingClass, String pattern,
+            Object arg1, Object arg2, Object arg3) {
+        if (debug) {
+            enqueue(reportingClass, pattern, true,
+                    new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    /**
+     * Writes a localized and formatted message to the log. The pattern is
+     * only translated and formatted by the writer thread, and not at all if
+     * logging is disabled, so this is cheap enough to be called while
+     * drawing.
+     *
+     * The array for the arguments, and any boxing of primitive arguments,
+     * still happens at the call site. Messages with more than three
+     * arguments on frequent paths should check {@link #isDebug()} first.
+     *
+     * @param reportingClass name of the reporting class
+     * @param pattern untranslated pattern as for {@link String#format}
+     * @param args arguments for the pattern
+     */
+    public static void logFormat(String reportingClass, String pattern,
+            Object... args) {
+        if (debug) {
+            enqueue(reportingClass, pattern, true, args.length == 0 ? null : args);
+        }
+    }
+
+    /**
+     * Moves the log file to the first backup and shifts all other backups by
+     * one, deleting the oldest one.
+     */
+    private static void rotate() {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (fileCount == 0) {
+            file.delete();
+            return;
         }
+        new File(file.getPath() + "." + fileCount).delete();
+        for (int i = fileCount - 1; i >= 1; i--) {
+            new File(file.getPath() + "." + i).renameTo(
+                new File(file.getPath() + "." + (i + 1)));
+        }
+        file.renameTo(new File(file.getPath() + ".1"));
     }
 
     /**
@@ -78,4 +511,87 @@ public class Logger {
     public static void setDebug(boolean b) {
         debug = b;
     }
+
+    /**
+     * Writes a single line to standard output and the log file.
+     *
+     * @param line line to write
+     */
+    private static void write(String line) {
+        System.out.println(line);
+
+        if (file == null) {
+            return;
+        }
+        try {
+            if (out == null) {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.exists()) {
+                    parent.mkdirs();
+                }
+                OutputStream stream = new FileOutputStream(file, true);
+                out = new PrintStream(stream, false, "UTF-8");
+            }
+            out.println(line);
+            out.flush();
+            if (file.length() >= fileSize) {
+                rotate();
+            }
+        }
+        catch (IOException e) {
+            System.out.println(String.format(
+                Localizer.get("Could not write %s."), file.getAbsolutePath()));
+            file = null;
+        }
+    }
+
+    /**
+     * Main loop of the writer thread. It takes the records out of the ring
+     * buffer one by one and writes them.
+     */
+    private static void writeRecords() {
+        Record current = new Record();
+        while (true) {
+            long lost;
+            synchronized (lock) {
+                while (size == 0) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // Swap the slot with a spare one, so that the lock does not
+                // have to be held while formatting.
+                Record record = ring[head];
+                ring[head] = current;
+                current = record;
+                head = (head + 1) % ring.length;
+                size--;
+                lost = dropped;
+                dropped = 0;
+            }
+
+            synchronized (outputLock) {
+                if (lost > 0) {
+                    Record note = new Record();
+                    note.reportingClass = Logger.class.getName();
+                    note.message = "%d log records were dropped.";
+                    note.localize = true;
+                    note.args = new Object[] {lost};
+                    note.time = current.time;
+                    note.thread = Thread.currentThread().getName();
+                    write(format(note));
+                }
+                write(format(current));
+            }
+            current.args = null;
+
+            synchronized (lock) {
+                written++;
+                lock.notifyAll();
+            }
+        }
+    }
 }
@@ -0,0 +1,148 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pattern as for {@link String#format} that is parsed once, so that it can
+ * be formatted repeatedly, like while painting, without parsing it again.
+ *
+ * Only the conversions "%s", "%d", "%%" and "%n" are supported, with or
+ * without an explicit argument index like "%2$d". Patterns with any other
+ * conversion are passed on to {@link String#format}.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class MessageTemplate {
+    /**
+     * Index of the argument for every placeholder.
+     */
+    private final int[] arguments;
+
+    /**
+     * Text before, between and after the placeholders. There is always one
+     * more literal than there are placeholders.
+     */
+    private final String[] literals;
+
+    /**
+     * The pattern, if it has to be formatted by String.format.
+     */
+    private final String pattern;
+
+    /**
+     * Parses the given pattern.
+     *
+     * @param pattern Pattern as for {@link String#format}.
+     */
+    public MessageTemplate(String pattern) {
+        List<String> literalList = new ArrayList<String>();
+        List<Integer> argumentList = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+        int nextArgument = 0;
+        boolean supported = true;
+
+        for (int i = 0; i < pattern.length() && supported; i++) {
+            char c = pattern.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+
+            // Read an optional argument index.
+            int j = i + 1;
+            while (j < pattern.length()
+                    && Character.isDigit(pattern.charAt(j))) {
+                j++;
+            }
+            int index = -1;
+            if (j > i + 1) {
+                if (j < pattern.length() && pattern.charAt(j) == '$'
+                        && j - i < 6) {
+                    index = Integer.parseInt(pattern.substring(i + 1, j)) - 1;
+                    j++;
+                }
+                if (index < 0) {
+                    supported = false;
+                    break;
+                }
+            }
+            if (j >= pattern.length()) {
+                supported = false;
+                break;
+            }
+
+            char conversion = pattern.charAt(j);
+            if (conversion == '%' && index == -1) {
+                literal.append('%');
+            }
+            else if (conversion == 'n' && index == -1) {
+                literal.append(System.getProperty("line.separator"));
+            }
+            else if (conversion == 's' || conversion == 'd') {
+                literalList.add(literal.toString());
+                literal.setLength(0);
+                argumentList.add(index == -1 ? nextArgument++ : index);
+            }
+            else {
+                supported = false;
+            }
+            i = j;
+        }
+        literalList.add(literal.toString());
+
+        if (supported) {
+            this.pattern = null;
+            literals = literalList.toArray(new String[literalList.size()]);
+            arguments = new int[argumentList.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = argumentList.get(i);
+            }
+        }
+        else {
+            this.pattern = pattern;
+            literals = null;
+            arguments = null;
+        }
+    }
+
+    /**
+     * Inserts the arguments into the pattern.
+     *
+     * @param args Arguments for the placeholders.
+     * @return Formatted string.
+     */
+    public String format(Object... args) {
+        if (pattern != null) {
+            return String.format(pattern, args);
+        }
+
+        StringBuilder sb = new StringBuilder(literals[0].length() + 16 *
+                                             arguments.length);
+        sb.append(literals[0]);
+        for (int i = 0; i < arguments.length; i++) {
+            sb.append(args[arguments[i]]);
+            sb.append(literals[i + 1]);
+        }
+        return sb.toString();
+    }
+}
@@ -22,15 +22,17 @@ package jscribble.notebook;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.Stroke;
-import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 
 import jscribble.helpers.Config;
 
 /**
- * Wraps drawing on an image.
+ * Wraps drawing on an image. The image is either a plain BufferedImage or the
+ * TiledImage of a NoteSheet, where only the touched tiles are drawn on.
  *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
@@ -40,32 +42,45 @@ public class BufferedImageWrapper {
      */
     private BufferedImage img;
 
+    /**
+     * Tiled image to draw onto, if this wraps a NoteSheet.
+     */
+    private TiledImage tiledImage;
+
     /**
      * Graphics context for the image.
      */
     private Graphics2D graphics;
 
+    /**
+     * Width of the stroke for drawing.
+     */
+    private int drawStrokeWidth = Config.getSnapshot().notebookDrawStrokeWidth;
+
+    /**
+     * Width of the stroke for erasing.
+     */
+    private int eraseStrokeWidth = Config.getSnapshot().notebookEraseStrokeWidth;
+
     /**
      * Stroke for drawing.
      */
-    private Stroke drawStroke = new BasicStroke(
-        Config.getInteger("notebook_draw_stroke_width"));
+    private Stroke drawStroke = createStroke(drawStrokeWidth);
 
     /**
      * Stroke for erasing.
      */
-    private Stroke eraseStroke = new BasicStroke(
-        Config.getInteger("notebook_erase_stroke_width"));
+    private Stroke eraseStroke = createStroke(eraseStrokeWidth);
 
     /**
      * Background color.
      */
-    private Color background = Config.getColor("notebook_background_color");
+    private Color background = Config.getSnapshot().notebookBackgroundColor;
 
     /**
      * Foreground color.
      */
-    private Color foreground = Config.getColor("notebook_foreground_color");
+    private Color foreground = Config.getSnapshot().notebookForegroundColor;
 
     /**
      * Creates a new wrapper around the given image.
@@ -82,17 +97,56 @@ public class BufferedImageWrapper {
     }
 
     /**
-     * Draws a line on the picture.
+     * Creates a new wrapper around the given tiled image.
+     *
+     * @param image Image to wrap.
+     */
+    public BufferedImageWrapper(TiledImage image) {
+        tiledImage = image;
+    }
+
+    /**
+     * Creates a stroke with round joins, so that the corners of a path drawn
+     * in one go do not show notches. The caps stay square so that a single
+     * click still gives a full dot with a thin pen.
+     *
+     * @param width Width of the stroke.
+     * @return Stroke for drawing or erasing.
+     */
+    static Stroke createStroke(int width) {
+        return new BasicStroke(width, BasicStroke.CAP_SQUARE,
+                BasicStroke.JOIN_ROUND);
+    }
+
+    /**
+     * Draws a line on the picture. The line might be a path of several
+     * segments.
+     *
+     * @param line Line to draw.
+     */
+    public void drawLine(Shape line) {
+        drawLine(line, drawStrokeWidth);
+    }
+
+    /**
+     * Draws a line with the given stroke width, for instance one that was
+     * recorded with another pen.
      *
      * @param line Line to draw.
+     * @param strokeWidth Width of the stroke.
      */
-    public void drawLine(Line2D line) {
+    public void drawLine(Shape line, int strokeWidth) {
+        Stroke stroke = strokeWidth == drawStrokeWidth ? drawStroke :
+                        createStroke(strokeWidth);
+        if (tiledImage != null) {
+            tiledImage.drawLine(line, stroke, foreground,
+                    getBounds(line, strokeWidth));
+            return;
+        }
+
         graphics.setColor(foreground);
-        graphics.setStroke(drawStroke);
-        graphics.drawLine((int) line.getX1(),
-                (int) line.getY1(),
-                (int) line.getX2(),
-                (int) line.getY2());
+        graphics.setStroke(stroke);
+        graphics.draw(line);
     }
 
     /**
@@ -100,19 +154,71 @@ public class BufferedImageWrapper {
      *
      * @param line Line to erase.
      */
-    public void eraseLine(Line2D line) {
+    public void eraseLine(Shape line) {
+        eraseLine(line, eraseStrokeWidth);
+    }
+
+    /**
+     * Erases a line with the given stroke width.
+     *
+     * @param line Line to erase.
+     * @param strokeWidth Width of the stroke.
+     */
+    public void eraseLine(Shape line, int strokeWidth) {
+        Stroke stroke = strokeWidth == eraseStrokeWidth ? eraseStroke :
+                        createStroke(strokeWidth);
+        if (tiledImage != null) {
+            tiledImage.drawLine(line, stroke, background,
+                    getBounds(line, strokeWidth));
+            return;
+        }
+
         graphics.setColor(background);
-        graphics.setStroke(eraseStroke);
-        graphics.drawLine((int) line.getX1(),
-                (int) line.getY1(),
-                (int) line.getX2(),
-                (int) line.getY2());
+        graphics.setStroke(stroke);
+        graphics.draw(line);
+    }
+
+    /**
+     * Determines the area that is changed when a line with the given stroke
+     * width is drawn. The area is padded generously to cover the caps and
+     * the antialiasing.
+     *
+     * @param line Line to draw.
+     * @param strokeWidth Width of the stroke.
+     * @return Bounds of the changed area.
+     */
+    public static Rectangle getBounds(Shape line, int strokeWidth) {
+        int padding = strokeWidth + 2;
+        Rectangle bounds = line.getBounds();
+        return new Rectangle(bounds.x - padding, bounds.y - padding,
+                bounds.width + 2 * padding + 1,
+                bounds.height + 2 * padding + 1);
+    }
+
+    /**
+     * Determines the area that is changed by drawing the given line.
+     *
+     * @param line Line to draw.
+     * @return Bounds of the changed area.
+     */
+    public Rectangle getDrawBounds(Shape line) {
+        return getBounds(line, drawStrokeWidth);
+    }
+
+    /**
+     * Determines the area that is changed by erasing the given line.
+     *
+     * @param line Line to erase.
+     * @return Bounds of the changed area.
+     */
+    public Rectangle getEraseBounds(Shape line) {
+        return getBounds(line, eraseStrokeWidth);
     }
 
     /**
      * Getter for the wrapped image.
      *
-     * @return Image.
+     * @return Image, null if a tiled image is wrapped.
      */
     public BufferedImage getImg() {
         return img;
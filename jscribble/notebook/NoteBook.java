@@ -21,23 +21,32 @@ package jscribble.notebook;
 
 import java.awt.Dimension;
 import java.awt.HeadlessException;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ActionListener;
-import java.awt.geom.Line2D;
-import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.JOptionPane;
 
 import jscribble.NoteBookProgram;
 import jscribble.helpers.Config;
-import jscribble.helpers.FileComparator;
 import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
 
@@ -48,16 +57,24 @@ import jscribble.helpers.Logger;
  * the forward() function is called. The whole NoteBook can be saved into
  * individual pictures.
  *
+ * Settings that only apply to a single NoteBook are kept in a properties
+ * file in its folder.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class NoteBook implements Comparable<NoteBook> {
-    // XXX This list cannot cope with running out of memory.
-    // The lists need to be able to shrink if you advance way into the
-    // notebook.
     /**
-     * A List with all the NoteSheet this NoteBook contains,
+     * All the pages this NoteBook contains. Their NoteSheet is only created
+     * when they are used.
+     */
+    private PageTable pages;
+
+    /**
+     * Files of pages whose name does not follow the usual pattern, by page
+     * number.
      */
-    private LinkedList<NoteSheet> sheets;
+    private HashMap<Integer, File> irregularFiles =
+        new HashMap<Integer, File>();
 
     /**
      * The currently opened page.
@@ -88,35 +105,100 @@ public class NoteBook implements Comparable<NoteBook> {
     private ActionListener doneDrawing;
 
     /**
-     * Count of pages. Latest page number is page count.
+     * Area of the page that was changed by the last change the listener was
+     * told about, null if the whole page has to be redrawn.
      */
-    private int pagecount = 1;
+    private Rectangle changedRegion;
+
+    /**
+     * Width of the stroke for drawing, needed to know which area a line
+     * changes.
+     */
+    private int drawStrokeWidth =
+        Config.getSnapshot().notebookDrawStrokeWidth;
+
+    /**
+     * Width of the stroke for erasing.
+     */
+    private int eraseStrokeWidth =
+        Config.getSnapshot().notebookEraseStrokeWidth;
 
     /**
-     * How many images to cache back and front.
+     * Count of pages. Latest page number is page count.
      */
-    private int cacheWidth = Config.getInteger("notebook_cache_width");
+    private int pagecount = 1;
 
     /**
      * The name of this NoteBook. It is also the folder name.
      */
     private String name;
 
+    /**
+     * Name of the file with the settings of this NoteBook.
+     */
+    private static final String SETTINGS_FILENAME = "notebook.properties";
+
+    /**
+     * The eight bytes every PNG file starts with.
+     */
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    /**
+     * Bits per pixel that the sheets are kept with in memory.
+     */
+    private int sheetBits = 8;
+
+    /**
+     * Index of the pages in the folder, null for a temporary NoteBook.
+     */
+    private NoteBookManifest manifest;
+
+    /**
+     * Journal of the lines that are not in the images yet, null for a
+     * temporary NoteBook or if it is switched off.
+     */
+    private StrokeJournal journal;
+
+    /**
+     * Reads the shown page and the pages ahead of the user in the background.
+     */
+    private PagePrefetcher prefetcher;
+
+    /**
+     * The sheet that was last reported to the PageCache as being used.
+     */
+    private NoteSheet activeSheet;
+
     /**
      * Creates an empty NoteBook with a single NoteSheet.
      *
      * @param name name of the NoteBook
      */
     public NoteBook(String name) {
-        sheets = new LinkedList<NoteSheet>();
+        pages = new PageTable();
 
         this.name = name;
+        setSheetBitsChecked(Config.getInteger("notebook_sheet_bits"));
+        prefetcher = new PagePrefetcher(Math.max(0,
+                    Config.getInteger("prefetch_pages")), new Runnable() {
+            @Override
+            public void run() {
+                pageRead();
+            }
+        });
 
         // if a NoteBook should be used
         if (name != null) {
             folder = new File(NoteBookProgram.getFileDirectory(false).getAbsolutePath() +
                     File.separator + name);
+            loadSettings();
+            if (Config.getBoolean("notebook_journal")) {
+                journal = new StrokeJournal(folder);
+            }
             loadImagesFromFolder();
+            replayJournal();
         }
         else {
             name = UUID.randomUUID().toString();
@@ -136,14 +218,22 @@ public class NoteBook implements Comparable<NoteBook> {
         this.noteSize = noteSize;
     }
 
+    /**
+     * Adds a new blank page at the end.
+     */
+    private void addNewPage() {
+        pages.add(pagecount);
+        pages.setSheet(pages.size() - 1, createSheet(pagecount,
+                    generateNextFilename(pagecount)));
+        pagecount++;
+    }
+
     /**
      * Add an empty sheet if the NoteBook would be empty otherwise.
      */
     private void addPageIfEmpty() {
-        if (sheets.size() == 0) {
-            sheets.add(new NoteSheet(getSize(), pagecount,
-                       generateNextFilename(pagecount)));
-            pagecount++;
+        if (pages.size() == 0) {
+            addNewPage();
             currentSheet = 0;
         }
     }
@@ -185,6 +275,27 @@ public class NoteBook implements Comparable<NoteBook> {
         return getName().compareTo(other.getName());
     }
 
+    /**
+     * Creates the sheet for a page and lets it report its writes to the
+     * manifest.
+     *
+     * @param pagenumber Page number of the sheet.
+     * @param file File of the sheet.
+     * @return New sheet.
+     */
+    private NoteSheet createSheet(int pagenumber, File file) {
+        NoteSheet sheet = new NoteSheet(getSize(), pagenumber, file, sheetBits);
+        if (manifest != null) {
+            manifest.setSize(getSize());
+            sheet.setManifest(manifest);
+        }
+        if (journal != null) {
+            journal.setSize(getSize());
+            sheet.setJournal(journal);
+        }
+        return sheet;
+    }
+
     /**
      * Asks the user to delete the NoteBook.
      */
@@ -209,6 +320,10 @@ public class NoteBook implements Comparable<NoteBook> {
             return;
         }
 
+        if (journal != null) {
+            journal.close();
+        }
+
         // Delete all the files in the folder.
         File[] subfiles = folder.listFiles();
         if (subfiles == null) {
@@ -223,8 +338,7 @@ public class NoteBook implements Comparable<NoteBook> {
         folder.delete();
 
         if (folder.exists()) {
-            Logger.log(getClass().getName(),
-                       Localizer.get("Could not delete folder."));
+            Logger.logFormat(getClass().getName(), "Could not delete folder.");
         }
     }
 
@@ -233,10 +347,24 @@ public class NoteBook implements Comparable<NoteBook> {
      *
      * @param line Line to draw.
      */
-    public void drawLine(Line2D line) {
-        getCurrentSheet().drawLine(line);
+    public void drawLine(Shape line) {
+        NoteSheet sheet = getCurrentSheet();
+        boolean wasTouched = sheet.touched();
+        long before = sheet.getMemoryBytes();
+        sheet.drawLine(line, drawStrokeWidth);
+        if (journal != null) {
+            journal.add(sheet.getPagenumber(), line, false, drawStrokeWidth);
+        }
 
-        fireDoneDrawing();
+        // New tiles may push the cache over its budget.
+        if (sheet.getMemoryBytes() > before) {
+            PageCache.getInstance().grown(sheet);
+        }
+
+        // The first line adds a page to the count, so the page number needs
+        // to be redrawn as well.
+        fireDoneDrawing(wasTouched ?
+                BufferedImageWrapper.getBounds(line, drawStrokeWidth) : null);
     }
 
     /**
@@ -244,10 +372,21 @@ public class NoteBook implements Comparable<NoteBook> {
      *
      * @param line Line to erase.
      */
-    public void eraseLine(Line2D line) {
-        getCurrentSheet().eraseLine(line);
+    public void eraseLine(Shape line) {
+        NoteSheet sheet = getCurrentSheet();
+        boolean wasTouched = sheet.touched();
+        long before = sheet.getMemoryBytes();
+        sheet.eraseLine(line, eraseStrokeWidth);
+        if (journal != null) {
+            journal.add(sheet.getPagenumber(), line, true, eraseStrokeWidth);
+        }
 
-        fireDoneDrawing();
+        if (sheet.getMemoryBytes() > before) {
+            PageCache.getInstance().grown(sheet);
+        }
+
+        fireDoneDrawing(wasTouched ?
+                BufferedImageWrapper.getBounds(line, eraseStrokeWidth) : null);
     }
 
     /**
@@ -255,6 +394,17 @@ public class NoteBook implements Comparable<NoteBook> {
      * needs to be redrawn.
      */
     private void fireDoneDrawing() {
+        fireDoneDrawing(null);
+    }
+
+    /**
+     * Tell the listener (the DrawPanel) that a part of the current sheet has
+     * changed and needs to be redrawn.
+     *
+     * @param region Changed area, null if the whole page changed.
+     */
+    private void fireDoneDrawing(Rectangle region) {
+        changedRegion = region;
         if (doneDrawing != null) {
             doneDrawing.actionPerformed(null);
         }
@@ -270,7 +420,7 @@ public class NoteBook implements Comparable<NoteBook> {
         if (folder != null && name != null) {
             try {
                 return new File(folder.getCanonicalPath() + File.separator +
-                        String.format("%06d", pagenumber) + ".png");
+                        getFilename(pagenumber));
             }
             catch (IOException e) {
                 Logger.handleError(Localizer.get(
@@ -281,15 +431,101 @@ public class NoteBook implements Comparable<NoteBook> {
         return null;
     }
 
+    /**
+     * Gives the area of the current page that was changed by the last change
+     * the listener was notified of.
+     *
+     * @return Changed area, null if the whole page needs to be redrawn.
+     */
+    public Rectangle getChangedRegion() {
+        if (changedRegion == null) {
+            return null;
+        }
+        return new Rectangle(changedRegion);
+    }
+
     /**
      * Gets the NoteSheet object which the currently open page of the NoteBook.
      */
     public NoteSheet getCurrentSheet() {
         addPageIfEmpty();
-        if (currentSheet < 0 || currentSheet >= sheets.size()) {
+        if (currentSheet < 0 || currentSheet >= pages.size()) {
             Logger.log(getClass().getName(), "IndexOutOfBounds");
         }
-        return sheets.get(currentSheet);
+
+        // Whenever another sheet is used, the cache decides which sheets
+        // stay in memory.
+        NoteSheet sheet = getSheet(currentSheet);
+        if (sheet != activeSheet) {
+            prefetcher.install(sheet);
+            activeSheet = sheet;
+            PageCache.getInstance().activate(sheet);
+        }
+        return sheet;
+    }
+
+    /**
+     * Returns the file name of the given page.
+     *
+     * @param pagenumber Page number.
+     * @return File name without folder.
+     */
+    private static String getFilename(int pagenumber) {
+        return String.format("%06d.png", pagenumber);
+    }
+
+    /**
+     * Returns the file of the given page.
+     *
+     * @param pagenumber Page number.
+     * @return File in the NoteBook folder.
+     */
+    private File getPageFile(int pagenumber) {
+        File file = irregularFiles.get(pagenumber);
+        if (file == null) {
+            file = new File(folder, getFilename(pagenumber));
+        }
+        return file;
+    }
+
+    /**
+     * Returns the sheet at the given position, creates it if needed.
+     *
+     * @param index Position of the sheet.
+     * @return Sheet at this position.
+     */
+    private NoteSheet getSheet(int index) {
+        NoteSheet sheet = pages.getSheet(index);
+        if (sheet == null) {
+            int pagenumber = pages.getPagenumber(index);
+            sheet = createSheet(pagenumber, getPageFile(pagenumber));
+            pages.setSheet(index, sheet);
+        }
+        return sheet;
+    }
+
+    /**
+     * Returns a sheet before the current one without turning the pages, for
+     * instance to show it as an onion layer.
+     *
+     * @param distance How many pages to go back, 1 for the previous page.
+     * @return The sheet, or null if there are not enough pages before.
+     */
+    public NoteSheet getSheetBehind(int distance) {
+        int index = currentSheet - distance;
+        if (distance < 1 || index < 0 || index >= pages.size()) {
+            return null;
+        }
+        return getSheet(index);
+    }
+
+    /**
+     * Returns the bits per pixel that the sheets are kept with in memory.
+     *
+     * @return Bits per pixel.
+     */
+    public int getSheetBits() {
+        return sheetBits;
     }
 
     /**
@@ -303,19 +539,19 @@ public class NoteBook implements Comparable<NoteBook> {
      * Number of sheets in the NoteBook
      */
     public int getSheetCount() {
-        // If there is no sheets list (should be impossible to achieve this),
+        // If there is no page table (should be impossible to achieve this),
         // then there are no sheets in the NoteBook.
-        if (sheets == null) {
+        if (pages == null) {
             return 0;
         }
 
         // If there is a sheet in the NoteBook, but is has not been touched
         // yet, count it as zero sheets.
-        if (sheets.size() == 1 && !sheets.get(0).touched()) {
+        if (pages.size() == 1 && !getSheet(0).touched()) {
             return 0;
         }
 
-        return sheets.size();
+        return pages.size();
     }
 
     /**
@@ -336,11 +572,8 @@ public class NoteBook implements Comparable<NoteBook> {
     public void goBackwards() {
         if (currentSheet > 0) {
             getCurrentSheet().saveToFile();
-            if (currentSheet + cacheWidth < sheets.size()) {
-                sheets.get(currentSheet + cacheWidth).freeImage();
-            }
-
             currentSheet--;
+            prefetchAhead(-1);
             fireDoneDrawing();
         }
     }
@@ -350,30 +583,24 @@ public class NoteBook implements Comparable<NoteBook> {
      * page is a blank page, no new blank page will be added.
      */
     public void goForward() {
-        // Page sheets that are far away to RAM.
         getCurrentSheet().saveToFile();
-        if (currentSheet >= cacheWidth) {
-            sheets.get(currentSheet - cacheWidth).freeImage();
-        }
 
         // If we are within the NoteBook, we just need to advance a step.
-        if (sheets.size() > currentSheet + 1) {
+        if (pages.size() > currentSheet + 1) {
             currentSheet++;
         }
         // If we are the last sheet and it has been touched, the user needs a
         // new blank sheet. Add it.
         else if (getCurrentSheet().touched()) {
-            sheets.add(new NoteSheet(getSize(), pagecount,
-                       generateNextFilename(pagecount)));
+            addNewPage();
             currentSheet++;
-
-            pagecount++;
         }
         // The NoteBook is at a blank sheet at its end. There is nothing to do.
         else {
             return;
         }
 
+        prefetchAhead(1);
         fireDoneDrawing();
     }
 
@@ -383,6 +610,7 @@ public class NoteBook implements Comparable<NoteBook> {
     public void gotoFirst() {
         getCurrentSheet().saveToFile();
         currentSheet = 0;
+        prefetchAhead(1);
         fireDoneDrawing();
     }
 
@@ -391,69 +619,176 @@ public class NoteBook implements Comparable<NoteBook> {
      */
     public void gotoLast() {
         getCurrentSheet().saveToFile();
-        currentSheet = Math.max(0, sheets.size() - 1);
+        currentSheet = Math.max(0, pages.size() - 1);
+        prefetchAhead(-1);
         fireDoneDrawing();
     }
 
+    /**
+     * Loads the settings of this NoteBook if it has any.
+     */
+    private void loadSettings() {
+        File settingsFile = new File(folder, SETTINGS_FILENAME);
+        if (!settingsFile.exists()) {
+            return;
+        }
+
+        Properties settings = new Properties();
+        try {
+            InputStream in = new FileInputStream(settingsFile);
+            try {
+                settings.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            Logger.handleError(Localizer.get(
+                        "Could not read the NoteBook settings."));
+            e.printStackTrace();
+            return;
+        }
+
+        String bits = settings.getProperty("sheet_bits");
+        if (bits != null) {
+            try {
+                setSheetBitsChecked(Integer.parseInt(bits.trim()));
+            }
+            catch (NumberFormatException e) {
+                Logger.logFormat(getClass().getName(),
+                                 "Ignoring unsupported bits per pixel %s.",
+                                 bits);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the current sheet can be shown right away. If its image
+     * still needs to be read, this is done in the background and the
+     * listener set with setDoneDrawing() is told once it is there.
+     *
+     * @return Whether the image of the current sheet is in memory.
+     */
+    public boolean isCurrentSheetReady() {
+        NoteSheet sheet = getCurrentSheet();
+        return sheet.isReady() || !prefetcher.load(sheet);
+    }
+
+    /**
+     * Takes the pages from the manifest.
+     */
+    private void loadFromManifest() {
+        for (int pagenumber : manifest.getPagenumbers()) {
+            pages.add(pagenumber);
+            String irregularName = manifest.getIrregularName(pagenumber);
+            if (irregularName != null) {
+                irregularFiles.put(pagenumber, new File(folder, irregularName));
+            }
+            pagecount = pagenumber + 1;
+        }
+
+        if (noteSize == null) {
+            noteSize = manifest.getSize();
+        }
+    }
+
     /**
      * Loads the images from the previously set folder.
      */
     private void loadImagesFromFolder() {
         if (!folder.exists()) {
             folder.mkdirs();
+            manifest = new NoteBookManifest(folder);
 
             // Since the folder was just created, there are not going to be any
             // pictures in it.
             return;
         }
 
-        // If the user wants it, compress the filenames.
-        if (Config.getBoolean("notebook_auto_compress")) {
-            NoteBookCompressor nbc = new NoteBookCompressor(folder);
-            nbc.compress();
+        // The lines in the journal refer to the page numbers, so the pages
+        // must not be renumbered before they are replayed.
+        boolean compress = Config.getBoolean("notebook_auto_compress") &&
+            (journal == null || !journal.hasRecords());
+
+        // An up to date manifest spares looking at the folder. It is only
+        // good enough for auto compression if there is nothing to compress.
+        manifest = NoteBookManifest.read(folder);
+        if (manifest != null && (!compress || manifest.isCompact())) {
+            loadFromManifest();
         }
+        else {
+            Logger.logFormat(getClass().getName(),
+                             "Scanning the folder of %s.", name);
 
-        // try to load all images that match the name
-        File[] allImages = folder.listFiles(new NoteSheetFileFilter());
+            // If the user wants it, compress the filenames.
+            if (compress) {
+                NoteBookCompressor nbc = new NoteBookCompressor(folder);
+                nbc.compress();
+            }
 
-        if (allImages != null && allImages.length > 0) {
-            Arrays.sort(allImages, new FileComparator());
+            scanFolder();
 
+            manifest = new NoteBookManifest(folder);
+            for (int i = 0; i < pages.size(); i++) {
+                manifest.update(getPageFile(pages.getPagenumber(i)));
+            }
+        }
 
-            Pattern p = Pattern.compile("(\\d+)\\.png");
+        if (noteSize == null && pages.size() > 0) {
+            try {
+                noteSize = readImageSize(getPageFile(pages.getPagenumber(0)));
+            }
+            catch (IOException e) {
+                Logger.handleError(Localizer.get("Unable to determine resolution from first image in NoteBook."));
+                e.printStackTrace();
+            }
+        }
 
-            for (File file : allImages) {
-                String[] nameparts =
-                    file.getName().split(Pattern.quote(File.separator));
-                String basename = nameparts[nameparts.length - 1];
-                Matcher m = p.matcher(basename);
-                if (m.matches()) {
-                    pagecount = Math.max(pagecount,
-                                Integer.parseInt(m.group(1)));
-                    sheets.add(new NoteSheet(noteSize,
-                               Integer.parseInt(m.group(1)), file));
-                    pagecount++;
+        manifest.setSize(noteSize);
+        manifest.write();
+    }
 
-                    if (noteSize == null) {
-                        try {
-                            BufferedImage resolutionSampler = ImageIO.read(file);
-                            noteSize = new Dimension(resolutionSampler.getWidth(), resolutionSampler.getHeight());
-                        }
-                        catch (IOException e) {
-                            Logger.handleError(Localizer.get("Unable to determine resolution from first image in NoteBook."));
-                            e.printStackTrace();
-                        }
-                    }
-                }
+    /**
+     * Called on the event dispatch thread when the prefetcher has read a
+     * page. If the current sheet waited for it, it is shown now.
+     */
+    private void pageRead() {
+        if (activeSheet != null && !activeSheet.isReady()) {
+            prefetcher.install(activeSheet);
+            if (activeSheet.isReady()) {
+                fireDoneDrawing();
             }
         }
     }
 
+    /**
+     * Lets the prefetcher read the next pages in the direction of the last
+     * flip.
+     *
+     * @param direction 1 after flipping forward, -1 after flipping backward.
+     */
+    private void prefetchAhead(int direction) {
+        prefetcher.flipped(direction);
+
+        // The page that was just flipped to is likely being read already and
+        // is about to be shown, so it is kept in the list.
+        ArrayList<NoteSheet> ahead = new ArrayList<NoteSheet>();
+        for (int i = 0; i <= prefetcher.getDepth(); i++) {
+            int index = currentSheet + i * direction;
+            if (index < 0 || index >= pages.size()) {
+                break;
+            }
+            ahead.add(getSheet(index));
+        }
+        prefetcher.prefetch(ahead);
+    }
+
     /**
      * Tells the WriteoutThread that this NoteBook has no more sheets to save.
      */
     private void quitWithWriteoutThread() {
-        sheets.getFirst().stopWriteoutThread();
+        getSheet(0).stopWriteoutThread();
 
     }
 
@@ -469,16 +804,175 @@ public class NoteBook implements Comparable<NoteBook> {
         quitWithWriteoutThread();
     }
 
+    /**
+     * Reads the size of a page from the header of its file. For PNG images,
+     * only the IHDR chunk at the very start is read. Other formats are left
+     * to an ImageIO reader, which also only decodes the header.
+     *
+     * @param file Image file to look at.
+     * @return Size of the image.
+     * @throws IOException If the file cannot be read.
+     */
+    private static Dimension readImageSize(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] header = new byte[PNG_SIGNATURE.length + 8];
+            in.readFully(header);
+            if (Arrays.equals(Arrays.copyOf(header, PNG_SIGNATURE.length),
+                        PNG_SIGNATURE) &&
+                    new String(header, PNG_SIGNATURE.length + 4, 4,
+                        "US-ASCII").equals("IHDR")) {
+                int width = in.readInt();
+                int height = in.readInt();
+                return new Dimension(width, height);
+            }
+        }
+        catch (EOFException ignored) {
+        }
+        finally {
+            in.close();
+        }
+
+        ImageInputStream imageIn = ImageIO.createImageInputStream(file);
+        if (imageIn == null) {
+            throw new IOException(file.getPath());
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+            if (!readers.hasNext()) {
+                throw new IOException(file.getPath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageIn);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+        finally {
+            imageIn.close();
+        }
+    }
+
+    /**
+     * Draws the lines that are left in the journal onto their pages. They
+     * were drawn before the program ended without saving them. The pages are
+     * saved right away, which then empties the journal.
+     */
+    private void replayJournal() {
+        if (journal == null || !journal.hasRecords()) {
+            return;
+        }
+
+        Map<Integer, ArrayList<StrokeList>> lines = journal.read();
+        if (noteSize == null) {
+            noteSize = journal.getSize();
+        }
+
+        int count = 0;
+        for (Map.Entry<Integer, ArrayList<StrokeList>> entry :
+                lines.entrySet()) {
+            int pagenumber = entry.getKey();
+            if (pagenumber < 1) {
+                continue;
+            }
+
+            // The page might not have been written at all, then it is put
+            // in between the others.
+            int index = 0;
+            while (index < pages.size() &&
+                    pages.getPagenumber(index) < pagenumber) {
+                index++;
+            }
+            if (index == pages.size() ||
+                    pages.getPagenumber(index) != pagenumber) {
+                pages.insert(index, pagenumber);
+                pagecount = Math.max(pagecount, pagenumber + 1);
+            }
+
+            NoteSheet sheet = getSheet(index);
+            for (StrokeList list : entry.getValue()) {
+                list.replay(sheet);
+                count += list.getStrokeCount();
+            }
+            sheet.saveToFile();
+        }
+
+        Logger.logFormat(getClass().getName(),
+                         "Replayed %d lines onto %d pages from the journal.",
+                         count, lines.size());
+    }
+
     /**
      * Persists the whole NoteBook into individual files.
      */
     public void saveToFiles() {
-        Logger.log(getClass().getName(), Localizer.get(
-                "Starting to write out image files."));
-        for (NoteSheet s : sheets) {
+        Logger.logFormat(getClass().getName(),
+                         "Starting to write out image files.");
+        for (NoteSheet s : pages.getCreatedSheets()) {
+            PageCache.getInstance().remove(s);
             s.freeImage();
         }
+        activeSheet = null;
+        PageCache.getInstance().logStatistics();
+        prefetcher.cancelAll();
+        prefetcher.logStatistics();
         quitWithWriteoutThread();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Finds the pages by looking at the names of all files in the folder.
+     * Only the names are looked at here, the pages are read when they are
+     * shown.
+     */
+    private void scanFolder() {
+        String[] names = folder.list();
+        if (names == null) {
+            return;
+        }
+
+        int[] pagenumbers = new int[names.length];
+        int count = 0;
+        for (String basename : names) {
+            int pagenumber = NoteSheetFileFilter.getPagenumber(basename);
+            if (pagenumber < 1) {
+                continue;
+            }
+
+            if (!basename.equals(getFilename(pagenumber))) {
+                if (irregularFiles.containsKey(pagenumber)) {
+                    skipDuplicate(basename);
+                    continue;
+                }
+                irregularFiles.put(pagenumber, new File(folder, basename));
+            }
+            pagenumbers[count++] = pagenumber;
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        Arrays.sort(pagenumbers, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            int pagenumber = pagenumbers[i];
+
+            // A page number can only show up twice with its usual name and
+            // another one. The file with the usual name is kept.
+            if (i > 0 && pagenumbers[i - 1] == pagenumber) {
+                skipDuplicate(irregularFiles.remove(pagenumber).getName());
+                continue;
+            }
+
+            pages.add(pagenumber);
+        }
+        pagecount = pagenumbers[count - 1] + 1;
     }
 
     /**
@@ -490,6 +984,69 @@ public class NoteBook implements Comparable<NoteBook> {
         this.doneDrawing = doneDrawing;
     }
 
+    /**
+     * Sets the bits per pixel that the sheets are kept with in memory and
+     * stores it in the settings of this NoteBook. Sheets that are already
+     * created keep their mode until the NoteBook is opened again.
+     *
+     * @param sheetBits Bits per pixel, 1, 2, 4 or 8.
+     */
+    public void setSheetBits(int sheetBits) {
+        if (!setSheetBitsChecked(sheetBits) || folder == null) {
+            return;
+        }
+
+        folder.mkdirs();
+        Properties settings = new Properties();
+        settings.setProperty("sheet_bits", String.valueOf(sheetBits));
+        try {
+            OutputStream out = new FileOutputStream(new File(folder,
+                        SETTINGS_FILENAME));
+            try {
+                settings.store(out, null);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            Logger.handleError(Localizer.get(
+                        "Could not write the NoteBook settings."));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets the bits per pixel if the value is supported.
+     *
+     * @param sheetBits Bits per pixel.
+     * @return Whether the value was taken.
+     */
+    private boolean setSheetBitsChecked(int sheetBits) {
+        if (sheetBits != 1 && sheetBits != 2 && sheetBits != 4 &&
+                sheetBits != 8) {
+            Logger.logFormat(getClass().getName(),
+                             "Ignoring unsupported bits per pixel %s.",
+                             sheetBits);
+            return false;
+        }
+
+        this.sheetBits = sheetBits;
+        return true;
+    }
+
+    /**
+     * Notes that a page file is ignored since another file has its page
+     * number already.
+     *
+     * @param basename Name of the ignored file.
+     */
+    private void skipDuplicate(String basename) {
+        Logger.logFormat(getClass().getName(),
+                         "Skipping %s, its page number is already taken.",
+                         basename);
+    }
+
     /**
      * Returns a string representation of the NoteBook, consisting of the name
      * and page count.
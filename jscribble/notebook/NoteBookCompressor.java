@@ -23,7 +23,6 @@ import java.io.File;
 import java.util.Arrays;
 
 import jscribble.helpers.FileComparator;
-import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
 
 /**
@@ -53,8 +52,8 @@ public class NoteBookCompressor {
 
         // Stop if it is already in the correct order.
         if (allImages[allImages.length - 1].getName().equalsIgnoreCase(String.format("%06d.png", allImages.length))) {
-            Logger.log(getClass().getName(),
-                       String.format(Localizer.get("Stop processing %s"), folder.getName()));
+            Logger.logFormat(getClass().getName(),
+                             "Stop processing %s", folder.getName());
             return;
         }
 
@@ -70,8 +69,16 @@ public class NoteBookCompressor {
                 + String.format("%06d.png", i + 1)
             );
 
-            Logger.log(getClass().getName(), String.format(Localizer.get("Rename %s to %s."), image.getName(), newName.getName()));
+            Logger.logFormat(getClass().getName(),
+                             "Rename %s to %s.",
+                             image.getName(), newName.getName());
             image.renameTo(newName);
+
+            // The vectors of the page go with it.
+            File strokefile = StrokeList.getFile(image);
+            if (strokefile.exists()) {
+                strokefile.renameTo(StrokeList.getFile(newName));
+            }
         }
     }
 }
@@ -0,0 +1,413 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import jscribble.helpers.Logger;
+
+/**
+ * A small binary index of the pages in a NoteBook folder. It holds the page
+ * numbers, the size of the pages and the size and modification time of every
+ * page file, so that opening a NoteBook does not need to look at the folder
+ * at all.
+ *
+ * The WriteoutThread updates the entry of every page it writes and saves the
+ * manifest when it has nothing else to do. The manifest remembers the
+ * modification time of the folder. If the folder was not changed since and
+ * the manifest is not from the same coarse tick of the file system, it is
+ * trusted right away. Otherwise every entry is checked against its file and
+ * the pages after the last one must not exist, which catches pages that
+ * were written after the manifest was saved the last time.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class NoteBookManifest {
+    /**
+     * Name of the manifest file inside of the NoteBook folder.
+     */
+    public static final String FILENAME = ".manifest";
+
+    /**
+     * First bytes of every manifest, "JSMF".
+     */
+    private static final int MAGIC = 0x4a534d46;
+
+    /**
+     * Time in milliseconds that the folder needs to be older than the
+     * manifest to trust it without looking at the pages. This covers the
+     * coarsest file systems.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * What is known about a single page file.
+     */
+    private static class Entry {
+        /**
+         * Name of the file, empty if it is the usual one for its page number.
+         */
+        String irregularName;
+
+        /**
+         * Length of the file in bytes.
+         */
+        long length;
+
+        /**
+         * Modification time of the file.
+         */
+        long modified;
+    }
+
+    /**
+     * The pages by their page number.
+     */
+    private TreeMap<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+
+    /**
+     * The folder that this manifest describes.
+     */
+    private File folder;
+
+    /**
+     * Height of the pages, 0 if unknown.
+     */
+    private int height;
+
+    /**
+     * Whether there are changes that are not saved yet.
+     */
+    private boolean unsaved;
+
+    /**
+     * Width of the pages, 0 if unknown.
+     */
+    private int width;
+
+    /**
+     * Creates an empty manifest for the given folder.
+     *
+     * @param folder NoteBook folder.
+     */
+    public NoteBookManifest(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Returns the manifest file.
+     *
+     * @return File inside the NoteBook folder.
+     */
+    private File getFile() {
+        return new File(folder, FILENAME);
+    }
+
+    /**
+     * Returns the name of a page file if it is not the usual one.
+     *
+     * @param pagenumber Page number to look up.
+     * @return File name, or null if the page uses the usual name or is not
+     * known.
+     */
+    public synchronized String getIrregularName(int pagenumber) {
+        Entry entry = entries.get(pagenumber);
+        if (entry == null || entry.irregularName.length() == 0) {
+            return null;
+        }
+        return entry.irregularName;
+    }
+
+    /**
+     * Returns the file of a page with the usual name.
+     *
+     * @param pagenumber Page number.
+     * @return File inside the NoteBook folder.
+     */
+    private File getPageFile(int pagenumber) {
+        return new File(folder, String.format("%06d.png", pagenumber));
+    }
+
+    /**
+     * Returns all the page numbers in ascending order.
+     *
+     * @return Page numbers.
+     */
+    public synchronized int[] getPagenumbers() {
+        int[] pagenumbers = new int[entries.size()];
+        int i = 0;
+        for (int pagenumber : entries.keySet()) {
+            pagenumbers[i++] = pagenumber;
+        }
+        return pagenumbers;
+    }
+
+    /**
+     * Returns the size of the pages.
+     *
+     * @return Size, or null if it is not known.
+     */
+    public synchronized Dimension getSize() {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Tells whether the pages are numbered from 1 without gaps and all use
+     * the usual file names. Such a NoteBook does not need to be compressed.
+     *
+     * @return Whether the numbering is compact.
+     */
+    public synchronized boolean isCompact() {
+        int expected = 1;
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            if (e.getKey() != expected || e.getValue().irregularName.length() > 0) {
+                return false;
+            }
+            expected++;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether every entry still matches its file and whether no page
+     * was written after the last known one.
+     *
+     * @return Whether the manifest is up to date.
+     */
+    private boolean isCurrent() {
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            if (!matches(e.getKey(), e.getValue())) {
+                return false;
+            }
+        }
+
+        // New pages are added at the end, and the journal might have put a
+        // page right after one of the others.
+        for (int pagenumber : entries.keySet()) {
+            if (!entries.containsKey(pagenumber + 1) &&
+                    getPageFile(pagenumber + 1).exists()) {
+                return false;
+            }
+        }
+        return !getPageFile(1).exists() || entries.containsKey(1);
+    }
+
+    /**
+     * Checks whether the given entry still matches its file.
+     *
+     * @param pagenumber Page number of the entry.
+     * @param entry Entry to check.
+     * @return Whether size and modification time are unchanged.
+     */
+    private boolean matches(int pagenumber, Entry entry) {
+        File file = entry.irregularName.length() > 0 ?
+            new File(folder, entry.irregularName) : getPageFile(pagenumber);
+        return file.length() == entry.length &&
+            file.lastModified() == entry.modified;
+    }
+
+    /**
+     * Reads the manifest of the given folder. If the folder was not changed
+     * after the manifest, only the first page file is compared with its entry.
+     * Otherwise all of them are.
+     *
+     * @param folder NoteBook folder.
+     * @return Manifest, or null if there is none or it is stale.
+     */
+    public static NoteBookManifest read(File folder) {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        boolean settled;
+        File file = manifest.getFile();
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            if (data.length < 4) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        data, data.length - 4, 4));
+            if (in.readInt() != (int) crc.getValue()) {
+                return null;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0,
+                    data.length - 4));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            long folderModified = in.readLong();
+            long written = in.readLong();
+            settled = folder.lastModified() == folderModified &&
+                written - folderModified >= RACY_MILLIS;
+
+            manifest.width = in.readInt();
+            manifest.height = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int pagenumber = in.readInt();
+                Entry entry = new Entry();
+                entry.irregularName = in.readUTF();
+                entry.length = in.readLong();
+                entry.modified = in.readLong();
+                manifest.entries.put(pagenumber, entry);
+            }
+        }
+        catch (IOException e) {
+            Logger.logFormat(NoteBookManifest.class.getName(),
+                             "Could not read the manifest of %s.",
+                             folder.getName());
+            return null;
+        }
+
+        if (!settled) {
+            return manifest.isCurrent() ? manifest : null;
+        }
+
+        if (!manifest.entries.isEmpty()) {
+            Map.Entry<Integer, Entry> first = manifest.entries.firstEntry();
+            if (!manifest.matches(first.getKey(), first.getValue())) {
+                return null;
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Sets the size of the pages.
+     *
+     * @param size Size of the pages.
+     */
+    public synchronized void setSize(Dimension size) {
+        if (size == null || (size.width == width && size.height == height)) {
+            return;
+        }
+        width = size.width;
+        height = size.height;
+        unsaved = true;
+    }
+
+    /**
+     * Updates the entry of the given page file from the file system. If the
+     * file does not exist any more, its entry is removed.
+     *
+     * @param file Page file that was written or deleted.
+     */
+    public synchronized void update(File file) {
+        int pagenumber = NoteSheetFileFilter.getPagenumber(file.getName());
+        if (pagenumber < 1) {
+            return;
+        }
+
+        if (!file.exists()) {
+            if (entries.remove(pagenumber) != null) {
+                unsaved = true;
+            }
+            return;
+        }
+
+        Entry entry = new Entry();
+        entry.irregularName = file.getName().equals(String.format("%06d.png",
+                    pagenumber)) ? "" : file.getName();
+        entry.length = file.length();
+        entry.modified = file.lastModified();
+        entries.put(pagenumber, entry);
+        unsaved = true;
+    }
+
+    /**
+     * Saves the manifest if it has changed. The file is overwritten in place,
+     * so that the folder keeps its modification time. A checksum at the end
+     * tells a cut off manifest apart. The manifest is only there to save
+     * time, so a failure is just logged and the next opening scans the
+     * folder.
+     */
+    public synchronized void write() {
+        if (!unsaved || !folder.exists()) {
+            return;
+        }
+
+        try {
+            // Opening the file creates it if needed, which changes the
+            // folder. Its time is taken afterwards.
+            FileOutputStream file = new FileOutputStream(getFile());
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(folder.lastModified());
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(entries.size());
+                for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+                    out.writeInt(e.getKey());
+                    out.writeUTF(e.getValue().irregularName);
+                    out.writeLong(e.getValue().length);
+                    out.writeLong(e.getValue().modified);
+                }
+                out.flush();
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+                out.writeInt((int) crc.getValue());
+                out.flush();
+
+                bytes.writeTo(file);
+            }
+            finally {
+                file.close();
+            }
+            unsaved = false;
+        }
+        catch (IOException e) {
+            Logger.logFormat(getClass().getName(),
+                             "Could not write the manifest of %s.",
+                             folder.getName());
+        }
+    }
+}
@@ -20,13 +20,22 @@
 package jscribble.notebook;
 
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.geom.Line2D;
+import java.awt.EventQueue;
+import java.awt.Shape;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.imageio.ImageIO;
 
@@ -35,6 +44,8 @@ import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
 import jscribble.helpers.Config;
 import jscribble.notebook.writeoutThread.ImageSwapTask;
+import jscribble.notebook.writeoutThread.PendingWrite;
+import jscribble.notebook.writeoutThread.PngEncoder;
 import jscribble.notebook.writeoutThread.WriteoutThread;
 
 /**
@@ -42,6 +53,15 @@ import jscribble.notebook.writeoutThread.WriteoutThread;
  * image is displayed, allowing the user to paint on it. Each image has its
  * individual file name that is used automatically.
  *
+ * In memory, the image is kept as a TiledImage, so that empty parts of the
+ * page do not take up any space. The PageCache can demote the image to a
+ * compressed copy in memory, or drop it entirely so that it is loaded from
+ * disk again when needed.
+ *
+ * In vector mode, every line is also kept in a StrokeList. The image is then
+ * only a cache: a demoted page keeps just the vectors, and the image is drawn
+ * again from them at the size of the sheet when it is needed.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class NoteSheet {
@@ -53,12 +73,29 @@ public class NoteSheet {
     /**
      * The picture for storing the drawing on.
      */
-    private BufferedImage img;
+    private TiledImage img;
+
+    /**
+     * Number of lines that were drawn or erased on this sheet, so that
+     * copies of the image can tell whether they are outdated.
+     */
+    private long changeCount;
+
+    /**
+     * The picture as PNG data, if it was demoted to save memory.
+     */
+    private byte[] compressed;
+
+    /**
+     * Compressed copy that is being made in the background, null if there is
+     * none.
+     */
+    private FutureTask<byte[]> compression;
 
     /**
-     * Graphics context of the image.
+     * Change count of the image that is being compressed.
      */
-    private Graphics2D graphics;
+    private long compressionChangeCount;
 
     /**
      * The size of this sheet in pixels.
@@ -87,7 +124,65 @@ public class NoteSheet {
     private BufferedImageWrapper imageWrapper;
 
     /**
-     * A singleton thread that handles all the writing to disk.
+     * Bits per pixel that the image is kept with in memory.
+     */
+    private int sheetBits;
+
+    /**
+     * Journal of the NoteBook that is told when the sheet is written.
+     */
+    private StrokeJournal journal;
+
+    /**
+     * Manifest of the NoteBook that is updated when the sheet is written.
+     */
+    private NoteBookManifest manifest;
+
+    /**
+     * Whether the image is read in the background right now.
+     */
+    private boolean loading;
+
+    /**
+     * Every line on the sheet as vectors, or null if the sheet is not kept
+     * in vector mode or its vectors are unknown.
+     */
+    private StrokeList strokes;
+
+    /**
+     * Whether new sheets keep their lines as vectors.
+     */
+    private boolean vectorMode = Config.getSnapshot().notebookVectorMode;
+
+    /**
+     * A line that was drawn or erased while the image was still being read.
+     */
+    private static class PendingStroke {
+        /**
+         * Whether the line is erased.
+         */
+        boolean erase;
+
+        /**
+         * The line.
+         */
+        Shape line;
+
+        /**
+         * Width of the stroke.
+         */
+        int strokeWidth;
+    }
+
+    /**
+     * Lines that were drawn while the image was read in the background. They
+     * are applied as soon as the image is there.
+     */
+    private ArrayList<PendingStroke> pendingStrokes;
+
+    /**
+     * A singleton thread that dispatches all the writing to disk to its pool
+     * of workers.
      */
     private static WriteoutThread writethread;
 
@@ -99,8 +194,24 @@ public class NoteSheet {
      * @param infile File to save image in
      */
     public NoteSheet(Dimension noteSize, int pagenumber, File infile) {
+        this(noteSize, pagenumber, infile,
+                Config.getInteger("notebook_sheet_bits"));
+    }
+
+    /**
+     * Creates an empty note sheet that is kept with the given bits per pixel
+     * in memory.
+     *
+     * @param noteSize size of the sheet
+     * @param pagenumber given page number
+     * @param infile File to save image in
+     * @param sheetBits Bits per pixel, 1, 2, 4 or 8.
+     */
+    public NoteSheet(Dimension noteSize, int pagenumber, File infile,
+            int sheetBits) {
         this.noteSize = noteSize;
         this.pagenumber = pagenumber;
+        this.sheetBits = sheetBits;
         this.imagefile = infile;
 
         // If no filename or a filename that does not exist yet is given or the
@@ -118,16 +229,176 @@ public class NoteSheet {
         }
     }
 
+    /**
+     * Takes an image that was read from the file of this sheet somewhere
+     * else, for instance ahead of time in the background.
+     *
+     * @param loaded Image of the file of this sheet.
+     * @param loadedStrokes Vectors of the image, may be null.
+     */
+    void adoptImage(TiledImage loaded, StrokeList loadedStrokes) {
+        img = loaded;
+        strokes = loadedStrokes;
+        touched = true;
+        loading = false;
+        resetImageWrapper();
+        applyPendingStrokes();
+    }
+
+    /**
+     * Applies the lines that were drawn while the image was read.
+     */
+    private void applyPendingStrokes() {
+        if (pendingStrokes == null) {
+            return;
+        }
+
+        ArrayList<PendingStroke> pending = pendingStrokes;
+        pendingStrokes = null;
+        for (PendingStroke stroke : pending) {
+            record(stroke.line, stroke.erase, stroke.strokeWidth);
+            if (stroke.erase) {
+                getImageWrapper().eraseLine(stroke.line, stroke.strokeWidth);
+            }
+            else {
+                getImageWrapper().drawLine(stroke.line, stroke.strokeWidth);
+            }
+        }
+    }
+
+    /**
+     * Keeps a line for later if the image is still being read.
+     *
+     * @param line Line to keep.
+     * @param erase Whether the line is erased.
+     * @param strokeWidth Width of the stroke.
+     * @return Whether the line was kept.
+     */
+    private boolean bufferStroke(Shape line, boolean erase,
+            int strokeWidth) {
+        if (!loading || img != null) {
+            return false;
+        }
+
+        if (pendingStrokes == null) {
+            pendingStrokes = new ArrayList<PendingStroke>();
+        }
+        PendingStroke stroke = new PendingStroke();
+        stroke.erase = erase;
+        stroke.line = line;
+        stroke.strokeWidth = strokeWidth;
+        pendingStrokes.add(stroke);
+        return true;
+    }
+
+    /**
+     * Drops the compressed copy that is being made in the background, for
+     * instance since the image is used again.
+     */
+    void cancelCompression() {
+        if (compression != null) {
+            compression.cancel(false);
+            compression = null;
+        }
+    }
+
+    /**
+     * Starts to replace the image with a compressed copy in memory. Unsaved
+     * changes are scheduled for writing first. The copy is made from a
+     * snapshot in the background, and the image is kept until
+     * finishCompression() takes the copy. If the sheet has its vectors, the
+     * image is dropped right away.
+     *
+     * @param executor Thread to compress on.
+     * @param done Called on the event dispatch thread once the copy is
+     * there, may be null.
+     * @return Whether a copy is being made in the background now.
+     */
+    boolean compress(Executor executor, final Runnable done) {
+        if (img == null || compression != null) {
+            return false;
+        }
+
+        if (unsaved()) {
+            saveToFile();
+        }
+
+        // The vectors are much smaller than any compressed image.
+        if (strokes != null) {
+            img = null;
+            resetImageWrapper();
+            return false;
+        }
+
+        final TiledImage snapshot = img.snapshot();
+        compressionChangeCount = changeCount;
+        compression = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new PngEncoder().write(snapshot, out);
+                return out.toByteArray();
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (done != null && !isCancelled()) {
+                    EventQueue.invokeLater(done);
+                }
+            }
+        };
+        executor.execute(compression);
+        return true;
+    }
+
+    /**
+     * Restores the image from the compressed copy in memory.
+     */
+    private void decompress() {
+        try {
+            img = toTiledImage(ImageIO.read(new ByteArrayInputStream(
+                            compressed)), sheetBits);
+        }
+        catch (IOException e) {
+            Logger.handleError(Localizer.get(
+                        "Could not decompress the note sheet image."));
+            e.printStackTrace();
+        }
+
+        compressed = null;
+        resetImageWrapper();
+
+        // Without the copy, the image is still on disk.
+        if (img == null) {
+            loadFromFile();
+        }
+    }
+
     /**
      * Draws a line onto the sheet. The sheet is then marked as "touched".
      *
      * @param line Line to draw.
      */
-    public void drawLine(Line2D line) {
+    public void drawLine(Shape line) {
+        drawLine(line, Config.getSnapshot().notebookDrawStrokeWidth);
+    }
+
+    /**
+     * Draws a line with the given stroke width, for instance one that is
+     * replayed from the journal.
+     *
+     * @param line Line to draw.
+     * @param strokeWidth Width of the stroke.
+     */
+    public void drawLine(Shape line, int strokeWidth) {
         touched = true;
         unsaved = true;
+        changeCount++;
 
-        getImageWrapper().drawLine(line);
+        if (!bufferStroke(line, false, strokeWidth)) {
+            getImageWrapper().drawLine(line, strokeWidth);
+            record(line, false, strokeWidth);
+        }
     }
 
     /**
@@ -135,37 +406,75 @@ public class NoteSheet {
      *
      * @param line Line to erase.
      */
-    public void eraseLine(Line2D line) {
+    public void eraseLine(Shape line) {
+        eraseLine(line, Config.getSnapshot().notebookEraseStrokeWidth);
+    }
+
+    /**
+     * Erases a line with the given stroke width.
+     *
+     * @param line Line to erase.
+     * @param strokeWidth Width of the stroke.
+     */
+    public void eraseLine(Shape line, int strokeWidth) {
         touched = true;
         unsaved = true;
+        changeCount++;
 
-        getImageWrapper().eraseLine(line);
+        if (!bufferStroke(line, true, strokeWidth)) {
+            getImageWrapper().eraseLine(line, strokeWidth);
+            record(line, true, strokeWidth);
+        }
     }
 
     /**
-     * Getter for the file of the image.
+     * Takes the compressed copy that was made in the background and drops
+     * the image. The copy is thrown away if the sheet was drawn on or freed
+     * in the meantime.
+     *
+     * @return Whether the image was replaced by the copy.
      */
-    public File getFile() {
-        return imagefile;
+    boolean finishCompression() {
+        FutureTask<byte[]> task = compression;
+        compression = null;
+        if (task == null || img == null ||
+                changeCount != compressionChangeCount) {
+            return false;
+        }
+
+        try {
+            compressed = task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            Logger.logFormat(getClass().getName(),
+                             "Could not compress page %d.", pagenumber);
+            return false;
+        }
+
+        img = null;
+        resetImageWrapper();
+        return true;
     }
 
     /**
-     * Gets the graphics context of the image.
+     * Returns how often the sheet was drawn on. Snapshots taken at a
+     * different count do not show the current image.
+     *
+     * @return Number of changes.
      */
-    private Graphics2D getGraphics() {
-        if (graphics == null) {
-            BufferedImage im = getImg();
-            if (im == null) {
-                Logger.log(getClass().getName(),
-                           Localizer.get("BufferedImage is null."));
-            }
-            graphics = (Graphics2D)(im.getGraphics());
-            graphics.setRenderingHints(new
-                    RenderingHints(RenderingHints.KEY_ANTIALIASING,
-                            RenderingHints.VALUE_ANTIALIAS_ON));
-        }
+    public long getChangeCount() {
+        return changeCount;
+    }
 
-        return graphics;
+    /**
+     * Getter for the file of the image.
+     */
+    public File getFile() {
+        return imagefile;
     }
 
     /**
@@ -175,26 +484,145 @@ public class NoteSheet {
      */
     private BufferedImageWrapper getImageWrapper() {
         if (imageWrapper == null) {
-            imageWrapper = new BufferedImageWrapper(getImg());
+            imageWrapper = new BufferedImageWrapper(getTiledImage());
         }
 
         return imageWrapper;
     }
 
     /**
-     * Gets the image, loads it from disk id needed.
+     * Composes the image into a single BufferedImage, loads it from disk if
+     * needed. This allocates the whole page, use getTiledImage() to display
+     * it.
      */
     public BufferedImage getImg() {
+        return getTiledImage().toBufferedImage();
+    }
+
+    /**
+     * Returns the number of bytes the image takes up in memory, either as
+     * tiles or as compressed copy.
+     *
+     * @return Bytes in memory.
+     */
+    long getMemoryBytes() {
+        long bytes = 0;
+        if (img != null) {
+            bytes += img.getMemoryBytes();
+        }
+        if (compressed != null) {
+            bytes += compressed.length;
+        }
+        if (strokes != null) {
+            bytes += strokes.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the size of this sheet in pixels.
+     */
+    Dimension getNoteSize() {
+        return noteSize;
+    }
+
+    /**
+     * Prepares a snapshot of the page that leaves the sheet as it is, for
+     * instance for the onion layers. A page in memory is taken right away.
+     * Otherwise, the returned Callable reads it and can run on any thread.
+     *
+     * @return Reader that returns the snapshot, which is null for a blank
+     * page.
+     */
+    public Callable<TiledImage> getSnapshotReader() {
+        TiledImage ready = null;
+        if (img != null) {
+            ready = img.snapshot();
+        }
+        else if (writethread != null) {
+            PendingWrite write = writethread.getPendingWrite(imagefile);
+            if (write != null && write.getImg() instanceof TiledImage) {
+                ready = (TiledImage) write.getImg();
+            }
+        }
+
+        final int bits = sheetBits;
+        if (ready != null) {
+            final TiledImage snapshot = ready;
+            return new Callable<TiledImage>() {
+                @Override
+                public TiledImage call() {
+                    return snapshot;
+                }
+            };
+        }
+        else if (strokes != null) {
+            final StrokeList lines = strokes.snapshot();
+            final Dimension size = noteSize;
+            return new Callable<TiledImage>() {
+                @Override
+                public TiledImage call() {
+                    return rasterize(lines, size, bits);
+                }
+            };
+        }
+        else if (compressed != null) {
+            final byte[] data = compressed;
+            return new Callable<TiledImage>() {
+                @Override
+                public TiledImage call() throws IOException {
+                    return toTiledImage(ImageIO.read(
+                                new ByteArrayInputStream(data)), bits);
+                }
+            };
+        }
+
+        final File file = imagefile;
+        return new Callable<TiledImage>() {
+            @Override
+            public TiledImage call() throws IOException {
+                if (file == null || !file.exists() || file.length() == 0) {
+                    return null;
+                }
+                return readImage(file, bits);
+            }
+        };
+    }
+
+    /**
+     * Gets the tiled image, loads it from disk if needed.
+     */
+    public TiledImage getTiledImage() {
         if (isSwapped()) {
-            loadFromFile();
+            if (compressed != null) {
+                decompress();
+            }
+            else if (strokes != null) {
+                img = rasterize(strokes, noteSize, sheetBits);
+                resetImageWrapper();
+            }
+            else {
+                loadFromFile();
+            }
         }
         if (img == null) {
             throw new NullPointerException(Localizer.get(
                         "Could not load image from disk."));
         }
+        loading = false;
+        applyPendingStrokes();
         return img;
     }
 
+    /**
+     * Returns the bits per pixel that the image is kept with in memory.
+     *
+     * @return Bits per pixel.
+     */
+    public int getSheetBits() {
+        return sheetBits;
+    }
+
     /**
      * Get the sheet's page number.
      */
@@ -225,6 +653,7 @@ public class NoteSheet {
                 // Since this is only a temporary file, delete if after using
                 // it.
                 imagefile.deleteOnExit();
+                StrokeList.getFile(imagefile).deleteOnExit();
             }
             catch (IOException e) {
                 Logger.handleError(Localizer.get(
@@ -233,16 +662,66 @@ public class NoteSheet {
             }
         }
 
-        img = new BufferedImage(noteSize.width, noteSize.height,
-                BufferedImage.TYPE_BYTE_GRAY);
+        img = new TiledImage(noteSize.width, noteSize.height,
+                Config.getSnapshot().notebookBackgroundColor,
+                Config.getSnapshot().notebookForegroundColor, sheetBits);
+        resetImageWrapper();
 
-        graphics = getGraphics();
-        graphics.setColor(Config.getColor("notebook_background_color"));
-        graphics.fillRect(0, 0, noteSize.width, noteSize.height);
+        if (vectorMode) {
+            strokes = new StrokeList(noteSize.width, noteSize.height);
+        }
+        else {
+            strokes = null;
+        }
 
         unsaved = false;
     }
 
+    /**
+     * Whether the image is only kept as compressed copy or as vectors in
+     * memory.
+     */
+    boolean isCompressed() {
+        return img == null && (compressed != null || strokes != null);
+    }
+
+    /**
+     * Tells whether the compressed copy that was being made in the
+     * background is done or was dropped.
+     *
+     * @return Whether finishCompression() does not have to wait.
+     */
+    boolean isCompressionDone() {
+        return compression == null || compression.isDone();
+    }
+
+    /**
+     * Whether the image is in memory as tiles.
+     */
+    boolean isLoaded() {
+        return img != null;
+    }
+
+    /**
+     * Tells whether the image can be shown without reading the file.
+     *
+     * @return Whether the image is in memory or there is nothing to read.
+     */
+    public boolean isReady() {
+        return img != null || compressed != null || strokes != null ||
+               !touched;
+    }
+
+    /**
+     * Tells whether the given file is waiting to be written.
+     *
+     * @param file File to check.
+     * @return Whether a write of the file is scheduled.
+     */
+    static boolean isWritePending(File file) {
+        return writethread != null && writethread.isFileInQueue(file);
+    }
+
     /**
      * Whether the picture is swapped to disk. To save RAM, the pictures might
      * be swapped into a temporary file if the user is in another part of the
@@ -256,25 +735,39 @@ public class NoteSheet {
      * Loads the image from file. Everything else is left intact.
      */
     public void loadFromFile() {
-        // If the image was scheduled for writing but not written now, force
-        // the thread to write it. If the file is empty, then the
-        // WriteoutThread did not get a change to write the file yet. Join with
-        // the thread.
+        // If the image waits to be written, the snapshot in memory is newer
+        // than the file. It is taken right away instead of waiting for the
+        // disk. Anything else only waits for this very file.
+        PendingWrite write = null;
+        if (writethread != null) {
+            write = writethread.getPendingWrite(imagefile);
+        }
+        if (write != null) {
+            if (write.getImg() instanceof TiledImage &&
+                    ((TiledImage) write.getImg()).getBitsPerPixel() ==
+                    sheetBits) {
+                img = ((TiledImage) write.getImg()).copy();
+                strokes = write.getStrokes() == null ? null :
+                          write.getStrokes().snapshot();
+                touched = true;
+                resetImageWrapper();
+                return;
+            }
 
-        if (!imagefile.exists() || imagefile.length() == 0L) {
-            Logger.log(getClass().getName(),
-                       Localizer.get("Image file does not exist."));
-            if (writethread.isFileInQueue(imagefile)) {
-                stopWriteoutThread();
+            try {
+                write.waitFor();
+            }
+            catch (InterruptedException e) {
+                Logger.handleError(Localizer.get(
+                            "WriteThread was interrupted."));
+                e.printStackTrace();
             }
         }
 
-        // If the file still does not exist, it has not been written out.
+        // If the file does not exist, it has not been written out.
         if (!imagefile.exists() || imagefile.length() == 0L) {
-            Logger.log(getClass().getName(), Localizer.get(
-                    "Image file does" +
-                    " not exist after stopping WriteoutThread."
-                       ));
+            Logger.logFormat(getClass().getName(),
+                             "Image file does not exist.");
 
             initNewImage();
         }
@@ -282,11 +775,18 @@ public class NoteSheet {
         // If the file exists, load it up.
         else {
             try {
-                Logger.log(getClass().getName(),
-                           String.format(Localizer.get("Loading %s."),
-                                   imagefile.getAbsolutePath()));
+                if (Logger.isDebug()) {
+                    Logger.logFormat(getClass().getName(), "Loading %s.",
+                                     imagefile.getAbsolutePath());
+                }
 
-                img = ImageIO.read(imagefile);
+                strokes = readStrokes(imagefile);
+                if (strokes != null) {
+                    img = rasterize(strokes, noteSize, sheetBits);
+                }
+                else {
+                    img = readImage(imagefile, sheetBits);
+                }
             }
             catch (FileNotFoundException e) {
                 Logger.handleError(Localizer.get(
@@ -313,6 +813,108 @@ public class NoteSheet {
         }
     }
 
+    /**
+     * Draws the lines that wait for the image onto something else, for
+     * instance a placeholder that is shown while the image is read. The lines
+     * before the given one are skipped, since they were drawn already.
+     *
+     * @param wrapper Where to draw the lines.
+     * @param from Number of lines that were drawn already.
+     * @return Number of lines that wait for the image.
+     */
+    public int paintPendingStrokes(BufferedImageWrapper wrapper, int from) {
+        if (pendingStrokes == null) {
+            return 0;
+        }
+
+        for (int i = from; i < pendingStrokes.size(); i++) {
+            PendingStroke stroke = pendingStrokes.get(i);
+            if (stroke.erase) {
+                wrapper.eraseLine(stroke.line, stroke.strokeWidth);
+            }
+            else {
+                wrapper.drawLine(stroke.line, stroke.strokeWidth);
+            }
+        }
+        return pendingStrokes.size();
+    }
+
+    /**
+     * Draws the given vectors onto a new image.
+     *
+     * @param lines Vectors to draw.
+     * @param size Size of the image, the vectors are scaled to it.
+     * @param sheetBits Bits per pixel of the image.
+     * @return The page.
+     */
+    static TiledImage rasterize(StrokeList lines, Dimension size,
+            int sheetBits) {
+        TiledImage image = new TiledImage(size.width, size.height,
+                Config.getSnapshot().notebookBackgroundColor,
+                Config.getSnapshot().notebookForegroundColor, sheetBits);
+        lines.render(image, Config.getSnapshot().notebookForegroundColor,
+                Config.getSnapshot().notebookBackgroundColor);
+        return image;
+    }
+
+    /**
+     * Reads a page image from the given file. This does not touch any sheet,
+     * so it can run on any thread.
+     *
+     * @param file File to read.
+     * @param sheetBits Bits per pixel of the page in memory.
+     * @return The page, or null if the file holds no image.
+     * @throws IOException If the file cannot be read.
+     */
+    static TiledImage readImage(File file, int sheetBits) throws IOException {
+        return toTiledImage(ImageIO.read(file), sheetBits);
+    }
+
+    /**
+     * Reads the vectors that were saved next to the given page image. This
+     * does not touch any sheet, so it can run on any thread.
+     *
+     * @param file File of the page image.
+     * @return The vectors, or null if vector mode is off or there are none
+     * that can be read. The image has to be read then.
+     */
+    static StrokeList readStrokes(File file) {
+        File strokefile = StrokeList.getFile(file);
+        if (!Config.getSnapshot().notebookVectorMode || !strokefile.exists()) {
+            return null;
+        }
+
+        try {
+            InputStream in = new BufferedInputStream(
+                new FileInputStream(strokefile));
+            try {
+                return StrokeList.read(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            Logger.logFormat(NoteSheet.class.getName(),
+                             "Could not read %s, using the image instead.",
+                             strokefile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    /**
+     * Adds a line that went into the image to the vectors.
+     *
+     * @param line Line that was drawn.
+     * @param erase Whether the line was erased.
+     * @param strokeWidth Width of the stroke.
+     */
+    private void record(Shape line, boolean erase, int strokeWidth) {
+        if (strokes != null) {
+            strokes.add(line, erase, strokeWidth);
+        }
+    }
+
     /**
      * Resets the BufferedImageWrapper.
      */
@@ -325,25 +927,37 @@ public class NoteSheet {
      * heap.
      */
     public void saveToFile() {
-        Logger.log(getClass().getName(),
-                   String.format(Localizer.get("Picture %d is %s and %s."),
-                           pagenumber,
-                           (touched ? Localizer.get("touched") :
-                                   Localizer.get("untouched")),
-                           (unsaved ? Localizer.get("unsaved") :
-                                   Localizer.get("saved"))
-                                )
-                  );
+        // The lines that wait for the image need to be in it.
+        if (pendingStrokes != null) {
+            getTiledImage();
+        }
+
+        if (Logger.isDebug()) {
+            Logger.logFormat(getClass().getName(),
+                             "Picture %d is %s and %s.", pagenumber,
+                             (touched ? Localizer.get("touched") :
+                              Localizer.get("untouched")),
+                             (unsaved ? Localizer.get("unsaved") :
+                              Localizer.get("saved")));
+        }
         if (touched && unsaved) {
-            Logger.log(getClass().getName(), String.format(
-                    Localizer.get("Scheduling %s for writing."),
-                    imagefile.getAbsolutePath()));
+            if (Logger.isDebug()) {
+                Logger.logFormat(getClass().getName(),
+                                 "Scheduling %s for writing.",
+                                 imagefile.getAbsolutePath());
+            }
 
 
             if (writethread == null || !writethread.isAlive()) {
                 writethread = new WriteoutThread();
             }
-            writethread.schedule(new ImageSwapTask(img, imagefile));
+            // Hand a snapshot to the writer, so that drawing can go on while
+            // the image is encoded.
+            StrokeList lines = strokes == null ? null : strokes.snapshot();
+            StrokeJournal.Checkpoint checkpoint = journal == null ? null :
+                journal.checkpoint(pagenumber);
+            writethread.schedule(new ImageSwapTask(img.snapshot(), imagefile,
+                        manifest, lines, checkpoint));
         }
 
         unsaved = false;
@@ -355,11 +969,41 @@ public class NoteSheet {
         }
 
         // remove the image from the memory
+        cancelCompression();
         img = null;
-        graphics = null;
+        compressed = null;
+        strokes = null;
         resetImageWrapper();
     }
 
+    /**
+     * Sets the journal that learns about every write of this sheet.
+     *
+     * @param journal Journal of the NoteBook, may be null.
+     */
+    void setJournal(StrokeJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets whether the image is read in the background. Lines are kept aside
+     * during that time.
+     *
+     * @param loading Whether the image is being read.
+     */
+    void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
+    /**
+     * Sets the manifest that learns about every write of this sheet.
+     *
+     * @param manifest Manifest of the NoteBook, may be null.
+     */
+    void setManifest(NoteBookManifest manifest) {
+        this.manifest = manifest;
+    }
+
     /**
      * Stops the WriteoutThread and waits for it. This ensures that everything
      * is written to disk properly.
@@ -378,6 +1022,23 @@ public class NoteSheet {
         }
     }
 
+    /**
+     * Turns a decoded image into a page with the given bits per pixel.
+     *
+     * @param loaded Decoded image, may be null.
+     * @param sheetBits Bits per pixel of the page in memory.
+     * @return The page, or null if there was no image.
+     */
+    private static TiledImage toTiledImage(BufferedImage loaded,
+            int sheetBits) {
+        if (loaded == null) {
+            return null;
+        }
+        return new TiledImage(loaded,
+                Config.getSnapshot().notebookBackgroundColor,
+                Config.getSnapshot().notebookForegroundColor, sheetBits);
+    }
+
     /**
      * Whether this sheet has any lines drawn onto it.
      */
@@ -21,41 +21,63 @@ package jscribble.notebook;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Filters filenames that belong to NoteSheet from a specific NoteBook.
  *
+ * A notebook folder can hold thousands of pages, so the names are parsed by
+ * hand instead of with a regular expression.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class NoteSheetFileFilter implements FilenameFilter {
     /**
-     * The pattern that every filename is matched against.
+     * Suffix of every page file.
+     */
+    private static final String SUFFIX = ".png";
+
+    /**
+     * Determines the page number from the name of a page file.
+     *
+     * @param filename Name of the file, without any folders.
+     * @return Page number, or -1 if this is not the name of a page file.
      */
-    private Pattern p = Pattern.compile("(\\d+)\\.png");
+    public static int getPagenumber(String filename) {
+        int digits = filename.length() - SUFFIX.length();
+        if (digits <= 0 || !filename.endsWith(SUFFIX)) {
+            return -1;
+        }
+
+        long number = 0;
+        for (int i = 0; i < digits; i++) {
+            char c = filename.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+            if (number > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+
+        // The file format says numbers start with 1.
+        if (number < 1) {
+            return -1;
+        }
+
+        return (int) number;
+    }
 
     /**
-     * Determines whether a file is accepted or not. A file is accepted if it
-     * starts with the correct prefix and matches the regular expression.
+     * Determines whether a file is accepted or not. A file is accepted if its
+     * name is a page number of at least 1 with the png suffix.
      *
      * @param arg0 Ignored.
      * @param arg1 This is checked.
      */
     @Override
     public boolean accept(File arg0, String arg1) {
-        String[] nameparts = arg1.split(Pattern.quote(File.separator));
-        String fileBasename = nameparts[nameparts.length - 1];
-        Matcher m = p.matcher(fileBasename);
-
-        if (m.matches()) {
-            // Check whether the number is >= 1, since the file
-            // format says numbers start with 1.
-            int number = Integer.parseInt(m.group(1));
-            if (number >= 1) {
-                return true;
-            }
-        }
-        return false;
+        String fileBasename = arg1.substring(arg1.lastIndexOf(File.separator) + 1);
+        return getPagenumber(fileBasename) >= 1;
     }
 }
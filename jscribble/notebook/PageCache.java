@@ -0,0 +1,409 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import jscribble.helpers.Config;
+import jscribble.helpers.Logger;
+
+/**
+ * Decides which NoteSheet keeps its image in memory. There is one cache for
+ * all open NoteBook, with a budget in MiB.
+ *
+ * Pages are kept in three tiers. Recently used pages keep their tiles, so
+ * that they can be shown and drawn on right away. Colder pages are demoted
+ * to a compressed copy in memory. Only the coldest pages are dropped and
+ * have to be loaded from disk again.
+ *
+ * The compressed copies are made on a background thread, so that a page
+ * flip does not wait for the encoder. A page keeps its tiles until its copy
+ * is there.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PageCache {
+    /**
+     * The cache that is shared by all NoteBook.
+     */
+    private static PageCache instance;
+
+    /**
+     * Pages that have their image in memory in some form, the least
+     * recently used one first.
+     */
+    private LinkedHashSet<NoteSheet> pages = new LinkedHashSet<NoteSheet>();
+
+    /**
+     * Pages whose compressed copy is being made in the background.
+     */
+    private LinkedHashSet<NoteSheet> compressing =
+        new LinkedHashSet<NoteSheet>();
+
+    /**
+     * Size of a compressed copy relative to the tiles, learned from the
+     * copies that were made so far. Pages that are being compressed are
+     * counted with this.
+     */
+    private double compressionRatio = 0.25;
+
+    /**
+     * Takes over the compressed copies on the event dispatch thread.
+     */
+    private Runnable finisher = new Runnable() {
+        @Override
+        public void run() {
+            finishCompressions();
+        }
+    };
+
+    /**
+     * Budget for all the pages in bytes.
+     */
+    private long budget;
+
+    /**
+     * Activations of pages that still had their tiles.
+     */
+    private long hotHits = 0;
+
+    /**
+     * Activations of pages that did not have their tiles.
+     */
+    private long hotMisses = 0;
+
+    /**
+     * Activations of pages that had a compressed copy.
+     */
+    private long compressedHits = 0;
+
+    /**
+     * Activations of pages that neither had their tiles nor a compressed
+     * copy, and were loaded from disk.
+     */
+    private long compressedMisses = 0;
+
+    /**
+     * Number of pages that were demoted to a compressed copy.
+     */
+    private long demotions = 0;
+
+    /**
+     * Number of pages that were dropped from memory.
+     */
+    private long evictions = 0;
+
+    /**
+     * Creates a cache with the given budget.
+     *
+     * @param budgetMiB Budget in MiB.
+     */
+    public PageCache(int budgetMiB) {
+        budget = budgetMiB * 1024L * 1024L;
+    }
+
+    /**
+     * Marks the given page as the one that is used now and makes sure its
+     * image is in memory, unless it has to be read from disk. That is left to
+     * the background, loaded() is called once the image is there. Other
+     * pages are demoted or dropped until the cache fits into the budget
+     * again.
+     *
+     * @param sheet Page to activate.
+     */
+    public synchronized void activate(NoteSheet sheet) {
+        finishCompressions();
+        if (compressing.remove(sheet)) {
+            sheet.cancelCompression();
+        }
+
+        if (sheet.isLoaded()) {
+            hotHits++;
+        }
+        else {
+            hotMisses++;
+            if (sheet.isCompressed()) {
+                compressedHits++;
+            }
+            else {
+                compressedMisses++;
+            }
+        }
+
+        if (sheet.isReady()) {
+            sheet.getTiledImage();
+        }
+
+        pages.remove(sheet);
+        pages.add(sheet);
+
+        enforceBudget(sheet);
+    }
+
+    /**
+     * Demotes or drops pages, the least recently used first, until the cache
+     * fits into the budget. Each pass moves every page down by one tier, so
+     * that a page is only dropped if all the more recent pages were at least
+     * demoted. Pages that are being compressed count with the expected size
+     * of their copy.
+     *
+     * @param pinned Page that is used now and has to stay.
+     */
+    private void enforceBudget(NoteSheet pinned) {
+        long used = getUsedBytes();
+        for (NoteSheet sheet : compressing) {
+            used -= getExpectedSaving(sheet.getMemoryBytes());
+        }
+
+        while (used > budget) {
+            boolean changed = false;
+
+            for (NoteSheet sheet : new ArrayList<NoteSheet>(pages)) {
+                if (used <= budget) {
+                    break;
+                }
+                if (sheet == pinned || compressing.contains(sheet)) {
+                    continue;
+                }
+
+                // A blank page, or one that is still read in the
+                // background, has nothing to give back.
+                long before = sheet.getMemoryBytes();
+                if (before == 0) {
+                    continue;
+                }
+                if (sheet.isCompressed()) {
+                    sheet.freeImage();
+                    pages.remove(sheet);
+                    evictions++;
+                    changed = true;
+                }
+                else if (sheet.compress(PagePrefetcher.getExecutor(),
+                            finisher)) {
+                    compressing.add(sheet);
+                    used -= getExpectedSaving(before);
+                    changed = true;
+                    continue;
+                }
+                else if (sheet.isCompressed()) {
+                    demotions++;
+                    changed = true;
+                }
+                used += sheet.getMemoryBytes() - before;
+            }
+
+            if (!changed) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Takes over the compressed copies that were made in the background. The
+     * copies take some memory as well, so the budget is enforced again
+     * afterwards.
+     */
+    public synchronized void finishCompressions() {
+        boolean finished = false;
+        Iterator<NoteSheet> it = compressing.iterator();
+        while (it.hasNext()) {
+            NoteSheet sheet = it.next();
+            if (sheet.isCompressionDone()) {
+                it.remove();
+                long before = sheet.getMemoryBytes();
+                if (sheet.finishCompression()) {
+                    demotions++;
+                    if (before > 0) {
+                        compressionRatio = (compressionRatio +
+                                (double) sheet.getMemoryBytes() / before) / 2;
+                    }
+                }
+                finished = true;
+            }
+        }
+
+        if (finished && !pages.isEmpty()) {
+            NoteSheet newest = null;
+            for (NoteSheet sheet : pages) {
+                newest = sheet;
+            }
+            enforceBudget(newest);
+        }
+    }
+
+    /**
+     * Returns the budget of the cache.
+     *
+     * @return Budget in bytes.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns how often an activated page was found as compressed copy.
+     *
+     * @return Compressed tier hits.
+     */
+    public synchronized long getCompressedHits() {
+        return compressedHits;
+    }
+
+    /**
+     * Returns how often an activated page had to be loaded from disk.
+     *
+     * @return Compressed tier misses.
+     */
+    public synchronized long getCompressedMisses() {
+        return compressedMisses;
+    }
+
+    /**
+     * Returns how often a page was demoted to a compressed copy.
+     *
+     * @return Number of demotions.
+     */
+    public synchronized long getDemotions() {
+        return demotions;
+    }
+
+    /**
+     * Returns how many bytes compressing a page is expected to free.
+     *
+     * @param bytes Bytes the page takes up now.
+     * @return Expected saving in bytes.
+     */
+    private long getExpectedSaving(long bytes) {
+        return (long) (bytes * (1 - compressionRatio));
+    }
+
+    /**
+     * Returns how often a page was dropped from memory.
+     *
+     * @return Number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns how often an activated page still had its tiles.
+     *
+     * @return Hot tier hits.
+     */
+    public synchronized long getHotHits() {
+        return hotHits;
+    }
+
+    /**
+     * Returns how often an activated page did not have its tiles.
+     *
+     * @return Hot tier misses.
+     */
+    public synchronized long getHotMisses() {
+        return hotMisses;
+    }
+
+    /**
+     * Returns the cache that is shared by all NoteBook, creates it with the
+     * configured budget if needed.
+     *
+     * @return Shared cache.
+     */
+    public static synchronized PageCache getInstance() {
+        if (instance == null) {
+            instance = new PageCache(Config.getInteger("page_cache_budget"));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the memory all the pages in the cache take up.
+     *
+     * @return Bytes in memory.
+     */
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        for (NoteSheet sheet : pages) {
+            used += sheet.getMemoryBytes();
+        }
+        return used;
+    }
+
+    /**
+     * Tells the cache that the given page takes up more memory than before,
+     * for instance because it was drawn on. If it is in the cache, other
+     * pages are demoted or dropped until the cache fits into the budget
+     * again.
+     *
+     * @param sheet Page that grew.
+     */
+    public synchronized void grown(NoteSheet sheet) {
+        if (pages.contains(sheet)) {
+            enforceBudget(sheet);
+        }
+    }
+
+    /**
+     * Tells whether compressed copies are being made in the background.
+     *
+     * @return Whether there are pages to finish.
+     */
+    public synchronized boolean isCompressing() {
+        return !compressing.isEmpty();
+    }
+
+    /**
+     * Tells the cache that the image of the page that is used now was read
+     * in the background, so that it fits into the budget again.
+     *
+     * @param sheet Page that got its image.
+     */
+    synchronized void loaded(NoteSheet sheet) {
+        grown(sheet);
+    }
+
+    /**
+     * Forgets a page whose NoteBook frees it, so that it is no longer counted
+     * or held on to.
+     *
+     * @param sheet Page to forget.
+     */
+    public synchronized void remove(NoteSheet sheet) {
+        pages.remove(sheet);
+        if (compressing.remove(sheet)) {
+            sheet.cancelCompression();
+        }
+    }
+
+    /**
+     * Writes the statistics of the cache into the log.
+     */
+    public synchronized void logStatistics() {
+        if (!Logger.isDebug()) {
+            return;
+        }
+        Logger.logFormat(getClass().getName(),
+                         "Page cache: %d of %d MiB used, hot tier %d hits and %d misses, compressed tier %d hits and %d misses, %d demotions, %d evictions.",
+                         getUsedBytes() / 1024 / 1024, budget / 1024 / 1024, hotHits, hotMisses, compressedHits, compressedMisses, demotions, evictions);
+    }
+}
@@ -0,0 +1,414 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import jscribble.helpers.Localizer;
+import jscribble.helpers.Logger;
+
+/**
+ * Reads pages on a background thread, so that the event dispatch thread
+ * never has to wait for the disk and the PNG decoder. This covers the page
+ * that is shown as well as the pages ahead of the user.
+ *
+ * The prefetcher follows the direction of the last page flips. Every flip in
+ * the same direction that comes quickly after the previous one reads one page
+ * further ahead, up to a configured number of pages. Turning around starts
+ * with a single page again, and reads that are no longer wanted are
+ * cancelled.
+ *
+ * Whenever a read is done, a listener is called on the event dispatch thread,
+ * so that a page that waited for it can be shown.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PagePrefetcher {
+    /**
+     * Flips that are closer together than this count as a series.
+     */
+    private static final long SERIES_MILLIS = 800;
+
+    /**
+     * A page that is read or was read in the background.
+     */
+    private static class Prefetch {
+        /**
+         * Bits per pixel the page is read with.
+         */
+        int bits;
+
+        /**
+         * The image that is being read.
+         */
+        Future<TiledImage> image;
+
+        /**
+         * Length of the file when the read was started.
+         */
+        long length;
+
+        /**
+         * Modification time of the file when the read was started.
+         */
+        long modified;
+
+        /**
+         * Size of the sheet, to draw the vectors at.
+         */
+        Dimension size;
+
+        /**
+         * Vectors of the page, if they were read instead of the image.
+         */
+        StrokeList strokes;
+    }
+
+    /**
+     * Number of reads that were dropped before they were used.
+     */
+    private long cancelled;
+
+    /**
+     * Direction of the last flip, 1 for forward, -1 for backward.
+     */
+    private int direction;
+
+    /**
+     * Thread that reads the pages. It is shared by all prefetchers, so that
+     * closing a NoteBook does not leave a thread behind.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Number of pages that were taken from the prefetcher.
+     */
+    private long hits;
+
+    /**
+     * Time of the last flip.
+     */
+    private long lastFlip;
+
+    /**
+     * Called on the event dispatch thread whenever a read is done.
+     */
+    private Runnable listener;
+
+    /**
+     * Highest number of pages to read ahead.
+     */
+    private int maxDepth;
+
+    /**
+     * Reads by their file, in the order they were requested.
+     */
+    private LinkedHashMap<File, Prefetch> prefetches =
+        new LinkedHashMap<File, Prefetch>();
+
+    /**
+     * Number of flips in the same direction in a quick series.
+     */
+    private int series;
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param maxDepth Highest number of pages to read ahead.
+     */
+    public PagePrefetcher(int maxDepth) {
+        this(maxDepth, null);
+    }
+
+    /**
+     * Creates a prefetcher that reports finished reads.
+     *
+     * @param maxDepth Highest number of pages to read ahead.
+     * @param listener Called on the event dispatch thread whenever a read is
+     * done, may be null.
+     */
+    public PagePrefetcher(int maxDepth, Runnable listener) {
+        this.maxDepth = maxDepth;
+        this.listener = listener;
+    }
+
+    /**
+     * Cancels all reads that were not used yet.
+     */
+    public void cancelAll() {
+        for (Prefetch prefetch : prefetches.values()) {
+            prefetch.image.cancel(false);
+            cancelled++;
+        }
+        prefetches.clear();
+    }
+
+    /**
+     * Notes a page flip.
+     *
+     * @param direction 1 for forward, -1 for backward.
+     */
+    public void flipped(int direction) {
+        long now = System.currentTimeMillis();
+        if (direction == this.direction && now - lastFlip < SERIES_MILLIS) {
+            series++;
+        }
+        else {
+            series = 0;
+        }
+        this.direction = direction;
+        lastFlip = now;
+    }
+
+    /**
+     * Returns the number of reads that were dropped before they were used.
+     *
+     * @return Number of cancelled reads.
+     */
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns how many pages should be read ahead right now. This grows with
+     * the number of quick flips in the same direction.
+     *
+     * @return Number of pages.
+     */
+    public int getDepth() {
+        return Math.min(maxDepth, series + 1);
+    }
+
+    /**
+     * Returns the direction of the last flip.
+     *
+     * @return 1 for forward, -1 for backward, 0 if there was no flip yet.
+     */
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the thread that reads the pages. The PageCache compresses
+     * pages on it as well.
+     *
+     * @return Shared thread.
+     */
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PagePrefetcher");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the number of pages that were taken from the prefetcher.
+     *
+     * @return Number of hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gives a sheet the image that was read for it in the background. If the
+     * read is still going on, the sheet is marked as loading and this needs
+     * to be called again once the listener reports a finished read. Nothing
+     * happens if the sheet has an image already or the file was changed
+     * after the read was started. If the read failed, the sheet reads the
+     * file itself right away, which reports the error.
+     *
+     * @param sheet Sheet that is about to be shown.
+     */
+    void install(NoteSheet sheet) {
+        if (sheet.getFile() == null) {
+            return;
+        }
+
+        Prefetch prefetch = prefetches.get(sheet.getFile());
+        if (prefetch == null) {
+            return;
+        }
+
+        if (sheet.isLoaded() || sheet.isCompressed() ||
+                prefetch.bits != sheet.getSheetBits() ||
+                prefetch.length != sheet.getFile().length() ||
+                prefetch.modified != sheet.getFile().lastModified()) {
+            prefetches.remove(sheet.getFile());
+            prefetch.image.cancel(false);
+            cancelled++;
+            sheet.setLoading(false);
+            return;
+        }
+
+        if (!prefetch.image.isDone()) {
+            sheet.setLoading(true);
+            return;
+        }
+
+        prefetches.remove(sheet.getFile());
+        sheet.setLoading(false);
+        TiledImage image = null;
+        try {
+            image = prefetch.image.get();
+        }
+        catch (InterruptedException e) {
+            Logger.handleError(Localizer.get(
+                        "Interrupted while reading a page ahead."));
+            e.printStackTrace();
+        }
+        catch (ExecutionException e) {
+            Logger.logFormat(getClass().getName(),
+                             "Could not read %s ahead.",
+                             sheet.getFile().getAbsolutePath());
+        }
+
+        if (image != null) {
+            sheet.adoptImage(image, prefetch.strokes);
+            hits++;
+        }
+        else {
+            sheet.getTiledImage();
+        }
+        PageCache.getInstance().loaded(sheet);
+    }
+
+    /**
+     * Reads the given sheet in the background unless this is happening
+     * already. If the image is there already, the sheet gets it right away.
+     *
+     * @param sheet Sheet that is shown.
+     * @return Whether the sheet still waits for its image.
+     */
+    boolean load(NoteSheet sheet) {
+        if (sheet.getFile() == null) {
+            return false;
+        }
+
+        submit(sheet);
+        install(sheet);
+        return prefetches.containsKey(sheet.getFile());
+    }
+
+    /**
+     * Logs how well reading ahead worked.
+     */
+    public void logStatistics() {
+        Logger.logFormat(getClass().getName(),
+                         "Pages read ahead: %d used, %d dropped.",
+                         hits, cancelled);
+    }
+
+    /**
+     * Reads the given sheets in the background, in the given order. Reads of
+     * other sheets that were not used yet are cancelled.
+     *
+     * @param sheets Sheets to read ahead, the most urgent first.
+     */
+    void prefetch(List<NoteSheet> sheets) {
+        ArrayList<File> wanted = new ArrayList<File>();
+        for (NoteSheet sheet : sheets) {
+            if (sheet.getFile() != null) {
+                wanted.add(sheet.getFile());
+            }
+        }
+
+        Iterator<Map.Entry<File, Prefetch>> it =
+            prefetches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<File, Prefetch> e = it.next();
+            if (!wanted.contains(e.getKey())) {
+                e.getValue().image.cancel(false);
+                cancelled++;
+                it.remove();
+            }
+        }
+
+        for (NoteSheet sheet : sheets) {
+            submit(sheet);
+        }
+    }
+
+    /**
+     * Starts reading the given sheet unless it is read already or has an
+     * image. Files that wait to be written are left alone, their sheet knows
+     * how to wait for that.
+     *
+     * @param sheet Sheet to read.
+     */
+    private void submit(NoteSheet sheet) {
+        final File file = sheet.getFile();
+        if (file == null || prefetches.containsKey(file) ||
+                sheet.isLoaded() || sheet.isCompressed() ||
+                NoteSheet.isWritePending(file) || file.length() == 0) {
+            return;
+        }
+
+        final Prefetch prefetch = new Prefetch();
+        prefetch.bits = sheet.getSheetBits();
+        prefetch.size = sheet.getNoteSize();
+        prefetch.length = file.length();
+        prefetch.modified = file.lastModified();
+        FutureTask<TiledImage> task = new FutureTask<TiledImage>(
+                new Callable<TiledImage>() {
+            @Override
+            public TiledImage call() throws Exception {
+                prefetch.strokes = NoteSheet.readStrokes(file);
+                if (prefetch.strokes != null) {
+                    return NoteSheet.rasterize(prefetch.strokes,
+                            prefetch.size, prefetch.bits);
+                }
+                return NoteSheet.readImage(file, prefetch.bits);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (listener != null && !isCancelled()) {
+                    EventQueue.invokeLater(listener);
+                }
+            }
+        };
+        prefetch.image = task;
+        getExecutor().execute(task);
+        prefetches.put(file, prefetch);
+    }
+}
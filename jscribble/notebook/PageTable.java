@@ -0,0 +1,154 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * The list of pages in a NoteBook. Each page is stored as its page number
+ * in an array, so that any page can be found by its position right away,
+ * even in a NoteBook with many thousand pages.
+ *
+ * The NoteSheet for a page is only created when the page is used. Until
+ * then, the page costs nothing more than its number.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PageTable {
+    /**
+     * Page numbers in the order of the pages.
+     */
+    private int[] pagenumbers = new int[16];
+
+    /**
+     * Number of pages.
+     */
+    private int size = 0;
+
+    /**
+     * The sheets that were created so far, by their page number.
+     */
+    private HashMap<Integer, NoteSheet> sheets =
+        new HashMap<Integer, NoteSheet>();
+
+    /**
+     * Appends a page to the end.
+     *
+     * @param pagenumber Page number of the new page.
+     */
+    public void add(int pagenumber) {
+        insert(size, pagenumber);
+    }
+
+    /**
+     * Checks whether the given position is a page.
+     *
+     * @param index Position to check.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Page %d of %d", index, size));
+        }
+    }
+
+    /**
+     * Makes sure that there is space for the given number of pages.
+     *
+     * @param capacity Number of pages.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > pagenumbers.length) {
+            pagenumbers = Arrays.copyOf(pagenumbers,
+                    Math.max(capacity, pagenumbers.length * 2));
+        }
+    }
+
+    /**
+     * Returns the sheets that were created so far.
+     *
+     * @return Created sheets.
+     */
+    public Collection<NoteSheet> getCreatedSheets() {
+        return sheets.values();
+    }
+
+    /**
+     * Returns the page number of the page at the given position.
+     *
+     * @param index Position of the page.
+     * @return Page number.
+     */
+    public int getPagenumber(int index) {
+        checkIndex(index);
+        return pagenumbers[index];
+    }
+
+    /**
+     * Returns the sheet of the page at the given position, if it was created
+     * already.
+     *
+     * @param index Position of the page.
+     * @return Sheet or null.
+     */
+    public NoteSheet getSheet(int index) {
+        return sheets.get(getPagenumber(index));
+    }
+
+    /**
+     * Inserts a page at the given position.
+     *
+     * @param index Position of the new page.
+     * @param pagenumber Page number of the new page.
+     */
+    public void insert(int index, int pagenumber) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Page %d of %d", index, size));
+        }
+
+        ensureCapacity(size + 1);
+        System.arraycopy(pagenumbers, index, pagenumbers, index + 1,
+                size - index);
+        pagenumbers[index] = pagenumber;
+        size++;
+    }
+
+    /**
+     * Stores the sheet of the page at the given position.
+     *
+     * @param index Position of the page.
+     * @param sheet Sheet of the page.
+     */
+    public void setSheet(int index, NoteSheet sheet) {
+        sheets.put(getPagenumber(index), sheet);
+    }
+
+    /**
+     * Returns the number of pages.
+     *
+     * @return Number of pages.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,646 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.awt.Dimension;
+import java.awt.Shape;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import jscribble.helpers.Config;
+import jscribble.helpers.Logger;
+
+/**
+ * Journal of the lines that were drawn into a NoteBook, so that they survive
+ * a crash of the program. Every line is appended to a file in the folder of
+ * the NoteBook as a few bytes. The lines are collected in memory and written
+ * together every few milliseconds, so that the disk is not bothered for
+ * every single line.
+ *
+ * Once the image of a page is safely on disk, its lines are removed from the
+ * journal again. When the NoteBook is opened after a crash, the remaining
+ * lines are drawn onto the pages that were saved last.
+ *
+ * A record in the file consists of the page number, the number of lines, the
+ * number of bytes and the lines encoded like in a StrokeList.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class StrokeJournal {
+    /**
+     * The lines of a page up to a certain point. Once the image of the page
+     * with these lines is on disk, the checkpoint is confirmed and the lines
+     * are removed from the journal.
+     */
+    public static class Checkpoint {
+        /**
+         * Journal of the page.
+         */
+        private StrokeJournal journal;
+
+        /**
+         * Number of records of the page that are covered.
+         */
+        private long mark;
+
+        /**
+         * Page number.
+         */
+        private int pagenumber;
+
+        /**
+         * Creates a checkpoint.
+         *
+         * @param journal Journal of the page.
+         * @param pagenumber Page number.
+         * @param mark Number of records of the page that are covered.
+         */
+        Checkpoint(StrokeJournal journal, int pagenumber, long mark) {
+            this.journal = journal;
+            this.pagenumber = pagenumber;
+            this.mark = mark;
+        }
+
+        /**
+         * Confirms that the image of the page is safely on disk.
+         */
+        public void written() {
+            journal.written(pagenumber, mark);
+        }
+    }
+
+    /**
+     * The records of a single page that are not covered by a written image.
+     */
+    private static class PageRecords {
+        /**
+         * Number of records that were ever added for the page.
+         */
+        long appended;
+
+        /**
+         * Records that are still needed.
+         */
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+        /**
+         * Number of records that were removed since they were covered.
+         */
+        long removed;
+    }
+
+    /**
+     * Name of the journal in the folder of the NoteBook.
+     */
+    public static final String FILENAME = ".journal";
+
+    /**
+     * Size of the header with the marker and the size of the pages.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Marker at the beginning of the file.
+     */
+    private static final int MAGIC = 0x4a534a31;
+
+    /**
+     * Channel to the file, only used with fileLock held.
+     */
+    private FileChannel channel;
+
+    /**
+     * Thread that writes the collected records.
+     */
+    private ScheduledExecutorService committer;
+
+    /**
+     * Milliseconds between two writes.
+     */
+    private int commitMillis;
+
+    /**
+     * Whether writing failed, which disables the journal.
+     */
+    private boolean failed;
+
+    /**
+     * The journal file.
+     */
+    private File file;
+
+    /**
+     * Lock for everything that touches the file. It is always taken before
+     * the lock of the journal itself.
+     */
+    private final Object fileLock = new Object();
+
+    /**
+     * Records of every page that are not covered by a written image.
+     */
+    private HashMap<Integer, PageRecords> pages =
+        new HashMap<Integer, PageRecords>();
+
+    /**
+     * Records that are not written to the file yet.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * Size of the pages, which the points refer to.
+     */
+    private Dimension size;
+
+    /**
+     * Creates the journal for the NoteBook in the given folder. Nothing is
+     * written until the first line is added.
+     *
+     * @param folder Folder of the NoteBook.
+     */
+    public StrokeJournal(File folder) {
+        file = new File(folder, FILENAME);
+        commitMillis = Math.max(1, Config.getInteger(
+                    "notebook_journal_commit_millis"));
+    }
+
+    /**
+     * Adds a line to the journal. It is written to the file with the next
+     * group of lines.
+     *
+     * @param pagenumber Page the line was drawn on.
+     * @param line Line that was drawn.
+     * @param erase Whether the line was erased.
+     * @param strokeWidth Width of the pen or eraser.
+     */
+    public synchronized void add(int pagenumber, Shape line, boolean erase,
+            int strokeWidth) {
+        if (failed || size == null) {
+            return;
+        }
+
+        StrokeList lines = new StrokeList(size.width, size.height);
+        lines.add(line, erase, strokeWidth);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(
+            lines.getLength() + 12);
+        writeNumber(record, pagenumber);
+        writeNumber(record, lines.getStrokeCount());
+        writeNumber(record, lines.getLength());
+        lines.copyData(record);
+        byte[] bytes = record.toByteArray();
+
+        PageRecords page = getPage(pagenumber);
+        page.records.add(bytes);
+        page.appended++;
+        pending.write(bytes, 0, bytes.length);
+
+        if (committer == null) {
+            committer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "StrokeJournal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            committer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    commit();
+                }
+            }, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Marks the lines of the given page that were added so far. The
+     * checkpoint has to be confirmed once the image of the page with these
+     * lines is on disk.
+     *
+     * @param pagenumber Page number.
+     * @return Checkpoint to confirm.
+     */
+    public synchronized Checkpoint checkpoint(int pagenumber) {
+        return new Checkpoint(this, pagenumber, getPage(pagenumber).appended);
+    }
+
+    /**
+     * Writes everything that is collected and stops the writing thread. If
+     * all lines are covered by images, the journal is deleted.
+     */
+    public void close() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = committer;
+            committer = null;
+        }
+        if (stopped != null) {
+            stopped.shutdown();
+        }
+
+        commit();
+
+        synchronized (fileLock) {
+            closeChannel();
+            synchronized (this) {
+                if (!failed && !hasRecordsInMemory()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the channel to the file, if it is open.
+     */
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+            // There is nothing left to save in it.
+        }
+        channel = null;
+    }
+
+    /**
+     * Writes the collected records to the file and forces them to disk.
+     */
+    private void commit() {
+        synchronized (fileLock) {
+            byte[] bytes;
+            synchronized (this) {
+                if (failed || pending.size() == 0) {
+                    return;
+                }
+                bytes = pending.toByteArray();
+                pending.reset();
+            }
+
+            try {
+                FileChannel out = getChannel();
+                if (out.size() == 0) {
+                    writeHeader(out);
+                }
+                writeFully(out, ByteBuffer.wrap(bytes));
+                out.force(false);
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Disables the journal after an error. Drawing goes on, only the lines
+     * are not journaled any more.
+     *
+     * @param e Error that happened.
+     */
+    private void fail(IOException e) {
+        synchronized (this) {
+            failed = true;
+            pending.reset();
+        }
+        closeChannel();
+        Logger.logFormat(getClass().getName(),
+                         "Could not write the journal %s.",
+                         file.getAbsolutePath());
+    }
+
+    /**
+     * Opens the channel to the file, positioned at its end.
+     *
+     * @return Open channel.
+     * @throws IOException If the file cannot be opened.
+     */
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the records of the given page, creating them if needed.
+     *
+     * @param pagenumber Page number.
+     * @return Records of the page.
+     */
+    private PageRecords getPage(int pagenumber) {
+        PageRecords page = pages.get(pagenumber);
+        if (page == null) {
+            page = new PageRecords();
+            pages.put(pagenumber, page);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the size of the pages in the journal.
+     *
+     * @return Size, or null if it is not known yet.
+     */
+    public synchronized Dimension getSize() {
+        return size;
+    }
+
+    /**
+     * Tells whether any lines are still needed.
+     *
+     * @return Whether there are records in memory.
+     */
+    private boolean hasRecordsInMemory() {
+        for (PageRecords page : pages.values()) {
+            if (!page.records.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether there is a journal with lines in the folder, which means
+     * that the program was not closed properly.
+     *
+     * @return Whether there are lines to replay.
+     */
+    public boolean hasRecords() {
+        return file.length() > HEADER_SIZE;
+    }
+
+    /**
+     * Reads the lines from the journal file. They stay in the journal until
+     * the pages they belong to are written. A broken record at the end, from
+     * a write that was cut off, is dropped together with everything after it.
+     *
+     * @return Lines of every page, in the order they were drawn.
+     */
+    public Map<Integer, ArrayList<StrokeList>> read() {
+        LinkedHashMap<Integer, ArrayList<StrokeList>> result =
+            new LinkedHashMap<Integer, ArrayList<StrokeList>>();
+        if (!hasRecords()) {
+            return result;
+        }
+
+        long valid = 0;
+        synchronized (fileLock) {
+            try {
+                DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() != MAGIC) {
+                        throw new IOException("Not a journal.");
+                    }
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    valid = HEADER_SIZE;
+
+                    while (true) {
+                        ByteArrayOutputStream record =
+                            new ByteArrayOutputStream();
+                        int pagenumber = readNumber(in, record);
+                        int strokeCount = readNumber(in, record);
+                        int length = readNumber(in, record);
+                        if (length < 0 || length > file.length()) {
+                            break;
+                        }
+                        byte[] data = new byte[length];
+                        in.readFully(data);
+                        StrokeList lines = StrokeList.fromData(width, height,
+                                data, strokeCount);
+                        if (lines == null) {
+                            break;
+                        }
+                        record.write(data, 0, length);
+                        valid += record.size();
+
+                        synchronized (this) {
+                            if (size == null) {
+                                size = new Dimension(width, height);
+                            }
+                            PageRecords page = getPage(pagenumber);
+                            page.records.add(record.toByteArray());
+                            page.appended++;
+                        }
+                        if (!result.containsKey(pagenumber)) {
+                            result.put(pagenumber, new ArrayList<StrokeList>());
+                        }
+                        result.get(pagenumber).add(lines);
+                    }
+                }
+                catch (EOFException ignored) {
+                    // The last record was cut off.
+                }
+                finally {
+                    in.close();
+                }
+
+                // New lines must not end up behind a broken record.
+                if (valid < file.length()) {
+                    getChannel().truncate(valid);
+                    closeChannel();
+                }
+            }
+            catch (IOException e) {
+                Logger.logFormat(getClass().getName(),
+                                 "Could not read the journal %s.",
+                                 file.getAbsolutePath());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a number that was written with writeNumber().
+     *
+     * @param in Stream to read from.
+     * @param copy Where the bytes of the number are copied to.
+     * @return The number.
+     * @throws IOException If the stream ends.
+     */
+    private static int readNumber(DataInputStream in, ByteArrayOutputStream copy)
+    throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            copy.write(b);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    /**
+     * Sets the size of the pages. Lines are only journaled once it is known.
+     *
+     * @param size Size of the pages.
+     */
+    public synchronized void setSize(Dimension size) {
+        if (this.size == null && size != null) {
+            this.size = new Dimension(size);
+        }
+    }
+
+    /**
+     * Writes a whole buffer to the channel.
+     *
+     * @param out Channel to write to.
+     * @param buffer Data to write.
+     * @throws IOException If the channel cannot be written.
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buffer)
+    throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the header with the marker and the size of the pages.
+     *
+     * @param out Channel to write to.
+     * @throws IOException If the channel cannot be written.
+     */
+    private void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        synchronized (this) {
+            header.putInt(MAGIC);
+            header.putInt(size.width);
+            header.putInt(size.height);
+        }
+        header.flip();
+        writeFully(out, header);
+    }
+
+    /**
+     * Writes a non-negative number with seven bits per byte, like the
+     * StrokeList does.
+     *
+     * @param out Stream to write to.
+     * @param value Number to write.
+     */
+    private static void writeNumber(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Removes the lines of a page that are covered by its image on disk. The
+     * file is emptied if nothing else is left. Otherwise, the remaining lines
+     * are written to a new file, which then replaces the journal.
+     *
+     * @param pagenumber Page number.
+     * @param mark Number of records of the page that are covered.
+     */
+    void written(int pagenumber, long mark) {
+        synchronized (fileLock) {
+            byte[] remaining;
+            synchronized (this) {
+                PageRecords page = pages.get(pagenumber);
+                if (failed || page == null || mark <= page.removed) {
+                    return;
+                }
+                int covered = (int) Math.min(mark - page.removed,
+                        page.records.size());
+                page.records.subList(0, covered).clear();
+                page.removed = mark;
+
+                // Everything that is still needed goes into the new file,
+                // including the records that were not written yet.
+                ByteArrayOutputStream all = new ByteArrayOutputStream();
+                for (PageRecords other : pages.values()) {
+                    for (byte[] record : other.records) {
+                        all.write(record, 0, record.length);
+                    }
+                }
+                pending.reset();
+                remaining = all.toByteArray();
+            }
+
+            try {
+                if (remaining.length == 0) {
+                    getChannel().truncate(0);
+                    channel.force(false);
+                    return;
+                }
+
+                File tempfile = new File(file.getParentFile(),
+                        file.getName() + ".tmp");
+                FileChannel out = FileChannel.open(tempfile.toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    writeHeader(out);
+                    writeFully(out, ByteBuffer.wrap(remaining));
+                    out.force(false);
+                }
+                finally {
+                    out.close();
+                }
+
+                closeChannel();
+                try {
+                    Files.move(tempfile.toPath(), file.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempfile.toPath(), file.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Every line of a page as vectors. A line is kept as its kind, its width and
+ * its points, where every point after the first one is stored as the
+ * difference to the one before. The numbers are written with as few bytes as
+ * needed, so that a typical segment of a line takes two bytes.
+ *
+ * The list only grows. A snapshot shares the data with the list until the
+ * list grows again, so that it can be handed to another thread cheaply.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class StrokeList {
+    /**
+     * Marker at the beginning of the file.
+     */
+    private static final int MAGIC = 0x4a535631;
+
+    /**
+     * Suffix of the files that hold the vectors of a page.
+     */
+    private static final String SUFFIX = ".strokes";
+
+    /**
+     * Encoded lines.
+     */
+    private byte[] data;
+
+    /**
+     * Height of the page the points refer to.
+     */
+    private int height;
+
+    /**
+     * Number of used bytes in data.
+     */
+    private int length;
+
+    /**
+     * Whether data is shared with a snapshot and has to be copied before it
+     * is changed.
+     */
+    private boolean shared;
+
+    /**
+     * Number of lines in the list.
+     */
+    private int strokeCount;
+
+    /**
+     * Width of the page the points refer to.
+     */
+    private int width;
+
+    /**
+     * Creates an empty list for a page of the given size.
+     *
+     * @param width Width of the page.
+     * @param height Height of the page.
+     */
+    public StrokeList(int width, int height) {
+        this(width, height, new byte[256], 0, 0);
+    }
+
+    /**
+     * Creates a list with the given encoded lines.
+     *
+     * @param width Width of the page.
+     * @param height Height of the page.
+     * @param data Encoded lines.
+     * @param length Number of used bytes.
+     * @param strokeCount Number of lines.
+     */
+    private StrokeList(int width, int height, byte[] data, int length,
+            int strokeCount) {
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.length = length;
+        this.strokeCount = strokeCount;
+    }
+
+    /**
+     * Adds a line. Every part of the shape that starts with a move becomes a
+     * line of its own, curves are flattened.
+     *
+     * @param line Line to add.
+     * @param erase Whether the line is erased.
+     * @param strokeWidth Width of the pen or eraser.
+     */
+    public void add(Shape line, boolean erase, int strokeWidth) {
+        int[] points = new int[16];
+        int count = 0;
+        float[] coords = new float[6];
+
+        PathIterator it = line.getPathIterator(null, 0.5);
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO && count > 0) {
+                addStroke(points, count, erase, strokeWidth);
+                count = 0;
+            }
+            if (type != PathIterator.SEG_CLOSE) {
+                if (count + 2 > points.length) {
+                    points = Arrays.copyOf(points, 2 * points.length);
+                }
+                points[count++] = Math.round(coords[0]);
+                points[count++] = Math.round(coords[1]);
+            }
+            it.next();
+        }
+        if (count > 0) {
+            addStroke(points, count, erase, strokeWidth);
+        }
+    }
+
+    /**
+     * Encodes a single line.
+     *
+     * @param points Coordinates, x and y in turns.
+     * @param count Number of used coordinates.
+     * @param erase Whether the line is erased.
+     * @param strokeWidth Width of the pen or eraser.
+     */
+    private void addStroke(int[] points, int count, boolean erase,
+            int strokeWidth) {
+        // Every number takes at most five bytes.
+        ensureCapacity(1 + 5 * (count + 2));
+
+        data[length++] = (byte)(erase ? 1 : 0);
+        writeNumber(strokeWidth);
+        writeNumber(count / 2);
+
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < count; i += 2) {
+            writeNumber(zigzag(points[i] - lastX));
+            writeNumber(zigzag(points[i + 1] - lastY));
+            lastX = points[i];
+            lastY = points[i + 1];
+        }
+        strokeCount++;
+    }
+
+    /**
+     * Writes the encoded lines without any header, for instance into a
+     * journal.
+     *
+     * @param out Stream to write to.
+     */
+    void copyData(ByteArrayOutputStream out) {
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Makes room for the given number of bytes, copying the data if it is
+     * shared with a snapshot.
+     *
+     * @param bytes Number of bytes to add.
+     */
+    private void ensureCapacity(int bytes) {
+        if (shared || length + bytes > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length,
+                        Math.max(2 * data.length, length + bytes)));
+            shared = false;
+        }
+    }
+
+    /**
+     * Creates a list from encoded lines that were written with copyData().
+     *
+     * @param width Width of the page.
+     * @param height Height of the page.
+     * @param data Encoded lines.
+     * @param strokeCount Number of lines.
+     * @return The list, or null if the data is broken.
+     */
+    static StrokeList fromData(int width, int height, byte[] data,
+            int strokeCount) {
+        StrokeList list = new StrokeList(width, height, data, data.length,
+                strokeCount);
+        if (width <= 0 || height <= 0 || strokeCount < 0 || !list.isValid()) {
+            return null;
+        }
+        list.shared = true;
+        return list;
+    }
+
+    /**
+     * Returns the file that holds the vectors for the given page image.
+     *
+     * @param imagefile File of the page image.
+     * @return File for the vectors.
+     */
+    public static File getFile(File imagefile) {
+        String name = imagefile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(imagefile.getParentFile(), name + SUFFIX);
+    }
+
+    /**
+     * Returns the height of the page the points refer to.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes of the encoded lines.
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes the list takes up in memory.
+     *
+     * @return Bytes in memory.
+     */
+    public long getMemoryBytes() {
+        return data.length;
+    }
+
+    /**
+     * Returns the number of lines in the list.
+     */
+    public int getStrokeCount() {
+        return strokeCount;
+    }
+
+    /**
+     * Returns the width of the page the points refer to.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Checks whether the encoded lines end exactly where the data ends.
+     *
+     * @return Whether the data can be drawn.
+     */
+    private boolean isValid() {
+        int[] position = {0};
+        try {
+            for (int i = 0; i < strokeCount; i++) {
+                position[0]++;
+                readNumber(position);
+                int count = readNumber(position);
+                if (count < 0) {
+                    return false;
+                }
+                for (int j = 0; j < 2 * count && position[0] <= length; j++) {
+                    readNumber(position);
+                }
+                if (position[0] > length) {
+                    return false;
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+        return position[0] == length;
+    }
+
+    /**
+     * Reads a list that was written with write().
+     *
+     * @param in Stream to read from.
+     * @return The list.
+     * @throws IOException If the stream cannot be read or holds no list.
+     */
+    public static StrokeList read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a stroke file.");
+        }
+        int width = dataIn.readInt();
+        int height = dataIn.readInt();
+        int strokeCount = dataIn.readInt();
+        int length = dataIn.readInt();
+        if (width <= 0 || height <= 0 || strokeCount < 0 || length < 0) {
+            throw new IOException("Invalid stroke file.");
+        }
+        byte[] data = new byte[Math.max(length, 16)];
+        dataIn.readFully(data, 0, length);
+        StrokeList list = new StrokeList(width, height, data, length,
+                strokeCount);
+        if (!list.isValid()) {
+            throw new IOException("Invalid stroke file.");
+        }
+        return list;
+    }
+
+    /**
+     * Draws all lines onto the given image. The points are scaled to the size
+     * of the image, so that the page is drawn crisply at any size.
+     *
+     * @param target Image to draw on.
+     * @param foreground Color to draw with.
+     * @param background Color to erase with.
+     */
+    public void render(TiledImage target, Color foreground, Color background) {
+        double scaleX = (double) target.getWidth() / width;
+        double scaleY = (double) target.getHeight() / height;
+        double scaleWidth = Math.sqrt(scaleX * scaleY);
+
+        int[] position = {0};
+        for (int i = 0; i < strokeCount; i++) {
+            boolean erase = data[position[0]++] == 1;
+            int strokeWidth = Math.max(1, (int) Math.round(
+                        readNumber(position) * scaleWidth));
+            Path2D path = readPath(position, scaleX, scaleY);
+
+            Stroke stroke = BufferedImageWrapper.createStroke(strokeWidth);
+            target.drawLine(path, stroke, erase ? background : foreground,
+                    BufferedImageWrapper.getBounds(path, strokeWidth));
+        }
+    }
+
+    /**
+     * Reads the points of a line.
+     *
+     * @param position Position of the number of points, which is moved past
+     * the line.
+     * @param scaleX Factor for the x coordinates.
+     * @param scaleY Factor for the y coordinates.
+     * @return The line.
+     */
+    private Path2D readPath(int[] position, double scaleX, double scaleY) {
+        int count = readNumber(position);
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, count);
+        int x = 0;
+        int y = 0;
+        for (int j = 0; j < count; j++) {
+            x += unzigzag(readNumber(position));
+            y += unzigzag(readNumber(position));
+            if (j == 0) {
+                path.moveTo(x * scaleX, y * scaleY);
+            }
+            else {
+                path.lineTo(x * scaleX, y * scaleY);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Reads a number that was written with writeNumber().
+     *
+     * @param position Position to read at, which is moved past the number.
+     * @return The number.
+     */
+    private int readNumber(int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Draws all lines onto the given sheet like the user would, so that they
+     * end up in its image and its vectors. The lines are scaled to the size
+     * of the sheet and drawn with the width they were recorded with.
+     *
+     * @param sheet Sheet to draw on.
+     */
+    void replay(NoteSheet sheet) {
+        double scaleX = (double) sheet.getNoteSize().width / width;
+        double scaleY = (double) sheet.getNoteSize().height / height;
+        double scaleWidth = Math.sqrt(scaleX * scaleY);
+
+        int[] position = {0};
+        for (int i = 0; i < strokeCount; i++) {
+            boolean erase = data[position[0]++] == 1;
+            int strokeWidth = Math.max(1, (int) Math.round(
+                        readNumber(position) * scaleWidth));
+            Path2D path = readPath(position, scaleX, scaleY);
+            if (erase) {
+                sheet.eraseLine(path, strokeWidth);
+            }
+            else {
+                sheet.drawLine(path, strokeWidth);
+            }
+        }
+    }
+
+    /**
+     * Returns a list that keeps the lines added so far, while this list can
+     * go on growing.
+     *
+     * @return Snapshot of the list.
+     */
+    public StrokeList snapshot() {
+        StrokeList copy = new StrokeList(width, height, data, length,
+                strokeCount);
+        shared = true;
+        copy.shared = true;
+        return copy;
+    }
+
+    /**
+     * Maps a number from the zigzag encoding back.
+     *
+     * @param value Encoded number.
+     * @return Signed number.
+     */
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the list to the given stream.
+     *
+     * @param out Stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(width);
+        dataOut.writeInt(height);
+        dataOut.writeInt(strokeCount);
+        dataOut.writeInt(length);
+        dataOut.write(data, 0, length);
+        dataOut.flush();
+    }
+
+    /**
+     * Writes a non-negative number with seven bits per byte. The highest bit
+     * tells whether another byte follows.
+     *
+     * @param value Number to write.
+     */
+    private void writeNumber(int value) {
+        while ((value & ~0x7f) != 0) {
+            data[length++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Maps a signed number to a non-negative one, so that small differences
+     * in both directions take few bytes.
+     *
+     * @param value Signed number.
+     * @return Encoded number.
+     */
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
@@ -0,0 +1,993 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.ImageObserver;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Vector;
+
+import jscribble.notebook.writeoutThread.PngEncoder;
+
+/**
+ * A grayscale page that is stored in square tiles. Tiles that only contain
+ * the background color are not stored at all.
+ *
+ * Taking a snapshot is cheap since the snapshot shares the tiles with the
+ * page. A shared tile is copied before it is drawn on, so the snapshot never
+ * changes and can be encoded while the user keeps drawing.
+ *
+ * For each row of tiles, the page also remembers the encoded PNG data from
+ * the last time it was written. Only the rows that changed since need to be
+ * encoded again.
+ *
+ * A page can also store its tiles with only one, two or four bits per
+ * pixel. The gray levels are then spread evenly between the foreground and
+ * the background color. Lines are drawn with antialiasing onto an eight bit
+ * copy of the touched area, and each gray value is then rounded to the
+ * nearest level.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class TiledImage implements RenderedImage {
+    /**
+     * Width and height of a single tile.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Color model of the page and its tiles.
+     */
+    private static final ColorModel colorModel =
+        new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+
+    /**
+     * Sample model of a single tile.
+     */
+    private static final SampleModel sampleModel =
+        colorModel.createCompatibleSampleModel(TILE_SIZE, TILE_SIZE);
+
+    /**
+     * Width of the page in pixels.
+     */
+    private final int width;
+
+    /**
+     * Height of the page in pixels.
+     */
+    private final int height;
+
+    /**
+     * Number of tile columns.
+     */
+    private final int columns;
+
+    /**
+     * Number of tile rows.
+     */
+    private final int rows;
+
+    /**
+     * Background color of the page.
+     */
+    private final Color background;
+
+    /**
+     * Gray value of the background color.
+     */
+    private final byte backgroundValue;
+
+    /**
+     * Bits per pixel in the stored tiles.
+     */
+    private final int bits;
+
+    /**
+     * Gray value of each level in packed tiles, from the foreground to the
+     * background. Null if the tiles use eight bits.
+     */
+    private final byte[] levels;
+
+    /**
+     * The level that each gray value is rounded to. Null if the tiles use
+     * eight bits.
+     */
+    private final byte[] quantized;
+
+    /**
+     * Color model of packed tiles.
+     */
+    private final IndexColorModel tileColorModel;
+
+    /**
+     * Eight bit tile that lines are drawn on before they are put into packed
+     * tiles. It is shared by all pages.
+     */
+    private static BufferedImage scratch;
+
+    /**
+     * Graphics context of the scratch tile.
+     */
+    private static Graphics2D scratchGraphics;
+
+    /**
+     * The tiles, row by row. Tiles that only contain the background are null.
+     */
+    private BufferedImage[] tiles;
+
+    /**
+     * Whether a tile is also used by a snapshot and needs to be copied before
+     * it is drawn on.
+     */
+    private boolean[] shared;
+
+    /**
+     * Graphics context for each tile, created when needed.
+     */
+    private Graphics2D[] graphics;
+
+    /**
+     * How often each row of tiles was changed.
+     */
+    private int[] rowVersions;
+
+    /**
+     * Encoded PNG data for each row of tiles. A row is null if it was changed
+     * after it was encoded.
+     */
+    private PngEncoder.Band[] encodedRows;
+
+    /**
+     * The page this snapshot was taken from, null if this is not a snapshot.
+     */
+    private TiledImage source;
+
+    /**
+     * A tile that only contains the background, for getTile().
+     */
+    private Raster backgroundTile;
+
+    /**
+     * Creates an empty page.
+     *
+     * @param width Width in pixels.
+     * @param height Height in pixels.
+     * @param background Background color.
+     */
+    public TiledImage(int width, int height, Color background) {
+        this(width, height, background, background, 8);
+    }
+
+    /**
+     * Creates an empty page with the given bits per pixel.
+     *
+     * @param width Width in pixels.
+     * @param height Height in pixels.
+     * @param background Background color.
+     * @param foreground Foreground color, the darkest level of packed tiles.
+     * @param bits Bits per pixel, 1, 2, 4 or 8.
+     */
+    public TiledImage(int width, int height, Color background,
+            Color foreground, int bits) {
+        if (bits != 1 && bits != 2 && bits != 4 && bits != 8) {
+            throw new IllegalArgumentException(String.format(
+                    "Unsupported bits per pixel: %d", bits));
+        }
+
+        this.width = width;
+        this.height = height;
+        this.background = background;
+
+        columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        tiles = new BufferedImage[columns * rows];
+        shared = new boolean[tiles.length];
+        graphics = new Graphics2D[tiles.length];
+        rowVersions = new int[rows];
+        encodedRows = new PngEncoder.Band[rows];
+
+        this.bits = bits;
+        backgroundValue = (byte) getGrayValue(background);
+
+        if (bits == 8) {
+            levels = null;
+            quantized = null;
+            tileColorModel = null;
+            return;
+        }
+
+        int foregroundValue = getGrayValue(foreground);
+        int backgroundGray = backgroundValue & 0xff;
+        int maxLevel = (1 << bits) - 1;
+
+        levels = new byte[maxLevel + 1];
+        for (int level = 0; level <= maxLevel; level++) {
+            levels[level] = (byte) Math.round(foregroundValue +
+                    (backgroundGray - foregroundValue) * level /
+                    (double) maxLevel);
+        }
+
+        quantized = new byte[256];
+        for (int value = 0; value < quantized.length; value++) {
+            long level = maxLevel;
+            if (backgroundGray != foregroundValue) {
+                level = Math.round((value - foregroundValue) * maxLevel /
+                        (double)(backgroundGray - foregroundValue));
+            }
+            quantized[value] = (byte) Math.max(0, Math.min(maxLevel, level));
+        }
+
+        tileColorModel = new IndexColorModel(bits, levels.length, levels,
+                levels, levels);
+    }
+
+    /**
+     * Creates a page from the given image. Parts of the image that only
+     * contain the background are not stored.
+     *
+     * @param image Image to copy.
+     * @param background Background color.
+     */
+    public TiledImage(BufferedImage image, Color background) {
+        this(image, background, background, 8);
+    }
+
+    /**
+     * Creates a page with the given bits per pixel from the given image.
+     * Parts of the image that only contain the background are not stored.
+     *
+     * @param image Image to copy.
+     * @param background Background color.
+     * @param foreground Foreground color, the darkest level of packed tiles.
+     * @param bits Bits per pixel, 1, 2, 4 or 8.
+     */
+    public TiledImage(BufferedImage image, Color background,
+            Color foreground, int bits) {
+        this(image.getWidth(), image.getHeight(), background, foreground,
+                bits);
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                BufferedImage tile = createGrayTile();
+                Graphics2D g = tile.createGraphics();
+                g.drawImage(image, -column * TILE_SIZE, -row * TILE_SIZE,
+                        null);
+                g.dispose();
+
+                if (levels != null) {
+                    tile = pack(tile);
+                }
+
+                if (!isBackground(tile)) {
+                    tiles[row * columns + column] = tile;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot of the given page.
+     *
+     * @param source Page to take the snapshot of.
+     */
+    private TiledImage(TiledImage source) {
+        width = source.width;
+        height = source.height;
+        columns = source.columns;
+        rows = source.rows;
+        background = source.background;
+        backgroundValue = source.backgroundValue;
+        bits = source.bits;
+        levels = source.levels;
+        quantized = source.quantized;
+        tileColorModel = source.tileColorModel;
+
+        tiles = source.tiles.clone();
+        rowVersions = source.rowVersions.clone();
+        encodedRows = source.encodedRows.clone();
+        this.source = source;
+    }
+
+    /**
+     * Creates a page with the same content that can be drawn on, for instance
+     * from a snapshot that waits to be written. The tiles are shared until
+     * either page draws on them.
+     *
+     * @return New page.
+     */
+    public synchronized TiledImage copy() {
+        if (shared != null) {
+            Arrays.fill(shared, true);
+        }
+
+        TiledImage copy = new TiledImage(this);
+        copy.source = null;
+        copy.shared = new boolean[tiles.length];
+        Arrays.fill(copy.shared, true);
+        copy.graphics = new Graphics2D[tiles.length];
+        return copy;
+    }
+
+    /**
+     * Copies the whole page.
+     *
+     * @param raster Raster to copy into, a new one if null.
+     * @return Raster with the page.
+     */
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = colorModel.createCompatibleWritableRaster(width, height);
+        }
+        raster.setRect(getData(raster.getBounds()));
+        return raster;
+    }
+
+    /**
+     * Creates an eight bit tile filled with the background color.
+     *
+     * @return New tile.
+     */
+    private BufferedImage createGrayTile() {
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = tile.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        g.dispose();
+        return tile;
+    }
+
+    /**
+     * Creates a tile in the storage format, filled with the background
+     * color.
+     *
+     * @return New tile.
+     */
+    private BufferedImage createTile() {
+        if (levels == null) {
+            return createGrayTile();
+        }
+
+        // The background is the highest level, which has all bits set.
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                BufferedImage.TYPE_BYTE_BINARY, tileColorModel);
+        Arrays.fill(((DataBufferByte) tile.getRaster().getDataBuffer())
+                .getData(), (byte) 0xff);
+        return tile;
+    }
+
+    /**
+     * Draws a line onto the page. Only the tiles within the given bounds are
+     * touched. Drawing with the background color onto a tile that does not
+     * exist is skipped.
+     *
+     * @param line Line to draw.
+     * @param stroke Stroke to draw with.
+     * @param color Color to draw with.
+     * @param bounds Area that is changed by the line.
+     */
+    public void drawLine(Shape line, Stroke stroke, Color color,
+            Rectangle bounds) {
+        if (source != null) {
+            throw new IllegalStateException("A snapshot cannot be drawn on.");
+        }
+
+        bounds = bounds.intersection(new Rectangle(0, 0, width, height));
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        boolean isBackground = color.equals(background);
+
+        for (int row = bounds.y / TILE_SIZE;
+                row <= (bounds.y + bounds.height - 1) / TILE_SIZE; row++) {
+            for (int column = bounds.x / TILE_SIZE;
+                    column <= (bounds.x + bounds.width - 1) / TILE_SIZE;
+                    column++) {
+                int index = row * columns + column;
+
+                if (tiles[index] == null) {
+                    if (isBackground) {
+                        continue;
+                    }
+                    tiles[index] = createTile();
+                }
+                else if (shared[index]) {
+                    BufferedImage copy = createTile();
+                    copy.setData(tiles[index].getRaster());
+                    tiles[index] = copy;
+                    graphics[index] = null;
+                }
+                shared[index] = false;
+
+                if (levels == null) {
+                    Graphics2D g = getTileGraphics(index);
+                    g.setColor(color);
+                    g.setStroke(stroke);
+                    g.draw(line);
+                }
+                else {
+                    drawPacked(index, line, stroke, color, bounds);
+                }
+
+                markChanged(row);
+            }
+        }
+    }
+
+    /**
+     * Draws a line onto a packed tile. The touched part of the tile is
+     * unpacked onto the scratch tile, the line is drawn there, and the result
+     * is rounded to the levels again.
+     *
+     * @param index Index of the tile.
+     * @param line Line to draw.
+     * @param stroke Stroke to draw with.
+     * @param color Color to draw with.
+     * @param bounds Area that is changed by the line.
+     */
+    private void drawPacked(int index, Shape line, Stroke stroke,
+            Color color, Rectangle bounds) {
+        int left = (index % columns) * TILE_SIZE;
+        int top = (index / columns) * TILE_SIZE;
+        Rectangle region = bounds.intersection(new Rectangle(left, top,
+                TILE_SIZE, TILE_SIZE));
+        int x = region.x - left;
+        int y = region.y - top;
+
+        WritableRaster packed = tiles[index].getRaster();
+        int[] samples = packed.getSamples(x, y, region.width, region.height,
+                0, (int[]) null);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = levels[samples[i]] & 0xff;
+        }
+
+        synchronized (TiledImage.class) {
+            if (scratch == null) {
+                scratch = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                        BufferedImage.TYPE_BYTE_GRAY);
+                scratchGraphics = scratch.createGraphics();
+                scratchGraphics.setRenderingHints(new
+                        RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                                RenderingHints.VALUE_ANTIALIAS_ON));
+            }
+
+            WritableRaster gray = scratch.getRaster();
+            gray.setSamples(x, y, region.width, region.height, 0, samples);
+
+            Graphics2D g = (Graphics2D) scratchGraphics.create();
+            g.translate(-left, -top);
+            g.clip(region);
+            g.setColor(color);
+            g.setStroke(stroke);
+            g.draw(line);
+            g.dispose();
+
+            gray.getSamples(x, y, region.width, region.height, 0, samples);
+        }
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = quantized[samples[i]];
+        }
+        packed.setSamples(x, y, region.width, region.height, 0, samples);
+    }
+
+    /**
+     * Returns the number of tiles that are actually stored.
+     *
+     * @return Number of non-background tiles.
+     */
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for (BufferedImage tile : tiles) {
+            if (tile != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the gray value of the background.
+     *
+     * @return Background gray value.
+     */
+    public byte getBackgroundValue() {
+        return backgroundValue;
+    }
+
+    /**
+     * Returns the number of bits per pixel in the stored tiles.
+     *
+     * @return Bits per pixel.
+     */
+    public int getBitsPerPixel() {
+        return bits;
+    }
+
+    /**
+     * Color model of the page.
+     */
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    /**
+     * Copies the whole page.
+     */
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * Copies the given region of the page.
+     *
+     * @param rect Region to copy.
+     * @return Copy of the region.
+     */
+    @Override
+    public Raster getData(Rectangle rect) {
+        rect = rect.intersection(new Rectangle(0, 0, width, height));
+        WritableRaster result = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(
+                    Math.max(1, rect.width), Math.max(1, rect.height)),
+                rect.getLocation());
+
+        byte[] line = new byte[width];
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            getRow(y, line);
+            result.setDataElements(rect.x, y, rect.width, 1,
+                    Arrays.copyOfRange(line, rect.x, rect.x + rect.width));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the encoded data for the given row of tiles, if it did not
+     * change since it was encoded.
+     *
+     * @param row Row of tiles.
+     * @return Encoded data or null.
+     */
+    public synchronized PngEncoder.Band getEncodedRow(int row) {
+        return encodedRows[row];
+    }
+
+    /**
+     * Determines the gray value a color has on an eight bit page.
+     *
+     * @param color Color to convert.
+     * @return Gray value.
+     */
+    public static int getGrayValue(Color color) {
+        BufferedImage sample = new BufferedImage(1, 1,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = sample.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, 1, 1);
+        g.dispose();
+        return sample.getRaster().getSample(0, 0, 0);
+    }
+
+    /**
+     * Height of the page.
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes the stored tiles take up.
+     *
+     * @return Bytes of pixel data.
+     */
+    public long getMemoryBytes() {
+        return (long) getAllocatedTileCount() * TILE_SIZE * TILE_SIZE *
+               bits / 8;
+    }
+
+    /**
+     * Tiles are numbered from zero.
+     */
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    /**
+     * Tiles are numbered from zero.
+     */
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    /**
+     * The page starts at the origin.
+     */
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    /**
+     * The page starts at the origin.
+     */
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    /**
+     * Number of tile columns.
+     */
+    @Override
+    public int getNumXTiles() {
+        return columns;
+    }
+
+    /**
+     * Number of tile rows.
+     */
+    @Override
+    public int getNumYTiles() {
+        return rows;
+    }
+
+    /**
+     * There are no properties.
+     */
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    /**
+     * There are no properties.
+     */
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    /**
+     * Copies a single row of pixels into the given array.
+     *
+     * @param y Row to copy.
+     * @param line Array with at least the width of the page.
+     */
+    public void getRow(int y, byte[] line) {
+        int row = y / TILE_SIZE;
+        for (int column = 0; column < columns; column++) {
+            int x = column * TILE_SIZE;
+            int length = Math.min(TILE_SIZE, width - x);
+            BufferedImage tile = tiles[row * columns + column];
+            if (tile == null) {
+                Arrays.fill(line, x, x + length, backgroundValue);
+            }
+            else if (levels != null) {
+                int[] samples = tile.getRaster().getSamples(0,
+                        y - row * TILE_SIZE, length, 1, 0, (int[]) null);
+                for (int i = 0; i < length; i++) {
+                    line[x + i] = levels[samples[i]];
+                }
+            }
+            else {
+                byte[] part = (byte[]) tile.getRaster().getDataElements(0,
+                        y - row * TILE_SIZE, length, 1, null);
+                System.arraycopy(part, 0, line, x, length);
+            }
+        }
+    }
+
+    /**
+     * Sample model of a single tile.
+     */
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    /**
+     * There are no sources.
+     */
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    /**
+     * Returns the raster of the given tile. Tiles that are not stored are
+     * returned as a background tile.
+     *
+     * @param tileX Column of the tile.
+     * @param tileY Row of the tile.
+     * @return Raster of the tile, located at its place in the page.
+     */
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        BufferedImage tile = tiles[tileY * columns + tileX];
+        Raster raster;
+        if (tile == null) {
+            if (backgroundTile == null) {
+                backgroundTile = createGrayTile().getRaster();
+            }
+            raster = backgroundTile;
+        }
+        else if (levels != null) {
+            int[] samples = tile.getRaster().getSamples(0, 0, TILE_SIZE,
+                    TILE_SIZE, 0, (int[]) null);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = levels[samples[i]] & 0xff;
+            }
+            WritableRaster expanded = Raster.createWritableRaster(
+                    sampleModel, null);
+            expanded.setSamples(0, 0, TILE_SIZE, TILE_SIZE, 0, samples);
+            raster = expanded;
+        }
+        else {
+            raster = tile.getRaster();
+        }
+        return raster.createTranslatedChild(tileX * TILE_SIZE,
+                tileY * TILE_SIZE);
+    }
+
+    /**
+     * Creates the graphics context for a tile. It is moved so that the page
+     * coordinates can be used.
+     *
+     * @param index Index of the tile.
+     * @return Graphics context.
+     */
+    private Graphics2D getTileGraphics(int index) {
+        if (graphics[index] == null) {
+            Graphics2D g = tiles[index].createGraphics();
+            g.setRenderingHints(new
+                    RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                            RenderingHints.VALUE_ANTIALIAS_ON));
+            g.translate(-(index % columns) * TILE_SIZE,
+                    -(index / columns) * TILE_SIZE);
+            graphics[index] = g;
+        }
+        return graphics[index];
+    }
+
+    /**
+     * Tiles start at the origin.
+     */
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    /**
+     * Tiles start at the origin.
+     */
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    /**
+     * Height of a tile.
+     */
+    @Override
+    public int getTileHeight() {
+        return TILE_SIZE;
+    }
+
+    /**
+     * Width of a tile.
+     */
+    @Override
+    public int getTileWidth() {
+        return TILE_SIZE;
+    }
+
+    /**
+     * Width of the page.
+     */
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Checks whether a tile only contains the background color.
+     *
+     * @param tile Tile to check.
+     * @return Whether there is nothing on the tile.
+     */
+    private boolean isBackground(BufferedImage tile) {
+        Raster raster = tile.getRaster();
+        if (levels != null) {
+            // The background is the highest level, which has all bits set.
+            for (byte value : ((DataBufferByte) raster.getDataBuffer())
+                    .getData()) {
+                if (value != (byte) 0xff) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] line = new byte[raster.getWidth()];
+        for (int y = 0; y < raster.getHeight(); y++) {
+            raster.getDataElements(0, y, line.length, 1, line);
+            for (byte value : line) {
+                if (value != backgroundValue) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notes that a row of tiles has changed and needs to be encoded again.
+     *
+     * @param row Row of tiles.
+     */
+    private synchronized void markChanged(int row) {
+        rowVersions[row]++;
+        encodedRows[row] = null;
+    }
+
+    /**
+     * Stores the encoded data for a row of tiles. A snapshot passes it on to
+     * its page, which only keeps it if the row did not change in the
+     * meantime.
+     *
+     * @param row Row of tiles.
+     * @param band Encoded data.
+     */
+    public void offerEncodedRow(int row, PngEncoder.Band band) {
+        synchronized (this) {
+            encodedRows[row] = band;
+        }
+
+        if (source != null) {
+            source.acceptEncodedRow(row, rowVersions[row], band);
+        }
+    }
+
+    /**
+     * Stores the encoded data for a row of tiles if the row is still at the
+     * given version.
+     *
+     * @param row Row of tiles.
+     * @param version Version of the row that was encoded.
+     * @param band Encoded data.
+     */
+    private synchronized void acceptEncodedRow(int row, int version,
+            PngEncoder.Band band) {
+        if (rowVersions[row] == version) {
+            encodedRows[row] = band;
+        }
+    }
+
+    /**
+     * Rounds an eight bit tile to the levels of a packed tile.
+     *
+     * @param gray Eight bit tile.
+     * @return Packed tile.
+     */
+    private BufferedImage pack(BufferedImage gray) {
+        int[] samples = gray.getRaster().getSamples(0, 0, TILE_SIZE,
+                TILE_SIZE, 0, (int[]) null);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = quantized[samples[i]];
+        }
+
+        BufferedImage tile = createTile();
+        tile.getRaster().setSamples(0, 0, TILE_SIZE, TILE_SIZE, 0, samples);
+        return tile;
+    }
+
+    /**
+     * Draws the page onto the given graphics context. Only the tiles within
+     * the clip are drawn.
+     *
+     * @param g Graphics context to draw on.
+     * @param io Observer for the drawing.
+     */
+    public void paint(Graphics2D g, ImageObserver io) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, width, height);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = column * TILE_SIZE;
+                int y = row * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, width - x);
+                int tileHeight = Math.min(TILE_SIZE, height - y);
+
+                if (!clip.intersects(x, y, tileWidth, tileHeight)) {
+                    continue;
+                }
+
+                BufferedImage tile = tiles[row * columns + column];
+                if (tile == null) {
+                    g.setColor(background);
+                    g.fillRect(x, y, tileWidth, tileHeight);
+                }
+                else {
+                    g.drawImage(tile, x, y, x + tileWidth, y + tileHeight,
+                            0, 0, tileWidth, tileHeight, io);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the page. Tiles that only contain the background
+     * after erasing are dropped first.
+     *
+     * @return Snapshot that does not change any more.
+     */
+    public synchronized TiledImage snapshot() {
+        for (int index = 0; index < tiles.length; index++) {
+            if (tiles[index] != null && !shared[index] &&
+                    isBackground(tiles[index])) {
+                tiles[index] = null;
+                graphics[index] = null;
+            }
+        }
+
+        Arrays.fill(shared, true);
+        return new TiledImage(this);
+    }
+
+    /**
+     * Composes the whole page into a single image.
+     *
+     * @return New image with the page.
+     */
+    public BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        paint(g, null);
+        g.dispose();
+        return image;
+    }
+}
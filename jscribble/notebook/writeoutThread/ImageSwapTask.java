@@ -19,9 +19,13 @@
 
 package jscribble.notebook.writeoutThread;
 
-import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
 
+import jscribble.notebook.NoteBookManifest;
+import jscribble.notebook.StrokeJournal;
+import jscribble.notebook.StrokeList;
+
 /**
  * A set of an image and a filename that is supposed to be loaded or saved to
  * disk.
@@ -29,25 +33,95 @@ import java.io.File;
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class ImageSwapTask {
+    /**
+     * The lines in the journal that the image covers, if any.
+     */
+    private StrokeJournal.Checkpoint checkpoint;
+
     /**
      * The image that is to be saved.
      */
-    private BufferedImage img;
+    private RenderedImage img;
+
+    /**
+     * The manifest of the NoteBook that the file belongs to, if any.
+     */
+    private NoteBookManifest manifest;
 
     /**
      * The file the image is to be saved to.
      */
     private File outfile;
 
+    /**
+     * The lines of the image as vectors, if they are kept.
+     */
+    private StrokeList strokes;
+
     /**
      * A task for the WriteoutTread.
      *
      * @param img image to save
      * @param outfile file to save the image to
      */
-    public ImageSwapTask(BufferedImage img, File outfile) {
+    public ImageSwapTask(RenderedImage img, File outfile) {
+        this(img, outfile, null);
+    }
+
+    /**
+     * A task for the WriteoutTread that also updates the manifest of the
+     * NoteBook once the file is written.
+     *
+     * @param img image to save
+     * @param outfile file to save the image to
+     * @param manifest manifest to update, may be null
+     */
+    public ImageSwapTask(RenderedImage img, File outfile,
+            NoteBookManifest manifest) {
+        this(img, outfile, manifest, null);
+    }
+
+    /**
+     * A task for the WriteoutTread that also saves the lines of the image as
+     * vectors next to it.
+     *
+     * @param img image to save
+     * @param outfile file to save the image to
+     * @param manifest manifest to update, may be null
+     * @param strokes lines of the image, may be null
+     */
+    public ImageSwapTask(RenderedImage img, File outfile,
+            NoteBookManifest manifest, StrokeList strokes) {
+        this(img, outfile, manifest, strokes, null);
+    }
+
+    /**
+     * A task for the WriteoutTread that also removes the lines that the image
+     * covers from the journal once the file is safely on disk.
+     *
+     * @param img image to save
+     * @param outfile file to save the image to
+     * @param manifest manifest to update, may be null
+     * @param strokes lines of the image, may be null
+     * @param checkpoint lines in the journal covered by the image, may be null
+     */
+    public ImageSwapTask(RenderedImage img, File outfile,
+            NoteBookManifest manifest, StrokeList strokes,
+            StrokeJournal.Checkpoint checkpoint) {
         this.img = img;
         this.outfile = outfile;
+        this.manifest = manifest;
+        this.strokes = strokes;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Returns the lines in the journal that the image covers.
+     *
+     * @return the checkpoint, or null
+     */
+    public StrokeJournal.Checkpoint getCheckpoint() {
+        return checkpoint;
     }
 
     /**
@@ -55,10 +129,19 @@ public class ImageSwapTask {
      *
      * @return the image
      */
-    public BufferedImage getImg() {
+    public RenderedImage getImg() {
         return img;
     }
 
+    /**
+     * Returns the manifest that needs to know about the written file.
+     *
+     * @return the manifest, or null
+     */
+    public NoteBookManifest getManifest() {
+        return manifest;
+    }
+
     /**
      * Returns the file that the image is supposed to be written to.
      *
@@ -67,4 +150,13 @@ public class ImageSwapTask {
     public File getOutfile() {
         return outfile;
     }
+
+    /**
+     * Returns the lines of the image that are to be saved next to it.
+     *
+     * @return the lines, or null
+     */
+    public StrokeList getStrokes() {
+        return strokes;
+    }
 }
@@ -0,0 +1,117 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook.writeoutThread;
+
+import java.awt.image.RenderedImage;
+import java.util.concurrent.CountDownLatch;
+
+import jscribble.notebook.StrokeList;
+
+/**
+ * Handle for a file that is scheduled for writing. Tasks that supersede each
+ * other share one handle, so that waiting on it means waiting until the
+ * latest image of the file is on disk.
+ *
+ * Until then, the image that is going to be written can be taken from the
+ * handle, which spares readers the wait for the disk.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PendingWrite {
+    /**
+     * The latest task for the file.
+     */
+    private ImageSwapTask task;
+
+    /**
+     * Released once the task was written.
+     */
+    private CountDownLatch written = new CountDownLatch(1);
+
+    /**
+     * Creates a handle for the given task.
+     *
+     * @param task Task to write.
+     */
+    PendingWrite(ImageSwapTask task) {
+        this.task = task;
+    }
+
+    /**
+     * Marks the write as done and wakes up everyone who waits for it.
+     */
+    void finish() {
+        written.countDown();
+    }
+
+    /**
+     * Returns the image that is going to be written.
+     *
+     * @return The latest image for the file.
+     */
+    public synchronized RenderedImage getImg() {
+        return task.getImg();
+    }
+
+    /**
+     * Returns the lines of the image that is going to be written.
+     *
+     * @return The latest lines for the file, or null.
+     */
+    public synchronized StrokeList getStrokes() {
+        return task.getStrokes();
+    }
+
+    /**
+     * Returns the latest task for the file.
+     *
+     * @return Task to write.
+     */
+    synchronized ImageSwapTask getTask() {
+        return task;
+    }
+
+    /**
+     * Tells whether the write is done. It might have failed, though.
+     *
+     * @return Whether the file was written.
+     */
+    public boolean isDone() {
+        return written.getCount() == 0;
+    }
+
+    /**
+     * Replaces the task with a newer one for the same file.
+     *
+     * @param task Newer task.
+     */
+    synchronized void setTask(ImageSwapTask task) {
+        this.task = task;
+    }
+
+    /**
+     * Waits until the file was written.
+     *
+     * @throws InterruptedException If the waiting was interrupted.
+     */
+    public void waitFor() throws InterruptedException {
+        written.await();
+    }
+}
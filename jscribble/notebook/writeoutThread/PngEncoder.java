@@ -0,0 +1,850 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jscribble.notebook.writeoutThread;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import jscribble.helpers.Config;
+import jscribble.notebook.TiledImage;
+
+/**
+ * Writes a TiledImage as a grayscale PNG file.
+ *
+ * The image data is compressed for each row of tiles on its own. Every row
+ * of tiles starts with a fresh compressor and ends on a byte boundary, so the
+ * compressed rows can simply be put one after the other. The page keeps the
+ * compressed rows, and only the rows that changed since the last write need
+ * to be compressed again.
+ *
+ * The encoder looks at the gray values that are actually used and picks the
+ * smallest bit depth that stores them without loss. A page with just black
+ * and white is written with one bit per pixel, a page with a few shades gets
+ * a small palette. Rows with eight bits per pixel get the filter that
+ * promises the best compression, the others are not filtered at all.
+ *
+ * Antialiasing leaves edges in all the shades between the foreground and
+ * the background color, which would always need eight bits. The encoder can
+ * round the shades to a few levels between the two colors first, like the
+ * packed sheets do. With 16 levels and black on white, a page is written
+ * with four bits per pixel. Each shade is off by at most half a level, so
+ * this is only done if png_shade_levels asks for it.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PngEncoder {
+    /**
+     * Compressed data of a row of tiles.
+     */
+    public static class Band {
+        /**
+         * Raw deflate data, ending with a sync flush.
+         */
+        private final byte[] data;
+
+        /**
+         * Adler-32 checksum of the uncompressed data.
+         */
+        private final long adler;
+
+        /**
+         * Length of the uncompressed data.
+         */
+        private final long length;
+
+        /**
+         * Format the row was encoded in.
+         */
+        private final Format format;
+
+        /**
+         * Gray values used in the row, one bit per value.
+         */
+        private final long[] values;
+
+        /**
+         * Shade levels the values were rounded to, null if they were not.
+         */
+        private final byte[] shades;
+
+        /**
+         * Creates a new compressed band.
+         *
+         * @param data Compressed data.
+         * @param adler Checksum of the uncompressed data.
+         * @param length Length of the uncompressed data.
+         * @param format Format the data was encoded in.
+         * @param values Gray values used in the row.
+         * @param shades Shade levels the values were rounded to.
+         */
+        private Band(byte[] data, long adler, long length, Format format,
+                long[] values, byte[] shades) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+            this.format = format;
+            this.values = values;
+            this.shades = shades;
+        }
+    }
+
+    /**
+     * Pixel format of the PNG file.
+     */
+    private static class Format {
+        /**
+         * PNG color type, either gray or palette.
+         */
+        private final int colorType;
+
+        /**
+         * Bits per pixel.
+         */
+        private final int bitDepth;
+
+        /**
+         * The sample that is stored for each gray value.
+         */
+        private final byte[] samples;
+
+        /**
+         * Creates a new format.
+         *
+         * @param colorType PNG color type.
+         * @param bitDepth Bits per pixel.
+         * @param samples Sample for each gray value.
+         */
+        private Format(int colorType, int bitDepth, byte[] samples) {
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.samples = samples;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Format)) {
+                return false;
+            }
+            Format format = (Format) other;
+            return colorType == format.colorType &&
+                   bitDepth == format.bitDepth &&
+                   Arrays.equals(samples, format.samples);
+        }
+
+        /**
+         * Number of bytes in a row of the given width, without the filter
+         * type byte.
+         *
+         * @param width Width of the image.
+         * @return Bytes per row.
+         */
+        private int getRowBytes(int width) {
+            return (width * bitDepth + 7) / 8;
+        }
+
+        @Override
+        public int hashCode() {
+            return (colorType * 31 + bitDepth) * 31 + Arrays.hashCode(samples);
+        }
+
+        /**
+         * Whether the rows should be filtered. For palette images and bit
+         * depths below eight, filtering hardly ever pays off.
+         *
+         * @return Whether to filter.
+         */
+        private boolean isFiltered() {
+            return colorType == COLOR_TYPE_GRAY && bitDepth == 8;
+        }
+    }
+
+    /**
+     * The eight bytes every PNG file starts with.
+     */
+    private static final byte[] SIGNATURE = {
+        (byte) 137, 80, 78, 71, 13, 10, 26, 10
+    };
+
+    /**
+     * An empty, final deflate block which ends the compressed stream.
+     */
+    private static final byte[] FINAL_BLOCK = {3, 0};
+
+    /**
+     * Modulus of the Adler-32 checksum.
+     */
+    private static final long ADLER_BASE = 65521;
+
+    /**
+     * PNG color type for grayscale images.
+     */
+    private static final int COLOR_TYPE_GRAY = 0;
+
+    /**
+     * PNG color type for images with a palette.
+     */
+    private static final int COLOR_TYPE_PALETTE = 3;
+
+    /**
+     * PNG filter type that leaves the row as it is.
+     */
+    private static final int FILTER_NONE = 0;
+
+    /**
+     * PNG filter type that subtracts the pixel to the left.
+     */
+    private static final int FILTER_SUB = 1;
+
+    /**
+     * PNG filter type that subtracts the pixel above.
+     */
+    private static final int FILTER_UP = 2;
+
+    /**
+     * PNG filter type that subtracts the mean of the pixels to the left and
+     * above.
+     */
+    private static final int FILTER_AVERAGE = 3;
+
+    /**
+     * PNG filter type that subtracts the Paeth predictor.
+     */
+    private static final int FILTER_PAETH = 4;
+
+    /**
+     * Deflate level, from 0 to 9.
+     */
+    private final int level;
+
+    /**
+     * The level each gray value is rounded to, null to keep all of them.
+     */
+    private final byte[] shades;
+
+    /**
+     * Number of rows of tiles that were compressed.
+     */
+    private int encodedCount = 0;
+
+    /**
+     * Number of rows of tiles that could be taken from the page.
+     */
+    private int reusedCount = 0;
+
+    /**
+     * Creates a new encoder with the configured deflate level. If shade
+     * levels are configured, the shades are rounded between the configured
+     * colors.
+     */
+    public PngEncoder() {
+        this(Config.getInteger("png_deflate_level"),
+                Config.getInteger("png_shade_levels"),
+                Config.getSnapshot().notebookForegroundColor,
+                Config.getSnapshot().notebookBackgroundColor);
+    }
+
+    /**
+     * Creates a new encoder with the given deflate level that keeps every
+     * shade.
+     *
+     * @param level Deflate level, from 0 (fastest) to 9 (smallest).
+     */
+    public PngEncoder(int level) {
+        this(level, 0, null, null);
+    }
+
+    /**
+     * Creates a new encoder that rounds the shades between the given colors
+     * to a number of levels.
+     *
+     * @param level Deflate level, from 0 (fastest) to 9 (smallest).
+     * @param shadeLevels Number of levels from the foreground to the
+     * background color, 0 to keep every shade.
+     * @param foreground Foreground color.
+     * @param background Background color.
+     */
+    public PngEncoder(int level, int shadeLevels, Color foreground,
+            Color background) {
+        this.level = Math.max(Deflater.NO_COMPRESSION,
+                Math.min(Deflater.BEST_COMPRESSION, level));
+
+        int foregroundValue = foreground == null ? 0 :
+            TiledImage.getGrayValue(foreground);
+        int backgroundValue = background == null ? 0 :
+            TiledImage.getGrayValue(background);
+        if (shadeLevels < 2 || shadeLevels >= 256 ||
+                foregroundValue == backgroundValue) {
+            shades = null;
+            return;
+        }
+
+        int maxLevel = shadeLevels - 1;
+        int range = backgroundValue - foregroundValue;
+        shades = new byte[256];
+        for (int value = 0; value < shades.length; value++) {
+            long shade = Math.round((value - foregroundValue) * maxLevel /
+                    (double) range);
+            shade = Math.max(0, Math.min(maxLevel, shade));
+            shades[value] = (byte) Math.round(foregroundValue +
+                    range * shade / (double) maxLevel);
+        }
+    }
+
+    /**
+     * Picks the smallest format that can store the given gray values.
+     *
+     * @param values Gray values, one bit per value.
+     * @return Format for the image.
+     */
+    private static Format chooseFormat(long[] values) {
+        int count = 0;
+        for (long word : values) {
+            count += Long.bitCount(word);
+        }
+
+        // Gray images with less than eight bits can only store evenly spaced
+        // values between black and white.
+        int grayDepth = 8;
+        for (int depth = 1; depth < 8; depth <<= 1) {
+            if (fitsGrayDepth(values, depth)) {
+                grayDepth = depth;
+                break;
+            }
+        }
+
+        int paletteDepth = 8;
+        for (int depth = 1; depth < 8; depth <<= 1) {
+            if (count <= 1 << depth) {
+                paletteDepth = depth;
+                break;
+            }
+        }
+
+        byte[] samples = new byte[256];
+        if (paletteDepth < grayDepth) {
+            int index = 0;
+            for (int value = 0; value < 256; value++) {
+                if (isSet(values, value)) {
+                    samples[value] = (byte) index++;
+                }
+            }
+            return new Format(COLOR_TYPE_PALETTE, paletteDepth, samples);
+        }
+
+        int step = 255 / ((1 << grayDepth) - 1);
+        for (int value = 0; value < 256; value++) {
+            samples[value] = (byte)(value / step);
+        }
+        return new Format(COLOR_TYPE_GRAY, grayDepth, samples);
+    }
+
+    /**
+     * Collects the gray values that are used in a row of tiles, after the
+     * shades are rounded.
+     *
+     * @param image Image to look at.
+     * @param row Row of tiles.
+     * @return Gray values, one bit per value.
+     */
+    private long[] collectValues(TiledImage image, int row) {
+        int top = row * TiledImage.TILE_SIZE;
+        int bottom = Math.min(image.getHeight(), top + TiledImage.TILE_SIZE);
+
+        long[] values = new long[4];
+        byte[] line = new byte[image.getWidth()];
+        for (int y = top; y < bottom; y++) {
+            image.getRow(y, line);
+
+            // A page is mostly long runs of the same value, which only
+            // need to be marked once.
+            int last = -1;
+            for (byte sample : line) {
+                int value = sample & 0xff;
+                if (value != last) {
+                    values[value >> 6] |= 1L << (value & 0x3f);
+                    last = value;
+                }
+            }
+        }
+
+        if (shades == null) {
+            return values;
+        }
+
+        long[] rounded = new long[4];
+        for (int value = 0; value < 256; value++) {
+            if (isSet(values, value)) {
+                int shade = shades[value] & 0xff;
+                rounded[shade >> 6] |= 1L << (shade & 0x3f);
+            }
+        }
+        return rounded;
+    }
+
+    /**
+     * Computes the Adler-32 checksum of two pieces of data from their
+     * individual checksums.
+     *
+     * @param adler1 Checksum of the first piece.
+     * @param adler2 Checksum of the second piece.
+     * @param length2 Length of the second piece.
+     * @return Checksum of both pieces.
+     */
+    private static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) +
+                ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE << 1) {
+            sum2 -= ADLER_BASE << 1;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Compresses a single row of tiles.
+     *
+     * @param image Image to compress.
+     * @param row Row of tiles.
+     * @param format Format to encode in.
+     * @param values Gray values used in the row.
+     * @param deflater Compressor to use, it is reset first.
+     * @return Compressed row.
+     */
+    private Band encodeBand(TiledImage image, int row, Format format,
+            long[] values, Deflater deflater) {
+        int width = image.getWidth();
+        int top = row * TiledImage.TILE_SIZE;
+        int bottom = Math.min(image.getHeight(), top + TiledImage.TILE_SIZE);
+        int rowBytes = format.getRowBytes(width);
+
+        // Rounding the shades and looking up the samples is done in one go.
+        byte[] samples = format.samples;
+        if (shades != null) {
+            samples = new byte[256];
+            for (int value = 0; value < samples.length; value++) {
+                samples[value] = format.samples[shades[value] & 0xff];
+            }
+        }
+
+        byte[] line = new byte[width];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] candidates = new byte[FILTER_PAETH + 1][rowBytes + 1];
+
+        // The filtered rows are collected and handed to the compressor at
+        // once, since every call into it has a cost of its own.
+        byte[] raw = new byte[(bottom - top) * (rowBytes + 1)];
+        int rawLength = 0;
+
+        for (int y = top; y < bottom; y++) {
+            image.getRow(y, line);
+            packRow(line, format.bitDepth, samples, current);
+
+            // The first row must not refer to the row above, since that
+            // belongs to another band.
+            int best = FILTER_NONE;
+            if (format.isFiltered()) {
+                int last = y == top ? FILTER_SUB : FILTER_PAETH;
+                long bestCost = Long.MAX_VALUE;
+                for (int filter = FILTER_NONE; filter <= last; filter++) {
+                    long cost = filterRow(filter, current, previous,
+                            candidates[filter], bestCost);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = filter;
+                    }
+                }
+            }
+            else {
+                candidates[FILTER_NONE][0] = FILTER_NONE;
+                System.arraycopy(current, 0, candidates[FILTER_NONE], 1,
+                        rowBytes);
+            }
+
+            System.arraycopy(candidates[best], 0, raw, rawLength,
+                    rowBytes + 1);
+            rawLength += rowBytes + 1;
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+
+        deflater.reset();
+        deflater.setInput(raw);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[Math.max(8192, raw.length / 4)];
+        int count;
+        do {
+            count = deflater.deflate(buffer, 0, buffer.length,
+                    Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, count);
+        }
+        while (count == buffer.length || !deflater.needsInput());
+
+        encodedCount++;
+
+        return new Band(out.toByteArray(), adler.getValue(), raw.length,
+                format, values, shades);
+    }
+
+    /**
+     * Applies a PNG filter to a row. The number of places where a filtered
+     * byte differs from the one before is an estimate how well the row will
+     * compress, since the pages are mostly long runs of background. Once it
+     * reaches the given limit, the filter is not worth it and filtering stops
+     * early.
+     *
+     * @param filter PNG filter type.
+     * @param current Row to filter.
+     * @param previous Row above, all zero for the first row.
+     * @param filtered Filter type and filtered row.
+     * @param limit Cost at which filtering can stop.
+     * @return Estimated cost of the filtered row.
+     */
+    private static long filterRow(int filter, byte[] current, byte[] previous,
+            byte[] filtered, long limit) {
+        filtered[0] = (byte) filter;
+        long cost = 0;
+        byte last = 0;
+
+        for (int x = 0; x < current.length; x++) {
+            int value = current[x] & 0xff;
+            int left = x > 0 ? current[x - 1] & 0xff : 0;
+            int above = previous[x] & 0xff;
+            int aboveLeft = x > 0 ? previous[x - 1] & 0xff : 0;
+
+            int prediction;
+            switch (filter) {
+            case FILTER_SUB:
+                prediction = left;
+                break;
+            case FILTER_UP:
+                prediction = above;
+                break;
+            case FILTER_AVERAGE:
+                prediction = (left + above) >> 1;
+                break;
+            case FILTER_PAETH:
+                prediction = paeth(left, above, aboveLeft);
+                break;
+            default:
+                prediction = 0;
+                break;
+            }
+
+            byte residual = (byte)(value - prediction);
+            filtered[x + 1] = residual;
+            if (residual != last) {
+                cost++;
+                if (cost >= limit) {
+                    return cost;
+                }
+            }
+            last = residual;
+        }
+
+        return cost;
+    }
+
+    /**
+     * Checks whether all the given gray values can be stored as gray with the
+     * given bit depth.
+     *
+     * @param values Gray values, one bit per value.
+     * @param depth Bit depth below eight.
+     * @return Whether the values fit.
+     */
+    private static boolean fitsGrayDepth(long[] values, int depth) {
+        int step = 255 / ((1 << depth) - 1);
+        for (int value = 0; value < 256; value++) {
+            if (isSet(values, value) && value % step != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of rows of tiles that had to be compressed.
+     *
+     * @return Number of compressed rows.
+     */
+    public int getEncodedCount() {
+        return encodedCount;
+    }
+
+    /**
+     * Returns the number of rows of tiles that were taken from the page
+     * without compressing them again.
+     *
+     * @return Number of reused rows.
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Checks whether a gray value is in the given set.
+     *
+     * @param values Gray values, one bit per value.
+     * @param value Value to check.
+     * @return Whether the value is used.
+     */
+    private static boolean isSet(long[] values, int value) {
+        return (values[value >> 6] & (1L << (value & 0x3f))) != 0;
+    }
+
+    /**
+     * Packs a row of gray values into samples of the given depth.
+     *
+     * @param line Gray values.
+     * @param depth Bits per sample.
+     * @param samples The sample for each gray value.
+     * @param packed Packed row.
+     */
+    private static void packRow(byte[] line, int depth, byte[] samples,
+            byte[] packed) {
+        if (depth == 8) {
+            for (int x = 0; x < line.length; x++) {
+                packed[x] = samples[line[x] & 0xff];
+            }
+            return;
+        }
+
+        int position = 0;
+        int bits = 0;
+        int buffer = 0;
+        for (byte value : line) {
+            buffer = (buffer << depth) | samples[value & 0xff];
+            bits += depth;
+            if (bits == 8) {
+                packed[position++] = (byte) buffer;
+                buffer = 0;
+                bits = 0;
+            }
+        }
+        if (bits > 0) {
+            packed[position] = (byte)(buffer << (8 - bits));
+        }
+    }
+
+    /**
+     * The Paeth predictor, which picks the neighbor closest to the gradient.
+     *
+     * @param left Pixel to the left.
+     * @param above Pixel above.
+     * @param aboveLeft Pixel above to the left.
+     * @return Predicted value.
+     */
+    private static int paeth(int left, int above, int aboveLeft) {
+        int estimate = left + above - aboveLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceAbove = Math.abs(estimate - above);
+        int distanceAboveLeft = Math.abs(estimate - aboveLeft);
+        if (distanceLeft <= distanceAbove &&
+                distanceLeft <= distanceAboveLeft) {
+            return left;
+        }
+        else if (distanceAbove <= distanceAboveLeft) {
+            return above;
+        }
+        return aboveLeft;
+    }
+
+    /**
+     * Writes the given image as a PNG file.
+     *
+     * @param image Image to write.
+     * @param out Stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(TiledImage image, OutputStream out) throws IOException {
+        // Find out which gray values are used. Rows that did not change
+        // still know theirs, unless they were rounded differently.
+        Band[] bands = new Band[image.getNumYTiles()];
+        long[][] rowValues = new long[bands.length][];
+        long[] values = new long[4];
+        for (int row = 0; row < bands.length; row++) {
+            bands[row] = image.getEncodedRow(row);
+            if (bands[row] != null && !Arrays.equals(bands[row].shades,
+                        shades)) {
+                bands[row] = null;
+            }
+            if (bands[row] != null) {
+                rowValues[row] = bands[row].values;
+            }
+            else {
+                rowValues[row] = collectValues(image, row);
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i] |= rowValues[row][i];
+            }
+        }
+        Format format = chooseFormat(values);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(image.getWidth());
+        headerData.writeInt(image.getHeight());
+        headerData.writeByte(format.bitDepth);
+        headerData.writeByte(format.colorType);
+        // Compression, filter and interlace method.
+        headerData.write(new byte[] {0, 0, 0});
+        writeChunk(data, "IHDR", header.toByteArray());
+
+        if (format.colorType == COLOR_TYPE_PALETTE) {
+            ByteArrayOutputStream palette = new ByteArrayOutputStream();
+            for (int value = 0; value < 256; value++) {
+                if (isSet(values, value)) {
+                    palette.write(value);
+                    palette.write(value);
+                    palette.write(value);
+                }
+            }
+            writeChunk(data, "PLTE", palette.toByteArray());
+        }
+
+        long length = 2 + FINAL_BLOCK.length + 4;
+        long adler = 1;
+        Deflater deflater = new Deflater(level, true);
+        try {
+            for (int row = 0; row < bands.length; row++) {
+                if (bands[row] != null && bands[row].format.equals(format)) {
+                    reusedCount++;
+                }
+                else {
+                    bands[row] = encodeBand(image, row, format, rowValues[row],
+                            deflater);
+                    image.offerEncodedRow(row, bands[row]);
+                }
+
+                length += bands[row].data.length;
+                adler = combineAdler(adler, bands[row].adler,
+                        bands[row].length);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        data.writeInt((int) length);
+        byte[] type = "IDAT".getBytes("US-ASCII");
+        data.write(type);
+        crc.update(type);
+
+        byte[] zlibHeader = getZlibHeader();
+        data.write(zlibHeader);
+        crc.update(zlibHeader);
+
+        for (Band band : bands) {
+            data.write(band.data);
+            crc.update(band.data);
+        }
+
+        data.write(FINAL_BLOCK);
+        crc.update(FINAL_BLOCK);
+
+        byte[] trailer = {
+            (byte)(adler >> 24), (byte)(adler >> 16), (byte)(adler >> 8),
+            (byte) adler
+        };
+        data.write(trailer);
+        crc.update(trailer);
+        data.writeInt((int) crc.getValue());
+
+        writeChunk(data, "IEND", new byte[0]);
+        data.flush();
+    }
+
+    /**
+     * Builds the header of the zlib stream: deflate with the default window,
+     * and a hint how hard the compressor tried.
+     *
+     * @return The two header bytes.
+     */
+    private byte[] getZlibHeader() {
+        int levelFlag;
+        if (level < 2) {
+            levelFlag = 0;
+        }
+        else if (level < 6) {
+            levelFlag = 1;
+        }
+        else if (level == 6) {
+            levelFlag = 2;
+        }
+        else {
+            levelFlag = 3;
+        }
+
+        int method = 0x78;
+        int flags = levelFlag << 6;
+        flags += (31 - ((method << 8) + flags) % 31) % 31;
+        return new byte[] {(byte) method, (byte) flags};
+    }
+
+    /**
+     * Writes a complete chunk.
+     *
+     * @param data Stream to write to.
+     * @param type Type of the chunk.
+     * @param content Content of the chunk.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void writeChunk(DataOutputStream data, String type, byte[] content)
+    throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(content);
+
+        data.writeInt(content.length);
+        data.write(typeBytes);
+        data.write(content);
+        data.writeInt((int) crc.getValue());
+    }
+}
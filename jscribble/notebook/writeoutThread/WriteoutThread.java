@@ -19,27 +19,66 @@
 
 package jscribble.notebook.writeoutThread;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
+import jscribble.helpers.Config;
 import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
+import jscribble.notebook.NoteBookManifest;
+import jscribble.notebook.StrokeJournal;
+import jscribble.notebook.StrokeList;
+import jscribble.notebook.TiledImage;
 
 /**
  * In order to make the user interface faster, the writing of unneeded images
  * is put into a second thread. That way, the UI does not freeze during the
  * little IO time.
  *
+ * The thread itself only dispatches the tasks to a small pool of workers
+ * which encode and write the images in parallel. A given file is always
+ * handled by the same worker, so that writes to the same file land in the
+ * order they were scheduled.
+ *
+ * Only the latest image of a file is worth writing. If a file is scheduled
+ * again before its worker got to it, the new task replaces the pending one.
+ * Scheduling hands out a PendingWrite for the file, so that a reader can wait
+ * for just this file or take the image that is about to be written.
+ *
+ * An image is first written into a temporary file next to its target,
+ * forced to disk and then renamed over the target. That way, a crash never
+ * leaves a truncated image behind. The folders that received new files are
+ * synced in one go once there is nothing left to write. The manifests of
+ * the NoteBooks are updated with every written file and saved at that time
+ * as well.
+ *
  * @author Martin Ueding <mu@martin-ueding.de>
  */
 public class WriteoutThread extends Thread {
     /**
-     * A queue with the tasks that this thread has to save to disk.
+     * A queue with the tasks that this thread has to save to disk. There is
+     * at most one entry per pending file in here, the image that is actually
+     * written is looked up in the pending map when the worker starts.
      */
     private LinkedBlockingQueue<ImageSwapTask> tasks;
 
@@ -49,18 +88,213 @@ public class WriteoutThread extends Thread {
      */
     private boolean stopAfterLastItem = false;
 
+    /**
+     * Workers that encode and write the images. Each worker is a single
+     * thread, so that tasks for the same file are executed in order.
+     */
+    private ExecutorService[] workers;
+
+    /**
+     * The latest task for each file that is scheduled but not yet started.
+     */
+    private HashMap<File, PendingWrite> pending;
+
+    /**
+     * Files that a worker is currently writing.
+     */
+    private HashMap<File, PendingWrite> writing;
+
+    /**
+     * Number of tasks that were dropped since a newer task for the same file
+     * was scheduled before they were written.
+     */
+    private long supersededCount = 0;
+
+    /**
+     * Folders with renamed files that still need to be synced to disk.
+     */
+    private HashSet<File> unsyncedFolders;
+
+    /**
+     * Manifests with updated entries that still need to be saved.
+     */
+    private HashSet<NoteBookManifest> unsavedManifests;
+
+    /**
+     * Checkpoints of written images that wait for their folder to be synced
+     * before the journal may forget about their lines.
+     */
+    private ArrayList<StrokeJournal.Checkpoint> unconfirmedCheckpoints;
+
+    /**
+     * Lock that makes the steps after a batch of writes one step.
+     */
+    private final Object batchLock = new Object();
+
+    /**
+     * Number of times a folder was synced to disk.
+     */
+    private long folderSyncCount = 0;
+
     /**
      * Creates and starts the thread.
      */
     public WriteoutThread() {
         tasks = new LinkedBlockingQueue<ImageSwapTask>();
+        pending = new HashMap<File, PendingWrite>();
+        writing = new HashMap<File, PendingWrite>();
+        unsyncedFolders = new HashSet<File>();
+        unsavedManifests = new HashSet<NoteBookManifest>();
+        unconfirmedCheckpoints = new ArrayList<StrokeJournal.Checkpoint>();
+
+        int workerCount = Config.getInteger("writeout_thread_count");
+        if (workerCount <= 0) {
+            workerCount = Runtime.getRuntime().availableProcessors();
+        }
+        workers = new ExecutorService[workerCount];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = Executors.newSingleThreadExecutor();
+        }
+
         this.start();
     }
 
+    /**
+     * Tells the journals that the images of their checkpoints are on disk.
+     * This has to happen after the folders are synced, otherwise the lines
+     * could be lost with the renaming of the images.
+     *
+     * @param checkpoints checkpoints from takeCheckpoints()
+     */
+    private void confirmCheckpoints(StrokeJournal.Checkpoint[] checkpoints) {
+        for (StrokeJournal.Checkpoint checkpoint : checkpoints) {
+            checkpoint.written();
+        }
+    }
+
+    /**
+     * Hands a file to the worker that is responsible for it.
+     *
+     * @param outfile file to dispatch
+     */
+    private void dispatch(final File outfile) {
+        getWorker(outfile).execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingWrite write = startWriting(outfile);
+                try {
+                    if (write != null) {
+                        write(write.getTask());
+                    }
+                }
+                finally {
+                    finishWriting(outfile, write);
+                }
+            }
+        });
+    }
+
+    /**
+     * Notes that the worker is done with the given file and wakes up the
+     * readers that wait for it. If there is nothing left to write, the
+     * folders are synced.
+     *
+     * @param outfile file that was written
+     * @param write handle of the write, null if there was nothing to write
+     */
+    private void finishWriting(File outfile, PendingWrite write) {
+        boolean idle;
+        synchronized (this) {
+            writing.remove(outfile);
+            idle = pending.isEmpty() && writing.isEmpty();
+        }
+
+        if (write != null) {
+            write.finish();
+        }
+
+        if (idle) {
+            finishBatch();
+        }
+    }
+
+    /**
+     * Saves the manifests, syncs the folders and then confirms the
+     * checkpoints of the written images. Idle workers run this one at a
+     * time, so that no checkpoint is confirmed while another worker still
+     * syncs its folder.
+     */
+    private void finishBatch() {
+        synchronized (batchLock) {
+            StrokeJournal.Checkpoint[] checkpoints = takeCheckpoints();
+            saveManifests();
+            syncFolders();
+            confirmCheckpoints(checkpoints);
+        }
+    }
+
+    /**
+     * Returns how often a folder was synced to disk.
+     *
+     * @return Number of folder syncs.
+     */
+    public synchronized long getFolderSyncCount() {
+        return folderSyncCount;
+    }
+
+    /**
+     * Returns the handle for the latest write of the given file.
+     *
+     * @param imagefile File to look up.
+     * @return Handle, or null if the file is neither waiting nor being
+     * written.
+     */
+    public synchronized PendingWrite getPendingWrite(File imagefile) {
+        PendingWrite write = pending.get(imagefile);
+        if (write == null) {
+            write = writing.get(imagefile);
+        }
+        return write;
+    }
+
+    /**
+     * Returns the number of tasks that were not written since they were
+     * superseded by a newer task for the same file.
+     *
+     * @return Number of dropped tasks.
+     */
+    public synchronized long getSupersededCount() {
+        return supersededCount;
+    }
+
+    /**
+     * Determines the worker that handles all the tasks for the given file.
+     *
+     * @param outfile file to look up
+     * @return Worker for this file.
+     */
+    private ExecutorService getWorker(File outfile) {
+        return workers[(outfile.hashCode() & Integer.MAX_VALUE) %
+                workers.length];
+    }
+
+    /**
+     * Checks for a file in the queue. Files that a worker is writing right
+     * now count as queued as well.
+     *
+     * @param imagefile File to check for.
+     * @return Whether given file in in queue.
+     */
+    public synchronized boolean isFileInQueue(File imagefile) {
+        return pending.containsKey(imagefile) ||
+            writing.containsKey(imagefile);
+    }
+
     /**
      * Works on the queue with tasks. The thread waits for the next task. If
      * you want to terminate the thread when the queue is empty, you have to
-     * push an empty Task Object into the queue.
+     * push an empty Task Object into the queue. Before the thread dies, it
+     * waits for the workers to finish all the dispatched tasks.
      */
     public void run() {
         ImageSwapTask task;
@@ -73,24 +307,10 @@ public class WriteoutThread extends Thread {
                     task = tasks.take();
                 }
 
-                if (task.getImg() != null) {
-                    Logger.log(getClass().getName(),
-                               String.format(Localizer.get("Writing %s."),
-                                       task.getOutfile().getAbsolutePath()));
-                    ImageIO.write(task.getImg(), "png", new
-                            FileOutputStream(task.getOutfile()));
+                if (task != null && task.getOutfile() != null) {
+                    dispatch(task.getOutfile());
                 }
             }
-            catch (FileNotFoundException e) {
-                Logger.handleError(Localizer.get(
-                            "Could not find the file to write."));
-                e.printStackTrace();
-            }
-            catch (IOException e) {
-                Logger.handleError(Localizer.get(
-                            "IO error while saving the note image."));
-                e.printStackTrace();
-            }
             catch (InterruptedException e1) {
                 Logger.handleError(Localizer.get(
                             "Writing thread was interupted."));
@@ -98,16 +318,68 @@ public class WriteoutThread extends Thread {
             }
         }
 
-        Logger.log(getClass().getName(),
-                   Localizer.get("Thread dies."));
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Logger.handleError(Localizer.get(
+                        "Writing thread was interupted."));
+            e.printStackTrace();
+        }
+
+        finishBatch();
+
+        Logger.logFormat(getClass().getName(),
+                         "Skipped %d superseded writes.", getSupersededCount());
+        Logger.logFormat(getClass().getName(), "Thread dies.");
+    }
+
+    /**
+     * Saves all the manifests that got new entries since they were last
+     * saved.
+     */
+    private void saveManifests() {
+        NoteBookManifest[] manifests;
+        synchronized (this) {
+            manifests = unsavedManifests.toArray(
+                    new NoteBookManifest[unsavedManifests.size()]);
+            unsavedManifests.clear();
+        }
+
+        for (NoteBookManifest manifest : manifests) {
+            manifest.write();
+        }
     }
 
     /**
-     * Schedules a new task.
+     * Schedules a new task. If there is a pending task for the same file
+     * already, it is replaced with the new one and shares its handle.
      *
      * @param t task to schedule
+     * @return Handle for the write of the file, null for a task without
+     * file.
      */
-    public void schedule(ImageSwapTask t) {
+    public PendingWrite schedule(ImageSwapTask t) {
+        PendingWrite write = null;
+        if (t.getOutfile() != null) {
+            synchronized (this) {
+                write = pending.get(t.getOutfile());
+                if (write != null) {
+                    write.setTask(t);
+                    supersededCount++;
+                    return write;
+                }
+
+                write = new PendingWrite(t);
+                pending.put(t.getOutfile(), write);
+            }
+        }
+
         try {
             tasks.put(t);
         }
@@ -116,6 +388,23 @@ public class WriteoutThread extends Thread {
                         "Interrupted while scheduling a disk write task."));
             e.printStackTrace();
         }
+
+        return write;
+    }
+
+    /**
+     * Takes the latest task for the given file out of the pending ones and
+     * marks the file as being written.
+     *
+     * @param outfile file to start writing
+     * @return Write to do, null if there is none.
+     */
+    private synchronized PendingWrite startWriting(File outfile) {
+        PendingWrite write = pending.remove(outfile);
+        if (write != null) {
+            writing.put(outfile, write);
+        }
+        return write;
     }
 
     /**
@@ -127,21 +416,185 @@ public class WriteoutThread extends Thread {
     }
 
     /**
-     * Checks for a file in the queue.
+     * Syncs all the folders that got new files since the last sync, so that
+     * the renames survive a crash. Some platforms cannot open folders, this
+     * is silently ignored there.
+     */
+    private void syncFolders() {
+        File[] folders;
+        synchronized (this) {
+            folders = unsyncedFolders.toArray(new File[unsyncedFolders.size()]);
+            unsyncedFolders.clear();
+        }
+
+        for (File folder : folders) {
+            try {
+                FileChannel channel = FileChannel.open(folder.toPath(),
+                        StandardOpenOption.READ);
+                try {
+                    channel.force(true);
+                }
+                finally {
+                    channel.close();
+                }
+
+                synchronized (this) {
+                    folderSyncCount++;
+                }
+            }
+            catch (IOException e) {
+                Logger.logFormat(getClass().getName(),
+                                 "Could not sync folder %s.",
+                                 folder.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Takes the checkpoints of the written images. Their folders are in the
+     * set of unsynced folders at this point, since both are added together.
      *
-     * @param imagefile File to check for.
-     * @return Whether given file in in queue.
+     * @return checkpoints to confirm after the next sync
      */
-    public boolean isFileInQueue(File imagefile) {
-        for (ImageSwapTask task : tasks) {
-            // There might be an empty task object to clean out the WriteoutThread. If this is caught, ignore it.
-            if (task.getOutfile() == null) {
-                continue;
+    private synchronized StrokeJournal.Checkpoint[] takeCheckpoints() {
+        StrokeJournal.Checkpoint[] checkpoints = unconfirmedCheckpoints.toArray(
+                new StrokeJournal.Checkpoint[unconfirmedCheckpoints.size()]);
+        unconfirmedCheckpoints.clear();
+        return checkpoints;
+    }
+
+    /**
+     * Moves a completely written temporary file over the target, atomically
+     * if the file system can do that.
+     *
+     * @param tempfile temporary file
+     * @param outfile target file
+     * @throws IOException if the file cannot be moved
+     */
+    private static void replace(File tempfile, File outfile)
+            throws IOException {
+        try {
+            Files.move(tempfile.toPath(), outfile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempfile.toPath(), outfile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Encodes the image of the given task and writes it to its file. The
+     * image goes to a temporary file first, which replaces the target once it
+     * is completely on disk.
+     *
+     * @param task task to write
+     */
+    private void write(ImageSwapTask task) {
+        if (task.getImg() == null) {
+            return;
+        }
+
+        File outfile = task.getOutfile();
+        File tempfile = new File(outfile.getParentFile(),
+                "." + outfile.getName() + ".tmp");
+
+        try {
+            Logger.logFormat(getClass().getName(),
+                             "Writing %s.", outfile.getAbsolutePath());
+
+            FileChannel channel = FileChannel.open(tempfile.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                OutputStream out = new BufferedOutputStream(
+                    Channels.newOutputStream(channel));
+                if (task.getImg() instanceof TiledImage) {
+                    new PngEncoder().write((TiledImage) task.getImg(), out);
+                }
+                else {
+                    ImageOutputStream imageOut =
+                        new MemoryCacheImageOutputStream(out);
+                    ImageIO.write(task.getImg(), "png", imageOut);
+                    imageOut.close();
+                }
+                out.flush();
+
+                channel.force(true);
+            }
+            finally {
+                channel.close();
+            }
+
+            // The new vectors replace the old ones before the image is
+            // replaced. They are read instead of the image, so the page
+            // shows the new lines even if the program stops in between.
+            // Without new vectors, the old ones must never be taken for the
+            // new image, so they go away first.
+            File strokefile = StrokeList.getFile(outfile);
+            if (task.getStrokes() != null) {
+                writeStrokes(task.getStrokes(), strokefile);
             }
-            if (task.getOutfile().equals(imagefile)) {
-                return true;
+            else {
+                Files.deleteIfExists(strokefile.toPath());
             }
+
+            replace(tempfile, outfile);
+
+            if (task.getManifest() != null) {
+                task.getManifest().update(outfile);
+            }
+
+            synchronized (this) {
+                unsyncedFolders.add(outfile.getAbsoluteFile().getParentFile());
+                if (task.getManifest() != null) {
+                    unsavedManifests.add(task.getManifest());
+                }
+                if (task.getCheckpoint() != null) {
+                    unconfirmedCheckpoints.add(task.getCheckpoint());
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            Logger.handleError(Localizer.get(
+                        "Could not find the file to write."));
+            e.printStackTrace();
         }
-        return false;
+        catch (IOException e) {
+            Logger.handleError(Localizer.get(
+                        "IO error while saving the note image."));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the lines of an image next to it, through a temporary file like
+     * the image itself.
+     *
+     * @param strokes lines to write
+     * @param strokefile file to write to
+     * @throws IOException if the file cannot be written
+     */
+    private void writeStrokes(StrokeList strokes, File strokefile)
+            throws IOException {
+        File tempfile = new File(strokefile.getParentFile(),
+                "." + strokefile.getName() + ".tmp");
+
+        FileChannel channel = FileChannel.open(tempfile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            OutputStream out = new BufferedOutputStream(
+                Channels.newOutputStream(channel));
+            strokes.write(out);
+            out.flush();
+            channel.force(true);
+        }
+        finally {
+            channel.close();
+        }
+
+        replace(tempfile, strokefile);
     }
 }
@@ -301,7 +301,7 @@ public class NoteBookSelectionWindow {
 
         CommandListener cl = new CommandListener(panel);
         f.addKeyListener(cl);
-        cl.addChangeListener(new Redrawer(panel));
+        cl.addChangeListener(new Redrawer(panel.getRenderScheduler()));
 
 
         if (Toolkit.getDefaultToolkit().getScreenSize().equals(notebook.getSize())) {
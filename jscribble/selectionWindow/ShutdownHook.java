@@ -21,7 +21,6 @@ package jscribble.selectionWindow;
 
 import java.util.LinkedList;
 
-import jscribble.helpers.Localizer;
 import jscribble.helpers.Logger;
 import jscribble.notebook.NoteBook;
 
@@ -58,22 +57,16 @@ public class ShutdownHook extends Thread {
      * Saves all opened NoteBook.
      */
     public void run() {
-        Logger.log(getClass().getName(), Localizer.get("Shutting down …"));
+        Logger.logFormat(getClass().getName(), "Shutting down …");
 
         for (NoteBook notebook : openedNotebooks) {
             notebook.saveToFiles();
-            Logger.log(
-                getClass().getName(),
-                String.format(
-                    Localizer.get("Closing NoteBook \"%s\"."),
-                    notebook.getName()
-                )
-            );
+            Logger.logFormat(getClass().getName(),
+                             "Closing NoteBook \"%s\".", notebook.getName());
         }
 
-        Logger.log(
-            getClass().getName(),
-            Localizer.get("Everything saved properly. Thanks for waiting!")
-        );
+        Logger.logFormat(getClass().getName(),
+                         "Everything saved properly. Thanks for waiting!");
+        Logger.flush();
     }
 }
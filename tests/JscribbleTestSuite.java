@@ -23,11 +23,26 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import tests.jscribble.VersionNameTest;
 import tests.jscribble.drawPanel.HelpItemTest;
+import tests.jscribble.drawPanel.OnionCompositorTest;
+import tests.jscribble.drawPanel.RenderSchedulerTest;
+import tests.jscribble.helpers.CommandTableTest;
+import tests.jscribble.helpers.ConfigSnapshotTest;
 import tests.jscribble.helpers.FileComparatorTest;
+import tests.jscribble.helpers.LatencyHistogramTest;
+import tests.jscribble.helpers.LoggerTest;
+import tests.jscribble.helpers.MessageTemplateTest;
 import tests.jscribble.notebook.NoteBookCompressorTest;
+import tests.jscribble.notebook.NoteBookManifestTest;
 import tests.jscribble.notebook.NoteBookTest;
 import tests.jscribble.notebook.NoteSheetFileFilterTest;
 import tests.jscribble.notebook.NoteSheetTest;
+import tests.jscribble.notebook.PageCacheTest;
+import tests.jscribble.notebook.PagePrefetcherTest;
+import tests.jscribble.notebook.PageTableTest;
+import tests.jscribble.notebook.PngEncoderTest;
+import tests.jscribble.notebook.StrokeJournalTest;
+import tests.jscribble.notebook.StrokeListTest;
+import tests.jscribble.notebook.TiledImageTest;
 import tests.jscribble.notebook.WriteoutThreadTest;
 
 public class JscribbleTestSuite {
@@ -36,17 +51,31 @@ public class JscribbleTestSuite {
         TestSuite suite = new TestSuite();
 
         // TODO Add test for BufferedImageWrapper.
-        // TODO Add test for InvalidationThread.
         // TODO Add test for Localizer.
         // TODO Add test for Logger.
         // TODO Add test for SettingsWrapper.
 
+        suite.addTestSuite(CommandTableTest.class);
+        suite.addTestSuite(ConfigSnapshotTest.class);
         suite.addTestSuite(FileComparatorTest.class);
         suite.addTestSuite(HelpItemTest.class);
+        suite.addTestSuite(LatencyHistogramTest.class);
+        suite.addTestSuite(LoggerTest.class);
+        suite.addTestSuite(MessageTemplateTest.class);
         suite.addTestSuite(NoteBookCompressorTest.class);
+        suite.addTestSuite(NoteBookManifestTest.class);
         suite.addTestSuite(NoteBookTest.class);
         suite.addTestSuite(NoteSheetFileFilterTest.class);
         suite.addTestSuite(NoteSheetTest.class);
+        suite.addTestSuite(OnionCompositorTest.class);
+        suite.addTestSuite(PageCacheTest.class);
+        suite.addTestSuite(PagePrefetcherTest.class);
+        suite.addTestSuite(PageTableTest.class);
+        suite.addTestSuite(PngEncoderTest.class);
+        suite.addTestSuite(RenderSchedulerTest.class);
+        suite.addTestSuite(StrokeJournalTest.class);
+        suite.addTestSuite(StrokeListTest.class);
+        suite.addTestSuite(TiledImageTest.class);
         suite.addTestSuite(VersionNameTest.class);
         suite.addTestSuite(WriteoutThreadTest.class);
         return suite;
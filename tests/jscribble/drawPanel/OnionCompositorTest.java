@@ -0,0 +1,96 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.drawPanel;
+
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+
+import jscribble.drawPanel.OnionCompositor;
+import jscribble.notebook.NoteBook;
+import junit.framework.TestCase;
+
+/**
+ * Tests the OnionCompositor.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class OnionCompositorTest extends TestCase {
+    public OnionCompositorTest() {
+        super();
+    }
+
+    /**
+     * Draws on a page after it was used as a layer. The layer has to show
+     * the new line when the page is a layer again.
+     */
+    public void testDrawnBehind() {
+        NoteBook nb = new NoteBook(null, new Dimension(300, 300));
+        nb.drawLine(new Line2D.Float(10, 10, 10, 100));
+        nb.goForward();
+        nb.drawLine(new Line2D.Float(60, 10, 60, 100));
+
+        OnionCompositor compositor = new OnionCompositor();
+        BufferedImage underlay = compositor.getUnderlay(nb, 1, 300, 300);
+        int background = underlay.getRGB(250, 250);
+        assertEquals(background, underlay.getRGB(250, 50));
+
+        nb.goBackwards();
+        nb.drawLine(new Line2D.Float(250, 10, 250, 100));
+        nb.goForward();
+
+        underlay = compositor.getUnderlay(nb, 1, 300, 300);
+        assertFalse(background == underlay.getRGB(250, 50));
+        assertEquals(0, compositor.getReuseCount());
+    }
+
+    /**
+     * Composes the layers for a few pages and steps forward. Only the page
+     * that was left needs to be read then.
+     */
+    public void testStepForward() {
+        NoteBook nb = new NoteBook(null, new Dimension(300, 300));
+        for (int page = 0; page < 4; page++) {
+            nb.drawLine(new Line2D.Float(50 * page + 10, 10,
+                        50 * page + 10, 100));
+            nb.goForward();
+        }
+        nb.goBackwards();
+        assertEquals(4, nb.getCurrentSheet().getPagenumber());
+
+        OnionCompositor compositor = new OnionCompositor();
+        BufferedImage underlay = compositor.getUnderlay(nb, 2, 300, 300);
+        assertEquals(4, nb.getCurrentSheet().getPagenumber());
+        assertEquals(2, compositor.getReadCount());
+        assertSame(underlay, compositor.getUnderlay(nb, 2, 300, 300));
+
+        int background = underlay.getRGB(250, 250);
+        assertEquals(background, underlay.getRGB(10, 50));
+        assertFalse(background == underlay.getRGB(60, 50));
+        assertFalse(background == underlay.getRGB(110, 50));
+
+        nb.goForward();
+        underlay = compositor.getUnderlay(nb, 2, 300, 300);
+        assertEquals(3, compositor.getReadCount());
+        assertEquals(1, compositor.getReuseCount());
+        assertEquals(background, underlay.getRGB(60, 50));
+        assertFalse(background == underlay.getRGB(160, 50));
+    }
+}
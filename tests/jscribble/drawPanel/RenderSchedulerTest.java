@@ -0,0 +1,147 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.drawPanel;
+
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JPanel;
+
+import jscribble.drawPanel.RenderScheduler;
+import junit.framework.TestCase;
+
+/**
+ * Tests the RenderScheduler.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class RenderSchedulerTest extends TestCase {
+    public RenderSchedulerTest() {
+        super();
+    }
+
+    /**
+     * Panel that remembers the areas it was asked to repaint.
+     */
+    private static class CountingPanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of repaint requests.
+         */
+        int repaints;
+
+        /**
+         * Area of the last repaint request.
+         */
+        Rectangle region;
+
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+            repaints++;
+            region = new Rectangle(x, y, width, height);
+        }
+    }
+
+    /**
+     * Runs the given task on the event dispatch thread and waits for it.
+     *
+     * @param task Task to run.
+     */
+    private void runOnEventQueue(Runnable task) throws Exception {
+        EventQueue.invokeAndWait(task);
+    }
+
+    /**
+     * Requests several areas within one frame. They should be repainted
+     * with a single request that covers all of them.
+     */
+    public void testBurstIsMerged() throws Exception {
+        final CountingPanel panel = new CountingPanel();
+        final RenderScheduler scheduler = new RenderScheduler(panel, 20, 100);
+
+        runOnEventQueue(new Runnable() {
+            @Override
+            public void run() {
+                panel.repaints = 0;
+                scheduler.invalidate(new Rectangle(10, 10, 5, 5));
+                scheduler.invalidate(new Rectangle(100, 50, 5, 5));
+                scheduler.invalidate(new Rectangle(40, 200, 5, 5));
+            }
+        });
+        Thread.sleep(300);
+
+        runOnEventQueue(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, panel.repaints);
+                assertEquals(1, scheduler.getFrameCount());
+                assertTrue(panel.region.contains(new Rectangle(10, 10, 5, 5)));
+                assertTrue(panel.region.contains(new Rectangle(100, 50, 5, 5)));
+                assertTrue(panel.region.contains(new Rectangle(40, 200, 5, 5)));
+            }
+        });
+    }
+
+    /**
+     * Keeps the scheduler alive a few times. The idle listener should only be
+     * called once, after the events stopped.
+     */
+    public void testIdleListener() throws Exception {
+        final CountingPanel panel = new CountingPanel();
+        final RenderScheduler scheduler = new RenderScheduler(panel, 50, 100);
+        final int[] calls = new int[1];
+        scheduler.setIdleListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                calls[0]++;
+            }
+        });
+        panel.repaints = 0;
+
+        for (int i = 0; i < 3; i++) {
+            runOnEventQueue(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.keepAlive();
+                }
+            });
+            Thread.sleep(30);
+        }
+
+        runOnEventQueue(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(0, calls[0]);
+            }
+        });
+        Thread.sleep(400);
+
+        runOnEventQueue(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, calls[0]);
+                assertEquals(1, panel.repaints);
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.helpers;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JPanel;
+
+import jscribble.helpers.CommandTable;
+import junit.framework.TestCase;
+
+/**
+ * Tests the CommandTable with the default bindings.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class CommandTableTest extends TestCase {
+    public CommandTableTest() {
+        super();
+    }
+
+    /**
+     * Source for the events.
+     */
+    private JPanel source = new JPanel();
+
+    /**
+     * Creates a released key.
+     *
+     * @param code Key code.
+     * @param c Key character.
+     * @return Key event.
+     */
+    private KeyEvent key(int code, char c) {
+        return new KeyEvent(source, KeyEvent.KEY_RELEASED, 0, 0, code, c);
+    }
+
+    /**
+     * Tests whether keys are found by their character and by their code.
+     */
+    public void testKeys() {
+        CommandTable<String> table = new CommandTable<String>();
+        table.add("notebook_go_forward_key", "forward");
+        table.add("notebook_go_back_key", "back");
+
+        assertEquals("forward", table.get(key(KeyEvent.VK_J, 'j')));
+        assertEquals("forward", table.get(key(KeyEvent.VK_DOWN,
+                        KeyEvent.CHAR_UNDEFINED)));
+        assertEquals("back", table.get(key(KeyEvent.VK_K, 'k')));
+        assertEquals("back", table.get(key(KeyEvent.VK_BACK_SPACE, '\b')));
+        assertNull(table.get(key(KeyEvent.VK_X, 'x')));
+    }
+
+    /**
+     * Tests whether the command that was added first wins.
+     */
+    public void testFirstCommandWins() {
+        CommandTable<String> table = new CommandTable<String>();
+        table.add("notebook_go_forward_key", "first");
+        table.add("notebook_go_forward_key", "second");
+
+        assertEquals("first", table.get(key(KeyEvent.VK_J, 'j')));
+    }
+
+    /**
+     * Tests whether mouse buttons are found by their modifiers.
+     */
+    public void testButtons() {
+        CommandTable<String> table = new CommandTable<String>();
+        table.add("notebook_draw_mouse_button", "draw");
+        table.add("notebook_erase_mouse_button", "erase");
+
+        assertEquals("draw", table.get(new MouseEvent(source,
+                        MouseEvent.MOUSE_DRAGGED, 0,
+                        MouseEvent.BUTTON1_DOWN_MASK, 0, 0, 0, false)));
+        assertEquals("erase", table.get(new MouseEvent(source,
+                        MouseEvent.MOUSE_DRAGGED, 0,
+                        MouseEvent.BUTTON3_DOWN_MASK, 0, 0, 0, false)));
+        assertNull(table.get(new MouseEvent(source,
+                        MouseEvent.MOUSE_DRAGGED, 0,
+                        MouseEvent.BUTTON2_DOWN_MASK, 0, 0, 0, false)));
+    }
+}
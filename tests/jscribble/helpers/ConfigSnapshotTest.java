@@ -0,0 +1,92 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.helpers;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JPanel;
+
+import jscribble.helpers.Config;
+import jscribble.helpers.ConfigSnapshot;
+import jscribble.helpers.InputBinding;
+import junit.framework.TestCase;
+
+/**
+ * Tests the ConfigSnapshot and the InputBinding.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class ConfigSnapshotTest extends TestCase {
+    public ConfigSnapshotTest() {
+        super();
+    }
+
+    /**
+     * Tests whether the snapshot has the same values as the Config and is
+     * only replaced after a setting was changed.
+     */
+    public void testSnapshot() {
+        ConfigSnapshot snapshot = Config.getSnapshot();
+        assertSame(snapshot, Config.getSnapshot());
+        assertEquals(Config.getColor("notebook_background_color"),
+                snapshot.notebookBackgroundColor);
+        assertEquals(Config.getInteger("scroll_panel_width"),
+                snapshot.scrollPanelWidth);
+
+        String width = Config.getString("scroll_panel_width");
+        Config.set("scroll_panel_width", "123");
+        assertEquals(123, Config.getSnapshot().scrollPanelWidth);
+        assertFalse(123 == snapshot.scrollPanelWidth);
+
+        Config.set("scroll_panel_width", width);
+    }
+
+    /**
+     * Tests whether characters and key codes are told apart.
+     */
+    public void testKeys() {
+        InputBinding binding = InputBinding.parseKeys("j,40,32");
+        JPanel source = new JPanel();
+
+        assertTrue(binding.matches(new KeyEvent(source, KeyEvent.KEY_RELEASED,
+                        0, 0, KeyEvent.VK_J, 'j')));
+        assertTrue(binding.matches(new KeyEvent(source, KeyEvent.KEY_RELEASED,
+                        0, 0, 40, KeyEvent.CHAR_UNDEFINED)));
+        assertFalse(binding.matches(new KeyEvent(source,
+                        KeyEvent.KEY_RELEASED, 0, 0, KeyEvent.VK_K, 'k')));
+        assertEquals(0, InputBinding.parseKeys("").getCodes().length);
+    }
+
+    /**
+     * Tests whether the mouse buttons are matched by their modifiers.
+     */
+    public void testButtons() {
+        InputBinding binding = InputBinding.parseButtons("0,1024");
+        JPanel source = new JPanel();
+
+        assertTrue(binding.matches(new MouseEvent(source,
+                        MouseEvent.MOUSE_DRAGGED, 0,
+                        MouseEvent.BUTTON1_DOWN_MASK, 0, 0, 0, false)));
+        assertFalse(binding.matches(new MouseEvent(source,
+                        MouseEvent.MOUSE_DRAGGED, 0,
+                        MouseEvent.BUTTON3_DOWN_MASK, 0, 0, 0, false)));
+    }
+}
@@ -0,0 +1,78 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.helpers;
+
+import jscribble.helpers.LatencyHistogram;
+import junit.framework.TestCase;
+
+/**
+ * Tests the LatencyHistogram.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class LatencyHistogramTest extends TestCase {
+    public LatencyHistogramTest() {
+        super();
+    }
+
+    /**
+     * Tests whether an empty histogram reports zero.
+     */
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    /**
+     * Records the values from 1 to 100000 and checks the percentiles within
+     * the precision of the buckets.
+     */
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000, histogram.getPercentile(50), 50000 * 0.04);
+        assertEquals(99000, histogram.getPercentile(99), 99000 * 0.04);
+        assertEquals(99900, histogram.getPercentile(99.9), 99900 * 0.04);
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Tests whether small values are kept exactly and a single outlier only
+     * shows up in the highest percentiles.
+     */
+    public void testOutlier() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 999; i++) {
+            histogram.record(7);
+        }
+        histogram.record(5000000000L);
+
+        assertEquals(7, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(99));
+        assertEquals(7, histogram.getPercentile(99.9));
+        assertEquals(5000000000L, histogram.getPercentile(100));
+    }
+}
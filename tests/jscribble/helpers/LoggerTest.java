@@ -0,0 +1,131 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.helpers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import jscribble.helpers.Config;
+import jscribble.helpers.Logger;
+import junit.framework.TestCase;
+
+/**
+ * Tests the Logger.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class LoggerTest extends TestCase {
+    /**
+     * Argument that counts how often it was formatted.
+     */
+    private static class Counting {
+        /**
+         * Number of calls to toString.
+         */
+        int count = 0;
+
+        @Override
+        public String toString() {
+            count++;
+            return "counted";
+        }
+    }
+
+    public LoggerTest() {
+        super();
+    }
+
+    /**
+     * Tests that the arguments are not formatted when logging is disabled.
+     */
+    public void testDisabled() {
+        Counting argument = new Counting();
+        Logger.setDebug(false);
+        Logger.logFormat(getClass().getName(), "Argument %s", argument);
+        Logger.flush();
+        assertEquals(0, argument.count);
+    }
+
+    /**
+     * Tests that records are written as JSON lines and that the log file is
+     * rotated when it gets too large.
+     */
+    public void testJsonFile() throws IOException {
+        File file = File.createTempFile("jscribble-log", ".txt");
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+
+        try {
+            Config.set("log_file", file.getAbsolutePath());
+            Config.set("log_file_count", "4");
+            Config.set("log_file_size", "2");
+            Config.set("log_json", "true");
+            Logger.configure();
+            Logger.setDebug(true);
+
+            Counting argument = new Counting();
+            for (int i = 0; i < 20; i++) {
+                Logger.logFormat(getClass().getName(), "Record %d is \"%s\"",
+                                 i, argument);
+            }
+            Logger.flush();
+            assertEquals(20, argument.count);
+        }
+        finally {
+            Logger.setDebug(false);
+            System.setOut(stdout);
+            Config.set("log_file", "");
+            Config.set("log_file_count", "3");
+            Config.set("log_file_size", "1024");
+            Config.set("log_json", "false");
+            Logger.configure();
+        }
+
+        assertTrue(captured.toString().contains(
+                       "\"message\":\"Record 19 is \\\"counted\\\"\"}"));
+
+        // Every record is about 200 bytes, so there have to be a few
+        // rotations, but all records have to be kept.
+        assertTrue(new File(file.getPath() + ".1").exists());
+        int records = 0;
+        for (int i = 0; i <= 4; i++) {
+            File part = i == 0 ? file : new File(file.getPath() + "." + i);
+            if (!part.exists()) {
+                continue;
+            }
+            BufferedReader reader = new BufferedReader(new FileReader(part));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                assertTrue(line.startsWith("{\"time\":"));
+                if (line.contains("\"message\":\"Record ")) {
+                    records++;
+                }
+            }
+            reader.close();
+            part.delete();
+        }
+        assertEquals(20, records);
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.helpers;
+
+import jscribble.helpers.Localizer;
+import jscribble.helpers.MessageTemplate;
+import junit.framework.TestCase;
+
+/**
+ * Tests the MessageTemplate and the Localizer.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class MessageTemplateTest extends TestCase {
+    public MessageTemplateTest() {
+        super();
+    }
+
+    /**
+     * Asserts that the template formats like String.format.
+     *
+     * @param pattern Pattern to check.
+     * @param args Arguments to insert.
+     */
+    private void assertFormat(String pattern, Object... args) {
+        assertEquals(String.format(pattern, args),
+                     new MessageTemplate(pattern).format(args));
+    }
+
+    /**
+     * Tests the supported conversions.
+     */
+    public void testFormat() {
+        assertFormat("Page %d/%d", 3, 12);
+        assertFormat("%d MiB used, %d MiB free", 100L, 28L);
+        assertFormat("Version %s", "1.7.7");
+        assertFormat("%2$s before %1$s", "first", "second");
+        assertFormat("100%% and %s%n", "more");
+        assertFormat("No placeholders");
+        assertFormat("");
+    }
+
+    /**
+     * Tests that unsupported conversions are still formatted correctly.
+     */
+    public void testFallback() {
+        assertFormat("%.2f seconds", 1.5);
+        assertFormat("%5d|%-3s|", 42, "a");
+        assertFormat("%x and %s", 255, "x");
+    }
+
+    /**
+     * Tests that strings without a translation are returned as they are.
+     */
+    public void testMiss() {
+        String ident = "This string has no translation.";
+        assertEquals(ident, Localizer.get(ident));
+        assertEquals(ident, Localizer.get(ident));
+        assertEquals("Untranslated 1 of two",
+                     Localizer.getTemplate("Untranslated %d of %s")
+                     .format(1, "two"));
+    }
+}
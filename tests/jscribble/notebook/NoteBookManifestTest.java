@@ -0,0 +1,187 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import jscribble.notebook.NoteBookManifest;
+import jscribble.notebook.writeoutThread.ImageSwapTask;
+import jscribble.notebook.writeoutThread.WriteoutThread;
+import junit.framework.TestCase;
+
+/**
+ * Tests the NoteBookManifest.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class NoteBookManifestTest extends TestCase {
+    /**
+     * Folder with the test pages.
+     */
+    private File folder;
+
+    public NoteBookManifestTest() {
+        super();
+    }
+
+    /**
+     * Creates a page file with some content.
+     *
+     * @param name File name.
+     * @return The file.
+     */
+    private File createPage(String name) throws IOException {
+        File file = new File(folder, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        return file;
+    }
+
+    /**
+     * Writes a manifest as if the folder was last changed a while ago, so
+     * that it can be trusted.
+     *
+     * @return The written manifest.
+     */
+    private NoteBookManifest writeSettledManifest() throws IOException {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        manifest.update(createPage("000001.png"));
+        manifest.update(createPage("000002.png"));
+        manifest.update(createPage("5.png"));
+        manifest.write();
+
+        assertTrue(folder.setLastModified(System.currentTimeMillis() - 10000));
+        manifest.setSize(new Dimension(30, 20));
+        manifest.write();
+        return manifest;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("manifest", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    /**
+     * A manifest that was just written is trusted once every page matches
+     * its entry.
+     */
+    public void testRacyManifest() throws IOException {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        manifest.update(createPage("000001.png"));
+        manifest.write();
+
+        assertNotNull(NoteBookManifest.read(folder));
+    }
+
+    /**
+     * A page written after the manifest was saved makes it stale.
+     */
+    public void testRacyManifestWithNewPage() throws IOException {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        manifest.update(createPage("000001.png"));
+        manifest.write();
+        createPage("000002.png");
+
+        assertNull(NoteBookManifest.read(folder));
+    }
+
+    /**
+     * A page that was changed after the manifest was saved makes it stale.
+     */
+    public void testRacyManifestWithChangedPage() throws IOException {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        File page = createPage("000001.png");
+        manifest.update(page);
+        manifest.write();
+        FileOutputStream out = new FileOutputStream(page, true);
+        out.write(4);
+        out.close();
+
+        assertNull(NoteBookManifest.read(folder));
+    }
+
+    /**
+     * Reads back a settled manifest.
+     */
+    public void testRoundTrip() throws IOException {
+        writeSettledManifest();
+
+        NoteBookManifest read = NoteBookManifest.read(folder);
+        assertNotNull(read);
+        assertEquals(new Dimension(30, 20), read.getSize());
+
+        int[] pagenumbers = read.getPagenumbers();
+        assertEquals(3, pagenumbers.length);
+        assertEquals(1, pagenumbers[0]);
+        assertEquals(2, pagenumbers[1]);
+        assertEquals(5, pagenumbers[2]);
+        assertNull(read.getIrregularName(1));
+        assertEquals("5.png", read.getIrregularName(5));
+        assertFalse(read.isCompact());
+    }
+
+    /**
+     * Deleting a page changes the folder, the manifest is stale then.
+     */
+    public void testStaleAfterDelete() throws IOException {
+        writeSettledManifest();
+        assertTrue(new File(folder, "000002.png").delete());
+
+        assertNull(NoteBookManifest.read(folder));
+    }
+
+    /**
+     * Writes pages through the WriteoutThread and reads the manifest right
+     * away, like opening the NoteBook again would.
+     */
+    public void testWrittenByWriteoutThread() throws InterruptedException {
+        NoteBookManifest manifest = new NoteBookManifest(folder);
+        manifest.setSize(new Dimension(10, 10));
+        WriteoutThread wt = new WriteoutThread();
+        for (int i = 1; i <= 3; i++) {
+            wt.schedule(new ImageSwapTask(new BufferedImage(10, 10,
+                        BufferedImage.TYPE_BYTE_GRAY),
+                        new File(folder, String.format("%06d.png", i)),
+                        manifest));
+        }
+        wt.stopAfterLast();
+        wt.join();
+
+        NoteBookManifest read = NoteBookManifest.read(folder);
+        assertNotNull(read);
+        assertEquals(3, read.getPagenumbers().length);
+        assertEquals(new Dimension(10, 10), read.getSize());
+    }
+}
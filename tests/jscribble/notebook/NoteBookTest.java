@@ -20,11 +20,19 @@
 package tests.jscribble.notebook;
 
 import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
 import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.UUID;
 
+import javax.imageio.ImageIO;
+
+import jscribble.NoteBookProgram;
 import jscribble.helpers.Logger;
 import jscribble.notebook.NoteBook;
 import jscribble.notebook.NoteSheet;
@@ -188,6 +196,27 @@ public class NoteBookTest extends TestCase {
         // There just should not be any error, that is it.
     }
 
+    /**
+     * Tests that a line on a page that is already drawn on only marks the
+     * area around the line as changed, and that flipping the page marks the
+     * whole page.
+     */
+    public void testChangedRegion() {
+        NoteBook nb = createTempNoteBook();
+        nb.drawLine(new Line2D.Float(10, 10, 10, 100));
+        assertNull(nb.getChangedRegion());
+
+        nb.drawLine(new Line2D.Float(50, 60, 80, 70));
+        Rectangle region = nb.getChangedRegion();
+        assertNotNull(region);
+        assertTrue(region.contains(50, 60));
+        assertTrue(region.contains(80, 70));
+        assertFalse(region.contains(10, 10));
+
+        nb.goForward();
+        assertNull(nb.getChangedRegion());
+    }
+
     /**
      * Tests whether the current sheet of a new NoteBook is not null.
      */
@@ -239,6 +268,44 @@ public class NoteBookTest extends TestCase {
         nb.deleteSure();
     }
 
+    /**
+     * Draws on a page right after opening the NoteBook, while the page may
+     * still be read in the background. Neither the old nor the new line may
+     * get lost. Everything runs on the event dispatch thread like in the
+     * program.
+     */
+    public void testDrawWhileLoading() throws Exception {
+        NoteBook b = createNamedTempNoteBook();
+        b.drawLine(new Line2D.Float(10, 10, 10, 100));
+        b.saveToFiles();
+
+        final NoteBook c = new NoteBook(b.getName());
+        final boolean[] ready = new boolean[1];
+        EventQueue.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                ready[0] = c.isCurrentSheetReady();
+                c.drawLine(new Line2D.Float(200, 10, 200, 100));
+            }
+        });
+        while (!ready[0]) {
+            Thread.sleep(10);
+            EventQueue.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    ready[0] = c.isCurrentSheetReady();
+                }
+            });
+        }
+
+        BufferedImage img = c.getCurrentSheet().getImg();
+        int background = img.getRGB(100, 200);
+        assertFalse(background == img.getRGB(10, 50));
+        assertFalse(background == img.getRGB(200, 50));
+
+        c.deleteSure();
+    }
+
     /**
      * Tests whether an newly created NoteBook has zero sheets in it, even if
      * you get the first (untouched) page.
@@ -342,6 +409,44 @@ public class NoteBookTest extends TestCase {
         nb.deleteSure();
     }
 
+    /**
+     * Opens a NoteBook from files that were written by hand. Only the header
+     * of the first page may be read, so a page that is cut off after its
+     * header must not matter until it is shown.
+     */
+    public void testOpenReadsHeaderOnly() throws IOException {
+        String name = UUID.randomUUID().toString();
+        File folder = new File(NoteBookProgram.getFileDirectory(false),
+                name);
+        assertTrue(folder.mkdirs());
+
+        BufferedImage image = new BufferedImage(123, 45,
+                BufferedImage.TYPE_BYTE_GRAY);
+        File first = new File(folder, "000001.png");
+        ImageIO.write(image, "png", first);
+        ImageIO.write(image, "png", new File(folder, "7.png"));
+
+        byte[] header = new byte[33];
+        FileInputStream in = new FileInputStream(first);
+        in.read(header);
+        in.close();
+        FileOutputStream out = new FileOutputStream(new File(folder,
+                "000002.png"));
+        out.write(header);
+        out.close();
+
+        NoteBook nb = new NoteBook(name);
+        assertEquals(new Dimension(123, 45), nb.getSize());
+        assertEquals(3, nb.getSheetCount());
+        nb.gotoLast();
+        assertEquals(7, nb.getCurrentSheet().getPagenumber());
+        nb.gotoFirst();
+        assertEquals(1, nb.getCurrentSheet().getPagenumber());
+        assertEquals(123, nb.getCurrentSheet().getImg().getWidth());
+
+        nb.deleteSure();
+    }
+
     /**
      * Tests whether the page number advances when you go a page forward.
      */
@@ -416,6 +521,27 @@ public class NoteBookTest extends TestCase {
         assertNotSame(0, current.getFile().length());
     }
 
+    /**
+     * Sets the bits per pixel of a NoteBook and checks whether it is used
+     * again when the NoteBook is opened the next time.
+     */
+    public void testSheetBitsSetting() {
+        NoteBook nb = createNamedTempNoteBook();
+        String name = nb.getName();
+        nb.setSheetBits(1);
+        nb.setSheetBits(3);
+        assertEquals(1, nb.getSheetBits());
+        assertEquals(1, nb.getCurrentSheet().getTiledImage().getBitsPerPixel());
+        nb.drawLine(new Line2D.Float(100, 100, 100, 200));
+        nb.testing_finalize();
+
+        NoteBook reopened = new NoteBook(name);
+        assertEquals(1, reopened.getSheetBits());
+        assertEquals(1, reopened.getCurrentSheet().getTiledImage()
+                .getBitsPerPixel());
+        reopened.deleteSure();
+    }
+
     /**
      * Checks whether a new NoteBook with a line on the first page has one
      * page.
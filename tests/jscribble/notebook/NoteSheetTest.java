@@ -56,6 +56,23 @@ public class NoteSheetTest extends TestCase {
         assertFalse(n.getImg().getRGB(100, 100) == previousColor);
     }
 
+    /**
+     * Tests whether a line is drawn with the width it is given instead of the
+     * configured one, like the lines that are replayed from the journal.
+     */
+    public void testDrawingWithWidth() {
+        NoteSheet n = getTempNoteSheet();
+        int previousColor = n.getImg().getRGB(104, 150);
+        n.drawLine(new Line2D.Float(100, 100, 100, 200));
+        assertEquals(previousColor, n.getImg().getRGB(104, 150));
+
+        n.drawLine(new Line2D.Float(100, 100, 100, 200), 12);
+        assertFalse(n.getImg().getRGB(104, 150) == previousColor);
+
+        n.eraseLine(new Line2D.Float(100, 100, 100, 200), 12);
+        assertEquals(previousColor, n.getImg().getRGB(104, 150));
+    }
+
     /**
      * Tests whether a line gets erased.
      */
@@ -0,0 +1,136 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+
+import jscribble.notebook.NoteSheet;
+import jscribble.notebook.PageCache;
+import jscribble.notebook.TiledImage;
+import junit.framework.TestCase;
+
+/**
+ * Tests whether the PageCache moves pages through its tiers.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PageCacheTest extends TestCase {
+    public PageCacheTest() {
+        super();
+    }
+
+    /**
+     * Creates a sheet with a line through every tile, so that its tiles take
+     * up a whole MiB.
+     *
+     * @param pagenumber Page number of the sheet.
+     * @return Filled sheet.
+     */
+    private NoteSheet createFullSheet(int pagenumber) {
+        NoteSheet sheet = new NoteSheet(new Dimension(1024, 1024), pagenumber,
+                null, 8);
+        for (int y = 10; y < 1024; y += TiledImage.TILE_SIZE) {
+            sheet.drawLine(new Line2D.Float(0, y, 1023, y));
+        }
+        return sheet;
+    }
+
+    /**
+     * Activates more pages than fit into the budget and checks the hits and
+     * misses of each tier.
+     */
+    public void testTiers() throws InterruptedException {
+        PageCache cache = new PageCache(2);
+        NoteSheet a = createFullSheet(1);
+        NoteSheet b = createFullSheet(2);
+        NoteSheet c = createFullSheet(3);
+
+        // The third page does not fit, so the least recently used pages are
+        // compressed.
+        cache.activate(a);
+        cache.activate(b);
+        cache.activate(c);
+        assertTrue(cache.isCompressing());
+        waitForCompressions(cache);
+        assertEquals(2, cache.getDemotions());
+        assertTrue(cache.getUsedBytes() <= cache.getBudget());
+
+        // Restoring one of them pushes the other one out to disk.
+        cache.activate(a);
+        assertEquals(1, cache.getCompressedHits());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getUsedBytes() <= cache.getBudget());
+
+        // That one has to be loaded from disk then.
+        cache.activate(b);
+        assertEquals(1, cache.getCompressedMisses());
+
+        assertEquals(3, cache.getHotHits());
+        assertEquals(2, cache.getHotMisses());
+
+        byte[] row = new byte[1024];
+        a.getTiledImage().getRow(10, row);
+        assertEquals(0, row[500]);
+        b.getTiledImage().getRow(10, row);
+        assertEquals(0, row[500]);
+    }
+
+    /**
+     * Draws on a page that was blank when it was activated, flips past the
+     * budget and checks that the page is demoted like any other.
+     */
+    public void testBlankPageIsDemotedLater() throws InterruptedException {
+        PageCache cache = new PageCache(2);
+        NoteSheet blank = new NoteSheet(new Dimension(1024, 1024), 1, null,
+                8);
+        cache.activate(blank);
+        assertEquals(0, cache.getUsedBytes());
+
+        for (int y = 10; y < 1024; y += TiledImage.TILE_SIZE) {
+            blank.drawLine(new Line2D.Float(0, y, 1023, y));
+        }
+        cache.grown(blank);
+        assertTrue(cache.getUsedBytes() > 0);
+
+        cache.activate(createFullSheet(2));
+        cache.activate(createFullSheet(3));
+        waitForCompressions(cache);
+        assertTrue(cache.getDemotions() >= 1);
+        assertTrue(cache.getUsedBytes() <= cache.getBudget());
+
+        // Coming back to it finds the compressed copy.
+        cache.activate(blank);
+        assertEquals(1, cache.getCompressedHits());
+    }
+
+    /**
+     * Waits until the compressed copies are made and takes them over.
+     *
+     * @param cache Cache to wait for.
+     */
+    private void waitForCompressions(PageCache cache)
+    throws InterruptedException {
+        while (cache.isCompressing()) {
+            Thread.sleep(10);
+            cache.finishCompressions();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import jscribble.notebook.PagePrefetcher;
+import junit.framework.TestCase;
+
+/**
+ * Tests how the PagePrefetcher follows the page flips.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PagePrefetcherTest extends TestCase {
+    public PagePrefetcherTest() {
+        super();
+    }
+
+    /**
+     * Quick flips in one direction read further ahead, turning around starts
+     * over.
+     */
+    public void testDepthFollowsFlips() {
+        PagePrefetcher prefetcher = new PagePrefetcher(3);
+        assertEquals(0, prefetcher.getDirection());
+
+        prefetcher.flipped(1);
+        assertEquals(1, prefetcher.getDirection());
+        assertEquals(1, prefetcher.getDepth());
+
+        prefetcher.flipped(1);
+        assertEquals(2, prefetcher.getDepth());
+
+        prefetcher.flipped(1);
+        prefetcher.flipped(1);
+        assertEquals(3, prefetcher.getDepth());
+
+        prefetcher.flipped(-1);
+        assertEquals(-1, prefetcher.getDirection());
+        assertEquals(1, prefetcher.getDepth());
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import java.awt.Dimension;
+
+import jscribble.notebook.NoteSheet;
+import jscribble.notebook.PageTable;
+import junit.framework.TestCase;
+
+/**
+ * Tests the PageTable.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PageTableTest extends TestCase {
+    public PageTableTest() {
+        super();
+    }
+
+    /**
+     * Adds many pages and checks whether they can be looked up by position.
+     */
+    public void testManyPages() {
+        PageTable table = new PageTable();
+        for (int i = 1; i <= 100000; i++) {
+            table.add(i);
+        }
+
+        assertEquals(100000, table.size());
+        assertEquals(1, table.getPagenumber(0));
+        assertEquals(54321, table.getPagenumber(54320));
+        assertEquals(100000, table.getPagenumber(99999));
+        assertNull(table.getSheet(54320));
+        assertEquals(0, table.getCreatedSheets().size());
+    }
+
+    /**
+     * Inserts a page in the middle and checks whether the other pages and
+     * their sheets move along.
+     */
+    public void testInsert() {
+        PageTable table = new PageTable();
+        table.add(1);
+        table.add(2);
+        table.add(3);
+
+        NoteSheet sheet = new NoteSheet(new Dimension(10, 10), 2, null, 8);
+        table.setSheet(1, sheet);
+
+        table.insert(1, 7);
+        assertEquals(4, table.size());
+        assertEquals(1, table.getPagenumber(0));
+        assertEquals(7, table.getPagenumber(1));
+        assertEquals(2, table.getPagenumber(2));
+        assertEquals(3, table.getPagenumber(3));
+        assertNull(table.getSheet(1));
+        assertSame(sheet, table.getSheet(2));
+    }
+
+    /**
+     * Tests whether positions outside of the table are rejected.
+     */
+    public void testOutOfBounds() {
+        PageTable table = new PageTable();
+        table.add(1);
+        try {
+            table.getPagenumber(1);
+            fail();
+        }
+        catch (IndexOutOfBoundsException ignored) {
+        }
+        try {
+            table.insert(3, 5);
+            fail();
+        }
+        catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+}
@@ -0,0 +1,248 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tests.jscribble.notebook;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import jscribble.notebook.TiledImage;
+import jscribble.notebook.writeoutThread.PngEncoder;
+import junit.framework.TestCase;
+
+/**
+ * Tests whether the PngEncoder writes PNG files that can be read again.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class PngEncoderTest extends TestCase {
+    public PngEncoderTest() {
+        super();
+    }
+
+    /**
+     * Draws a short line at the given position.
+     *
+     * @param image Image to draw on.
+     * @param x Horizontal position.
+     * @param y Vertical position.
+     * @param color Color to draw with.
+     */
+    private void drawDot(TiledImage image, int x, int y, Color color) {
+        image.drawLine(new Line2D.Float(x, y, x + 1, y),
+                new BasicStroke(1), color, new Rectangle(x - 3, y - 3, 8, 7));
+    }
+
+    /**
+     * Encodes the image and reads it back.
+     *
+     * @param image Image to encode.
+     * @param encoder Encoder to use.
+     * @return Decoded image.
+     */
+    private BufferedImage roundTrip(TiledImage image, PngEncoder encoder)
+    throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(image, out);
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Checks whether the decoded image has the same gray values as the page,
+     * once it is loaded as a page again.
+     *
+     * @param expected Page that was encoded.
+     * @param actual Decoded image.
+     */
+    private void assertSamePixels(TiledImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        TiledImage loaded = new TiledImage(actual, Color.WHITE);
+        byte[] expectedRow = new byte[expected.getWidth()];
+        byte[] actualRow = new byte[expected.getWidth()];
+        for (int y = 0; y < expected.getHeight(); y++) {
+            expected.getRow(y, expectedRow);
+            loaded.getRow(y, actualRow);
+            assertTrue(Arrays.equals(expectedRow, actualRow));
+        }
+    }
+
+    /**
+     * Encodes the image and returns the bit depth and color type from the
+     * header.
+     *
+     * @param image Image to encode.
+     * @return Bit depth and color type.
+     */
+    private int[] encodeHeader(TiledImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder(1).write(image, out);
+        byte[] data = out.toByteArray();
+        return new int[] {data[24], data[25]};
+    }
+
+    /**
+     * Tests whether the encoded image can be read back.
+     */
+    public void testEncoderRoundTrip() throws IOException {
+        TiledImage image = new TiledImage(700, 600, Color.WHITE);
+        drawDot(image, 5, 5, Color.BLACK);
+        drawDot(image, 650, 300, Color.GRAY);
+        drawDot(image, 100, 599, Color.BLACK);
+
+        TiledImage snapshot = image.snapshot();
+        for (int level = 0; level <= 9; level += 3) {
+            assertSamePixels(snapshot, roundTrip(snapshot,
+                        new PngEncoder(level)));
+        }
+    }
+
+    /**
+     * Tests whether a page with only black and white is written with a
+     * single bit per pixel.
+     */
+    public void testBlackAndWhiteUsesOneBit() throws IOException {
+        BufferedImage page = new BufferedImage(300, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        page.getRaster().setSample(10, 10, 0, 255);
+        page.getRaster().setSample(299, 299, 0, 255);
+        TiledImage image = new TiledImage(page, Color.BLACK);
+
+        int[] header = encodeHeader(image);
+        assertEquals(1, header[0]);
+        assertEquals(0, header[1]);
+        assertSamePixels(image, roundTrip(image, new PngEncoder(1)));
+    }
+
+    /**
+     * Tests whether a few arbitrary shades are written with a palette.
+     */
+    public void testFewShadesUsePalette() throws IOException {
+        BufferedImage page = new BufferedImage(300, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        page.getRaster().setSample(10, 10, 0, 100);
+        page.getRaster().setSample(20, 10, 0, 255);
+        page.getRaster().setSample(20, 290, 0, 7);
+        TiledImage image = new TiledImage(page, Color.BLACK);
+
+        int[] header = encodeHeader(image);
+        assertEquals(2, header[0]);
+        assertEquals(3, header[1]);
+        assertSamePixels(image, roundTrip(image, new PngEncoder(1)));
+    }
+
+    /**
+     * Tests whether many shades fall back to eight bits.
+     */
+    public void testManyShadesUseEightBits() throws IOException {
+        BufferedImage page = new BufferedImage(300, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 256; x++) {
+            page.getRaster().setSample(x, x, 0, x);
+        }
+        TiledImage image = new TiledImage(page, Color.BLACK);
+
+        int[] header = encodeHeader(image);
+        assertEquals(8, header[0]);
+        assertEquals(0, header[1]);
+        assertSamePixels(image, roundTrip(image, new PngEncoder(6)));
+    }
+
+    /**
+     * Tests whether the encoder with the default settings keeps every shade.
+     */
+    public void testDefaultKeepsShades() throws IOException {
+        BufferedImage page = new BufferedImage(300, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 256; x++) {
+            page.getRaster().setSample(x, x, 0, x);
+        }
+        TiledImage image = new TiledImage(page, Color.BLACK);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder().write(image, out);
+        byte[] data = out.toByteArray();
+        assertEquals(8, data[24]);
+        assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Tests whether all the shades between black and white are rounded to
+     * 16 levels and written with four bits per pixel.
+     */
+    public void testRoundedShadesUseFourBits() throws IOException {
+        BufferedImage page = new BufferedImage(300, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 256; x++) {
+            page.getRaster().setSample(x, x, 0, x);
+        }
+        TiledImage image = new TiledImage(page, Color.BLACK);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder(4, 16, Color.BLACK, Color.WHITE).write(image, out);
+        byte[] data = out.toByteArray();
+        assertEquals(4, data[24]);
+        assertEquals(0, data[25]);
+
+        BufferedImage actual = ImageIO.read(
+                new ByteArrayInputStream(data));
+        TiledImage loaded = new TiledImage(actual, Color.WHITE);
+        byte[] expectedRow = new byte[image.getWidth()];
+        byte[] actualRow = new byte[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRow(y, expectedRow);
+            loaded.getRow(y, actualRow);
+            for (int x = 0; x < expectedRow.length; x++) {
+                int difference = (expectedRow[x] & 0xff) -
+                                 (actualRow[x] & 0xff);
+                assertTrue(Math.abs(difference) <= 8);
+            }
+        }
+    }
+
+    /**
+     * Tests whether only the changed rows of tiles are compressed again.
+     */
+    public void testEncodedRowsAreReused() throws IOException {
+        TiledImage image = new TiledImage(512, 768, Color.WHITE);
+        drawDot(image, 10, 10, Color.BLACK);
+
+        PngEncoder first = new PngEncoder(1);
+        roundTrip(image.snapshot(), first);
+        assertEquals(3, first.getEncodedCount());
+
+        drawDot(image, 10, 600, Color.BLACK);
+
+        PngEncoder second = new PngEncoder(1);
+        TiledImage snapshot = image.snapshot();
+        BufferedImage actual = roundTrip(snapshot, second);
+        assertEquals(1, second.getEncodedCount());
+        assertEquals(2, second.getReusedCount());
+        assertSamePixels(snapshot, actual);
+    }
+}
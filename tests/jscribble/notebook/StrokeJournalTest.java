@@ -0,0 +1,179 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Map;
+
+import jscribble.notebook.StrokeJournal;
+import jscribble.notebook.StrokeList;
+import junit.framework.TestCase;
+
+/**
+ * Tests the StrokeJournal.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class StrokeJournalTest extends TestCase {
+    /**
+     * Folder of the journal.
+     */
+    private File folder;
+
+    public StrokeJournalTest() {
+        super();
+    }
+
+    /**
+     * Adds three lines on two pages to the journal.
+     *
+     * @param journal Journal to fill.
+     * @return Checkpoint after the first line of the first page.
+     */
+    private StrokeJournal.Checkpoint fillJournal(StrokeJournal journal) {
+        journal.setSize(new Dimension(40, 30));
+        journal.add(1, new Line2D.Float(1, 1, 10, 10), false, 2);
+        StrokeJournal.Checkpoint checkpoint = journal.checkpoint(1);
+        journal.add(2, new Line2D.Float(5, 20, 30, 20), false, 2);
+        journal.add(1, new Line2D.Float(10, 10, 10, 25), true, 8);
+        return checkpoint;
+    }
+
+    /**
+     * Counts the lines of every page.
+     *
+     * @param lines Lines read from a journal.
+     * @param pagenumber Page number.
+     * @return Number of lines.
+     */
+    private int countLines(Map<Integer, ArrayList<StrokeList>> lines,
+            int pagenumber) {
+        int count = 0;
+        if (lines.containsKey(pagenumber)) {
+            for (StrokeList list : lines.get(pagenumber)) {
+                count += list.getStrokeCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("journal", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    /**
+     * Tests that a journal without lines is not left behind.
+     */
+    public void testEmpty() {
+        StrokeJournal journal = new StrokeJournal(folder);
+        journal.close();
+
+        assertFalse(new File(folder, StrokeJournal.FILENAME).exists());
+        assertTrue(new StrokeJournal(folder).read().isEmpty());
+    }
+
+    /**
+     * Tests that the lines can be read again after the journal was closed
+     * without the pages being written.
+     */
+    public void testRead() {
+        StrokeJournal journal = new StrokeJournal(folder);
+        fillJournal(journal);
+        journal.close();
+
+        StrokeJournal reopened = new StrokeJournal(folder);
+        assertTrue(reopened.hasRecords());
+        Map<Integer, ArrayList<StrokeList>> lines = reopened.read();
+        assertEquals(new Dimension(40, 30), reopened.getSize());
+        assertEquals(2, lines.size());
+        assertEquals(2, countLines(lines, 1));
+        assertEquals(1, countLines(lines, 2));
+        assertEquals(40, lines.get(1).get(0).getWidth());
+    }
+
+    /**
+     * Tests that a record that was cut off is dropped and removed from the
+     * file, so that new lines can follow the valid ones.
+     */
+    public void testTruncatedRecord() throws Exception {
+        StrokeJournal journal = new StrokeJournal(folder);
+        fillJournal(journal);
+        journal.close();
+
+        File file = new File(folder, StrokeJournal.FILENAME);
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length - 2);
+        raf.close();
+
+        StrokeJournal reopened = new StrokeJournal(folder);
+        Map<Integer, ArrayList<StrokeList>> lines = reopened.read();
+        assertEquals(1, countLines(lines, 1));
+        assertEquals(1, countLines(lines, 2));
+        assertTrue(file.length() < length - 2);
+
+        reopened.add(2, new Line2D.Float(0, 0, 5, 5), false, 2);
+        reopened.close();
+
+        lines = new StrokeJournal(folder).read();
+        assertEquals(1, countLines(lines, 1));
+        assertEquals(2, countLines(lines, 2));
+    }
+
+    /**
+     * Tests that the lines covered by a written page are removed.
+     */
+    public void testWritten() {
+        StrokeJournal journal = new StrokeJournal(folder);
+        StrokeJournal.Checkpoint checkpoint = fillJournal(journal);
+        checkpoint.written();
+
+        Map<Integer, ArrayList<StrokeList>> lines =
+            new StrokeJournal(folder).read();
+        assertEquals(1, countLines(lines, 1));
+        assertEquals(1, countLines(lines, 2));
+
+        journal.checkpoint(1).written();
+        journal.checkpoint(2).written();
+        assertFalse(journal.hasRecords());
+
+        // An old checkpoint must not remove anything any more.
+        checkpoint.written();
+        journal.add(1, new Line2D.Float(3, 3, 4, 4), false, 2);
+        checkpoint.written();
+        journal.close();
+        assertEquals(1, countLines(new StrokeJournal(folder).read(), 1));
+    }
+}
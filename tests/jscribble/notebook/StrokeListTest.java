@@ -0,0 +1,235 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tests.jscribble.notebook;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import jscribble.helpers.Config;
+import jscribble.notebook.BufferedImageWrapper;
+import jscribble.notebook.NoteSheet;
+import jscribble.notebook.StrokeList;
+import jscribble.notebook.TiledImage;
+import junit.framework.TestCase;
+
+/**
+ * Tests the StrokeList and the vector mode of the NoteSheet.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class StrokeListTest extends TestCase {
+    public StrokeListTest() {
+        super();
+    }
+
+    /**
+     * Asserts that both images have the same pixels. A line is drawn as a
+     * path from the vectors, which the antialiasing can shade a tiny bit
+     * differently.
+     *
+     * @param expected Expected image.
+     * @param actual Actual image.
+     */
+    private void assertSamePixels(BufferedImage expected,
+            BufferedImage actual) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        int[] expectedPixels = expected.getRGB(0, 0, width, height, null, 0,
+                                               width);
+        int[] actualPixels = actual.getRGB(0, 0, width, height, null, 0,
+                                           width);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            int difference = (expectedPixels[i] & 0xff) -
+                             (actualPixels[i] & 0xff);
+            assertTrue(Math.abs(difference) <= 2);
+        }
+    }
+
+    /**
+     * Creates a blank page.
+     *
+     * @param width Width of the page.
+     * @param height Height of the page.
+     * @return The page.
+     */
+    private TiledImage createPage(int width, int height) {
+        return new TiledImage(width, height,
+                Config.getSnapshot().notebookBackgroundColor,
+                Config.getSnapshot().notebookForegroundColor, 8);
+    }
+
+    /**
+     * Creates a wavy path with many short segments, like a hand drawn line.
+     *
+     * @return The path.
+     */
+    private Path2D createPath() {
+        Path2D.Float path = new Path2D.Float();
+        path.moveTo(20, 100);
+        for (int x = 21; x < 420; x++) {
+            path.lineTo(x, 100 + Math.round(30 * Math.sin(x / 20.0)));
+        }
+        return path;
+    }
+
+    /**
+     * Tests that the vectors draw the same page as drawing the lines right
+     * away, also after they were written and read again.
+     */
+    public void testRender() throws IOException {
+        TiledImage direct = createPage(500, 300);
+        BufferedImageWrapper wrapper = new BufferedImageWrapper(direct);
+        StrokeList strokes = new StrokeList(500, 300);
+
+        Path2D path = createPath();
+        wrapper.drawLine(path);
+        strokes.add(path, false, Config.getSnapshot().notebookDrawStrokeWidth);
+
+        Line2D dot = new Line2D.Float(250, 250, 250, 250);
+        wrapper.drawLine(dot);
+        strokes.add(dot, false, Config.getSnapshot().notebookDrawStrokeWidth);
+
+        Line2D gap = new Line2D.Float(200, 50, 200, 150);
+        wrapper.eraseLine(gap);
+        strokes.add(gap, true, Config.getSnapshot().notebookEraseStrokeWidth);
+
+        assertEquals(3, strokes.getStrokeCount());
+
+        TiledImage rendered = createPage(500, 300);
+        strokes.render(rendered, Config.getSnapshot().notebookForegroundColor,
+                Config.getSnapshot().notebookBackgroundColor);
+        assertSamePixels(direct.toBufferedImage(), rendered.toBufferedImage());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        strokes.write(out);
+        StrokeList read = StrokeList.read(new ByteArrayInputStream(
+                    out.toByteArray()));
+        TiledImage reread = createPage(500, 300);
+        read.render(reread, Config.getSnapshot().notebookForegroundColor,
+                Config.getSnapshot().notebookBackgroundColor);
+        assertSamePixels(direct.toBufferedImage(), reread.toBufferedImage());
+    }
+
+    /**
+     * Tests that a hand drawn line takes only a few bytes per point.
+     */
+    public void testCompact() throws IOException {
+        StrokeList strokes = new StrokeList(500, 300);
+        strokes.add(createPath(), false, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        strokes.write(out);
+        assertTrue(out.size() < 3 * 400);
+    }
+
+    /**
+     * Tests that the vectors are drawn at the size of the target.
+     */
+    public void testScaled() {
+        StrokeList strokes = new StrokeList(100, 100);
+        strokes.add(new Line2D.Float(10, 50, 90, 50), false, 2);
+
+        TiledImage large = createPage(400, 400);
+        strokes.render(large, Color.BLACK, Color.WHITE);
+        BufferedImage image = large.toBufferedImage();
+        assertEquals(Color.BLACK.getRGB(), image.getRGB(200, 200));
+        assertEquals(Color.BLACK.getRGB(), image.getRGB(355, 200));
+        assertEquals(Color.WHITE.getRGB(), image.getRGB(200, 215));
+    }
+
+    /**
+     * Tests that a snapshot keeps the lines it was taken with.
+     */
+    public void testSnapshot() {
+        StrokeList strokes = new StrokeList(100, 100);
+        strokes.add(new Line2D.Float(10, 10, 20, 20), false, 3);
+        StrokeList snapshot = strokes.snapshot();
+        strokes.add(new Line2D.Float(30, 30, 40, 40), false, 3);
+        snapshot.add(new Line2D.Float(50, 50, 60, 60), true, 3);
+
+        assertEquals(2, strokes.getStrokeCount());
+        assertEquals(2, snapshot.getStrokeCount());
+
+        TiledImage page = createPage(100, 100);
+        strokes.render(page, Color.BLACK, Color.WHITE);
+        assertEquals(Color.BLACK.getRGB(),
+                     page.toBufferedImage().getRGB(35, 35));
+        page = createPage(100, 100);
+        snapshot.render(page, Color.BLACK, Color.WHITE);
+        assertEquals(Color.WHITE.getRGB(),
+                     page.toBufferedImage().getRGB(35, 35));
+    }
+
+    /**
+     * Tests that a sheet in vector mode saves its vectors next to the image
+     * and draws the page from them when it is read again.
+     */
+    public void testVectorMode() throws IOException {
+        String before = Config.getString("notebook_vector_mode");
+        Config.set("notebook_vector_mode", "true");
+        File folder = File.createTempFile("JUnit-", "");
+        folder.delete();
+        folder.mkdirs();
+        File imagefile = new File(folder, "000001.png");
+
+        try {
+            NoteSheet sheet = new NoteSheet(new Dimension(500, 300), 1,
+                    imagefile);
+            sheet.drawLine(createPath());
+            sheet.eraseLine(new Line2D.Float(200, 50, 200, 150));
+            BufferedImage drawn = sheet.getImg();
+            sheet.saveToFile();
+            sheet.stopWriteoutThread();
+
+            File strokefile = StrokeList.getFile(imagefile);
+            assertTrue(imagefile.exists());
+            assertTrue(strokefile.exists());
+            assertTrue(strokefile.length() < imagefile.length());
+
+            NoteSheet read = new NoteSheet(new Dimension(500, 300), 1,
+                    imagefile);
+            assertTrue(read.touched());
+            assertSamePixels(drawn, read.getImg());
+
+            // Without vector mode, the image is written alone.
+            Config.set("notebook_vector_mode", "false");
+            NoteSheet raster = new NoteSheet(new Dimension(500, 300), 1,
+                    imagefile);
+            raster.drawLine(new Line2D.Float(10, 10, 10, 20));
+            raster.saveToFile();
+            raster.stopWriteoutThread();
+            assertFalse(strokefile.exists());
+        }
+        finally {
+            Config.set("notebook_vector_mode", before);
+            for (File file : folder.listFiles()) {
+                file.delete();
+            }
+            folder.delete();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+// Copyright © 2011 Martin Ueding <mu@martin-ueding.de>
+
+/*
+ * This file is part of jscribble.
+ *
+ * jscribble is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * jscribble is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * jscribble.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tests.jscribble.notebook;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+import jscribble.notebook.TiledImage;
+import junit.framework.TestCase;
+
+/**
+ * Tests whether the TiledImage only stores the tiles that are drawn on.
+ *
+ * @author Martin Ueding <mu@martin-ueding.de>
+ */
+public class TiledImageTest extends TestCase {
+    public TiledImageTest() {
+        super();
+    }
+
+    /**
+     * Draws a short line at the given position.
+     *
+     * @param image Image to draw on.
+     * @param x Horizontal position.
+     * @param y Vertical position.
+     * @param color Color to draw with.
+     */
+    private void drawDot(TiledImage image, int x, int y, Color color) {
+        image.drawLine(new Line2D.Float(x, y, x + 1, y),
+                new BasicStroke(1), color, new Rectangle(x - 3, y - 3, 8, 7));
+    }
+
+    /**
+     * Tests whether an empty page does not store any tiles.
+     */
+    public void testEmptyPage() {
+        TiledImage image = new TiledImage(1024, 600, Color.WHITE);
+        assertEquals(0, image.getAllocatedTileCount());
+        assertEquals(255, image.toBufferedImage().getRaster().getSample(
+                    1000, 500, 0));
+    }
+
+    /**
+     * Tests whether drawing only allocates the touched tile.
+     */
+    public void testDrawAllocatesTile() {
+        TiledImage image = new TiledImage(1024, 600, Color.WHITE);
+        drawDot(image, 300, 300, Color.BLACK);
+        assertEquals(1, image.getAllocatedTileCount());
+        assertEquals(0, image.toBufferedImage().getRaster().getSample(
+                    300, 300, 0));
+    }
+
+    /**
+     * Tests whether a loaded image only keeps the tiles with drawing on them.
+     */
+    public void testLoadSkipsBackground() {
+        BufferedImage loaded = new BufferedImage(1024, 600,
+                BufferedImage.TYPE_BYTE_GRAY);
+        loaded.getRaster().setSample(600, 10, 0, 255);
+
+        TiledImage image = new TiledImage(loaded, Color.BLACK);
+        assertEquals(1, image.getAllocatedTileCount());
+    }
+
+    /**
+     * Tests whether a snapshot keeps the old state of the image.
+     */
+    public void testSnapshot() {
+        TiledImage image = new TiledImage(512, 512, Color.WHITE);
+        drawDot(image, 10, 10, Color.BLACK);
+
+        TiledImage snapshot = image.snapshot();
+        drawDot(image, 20, 10, Color.BLACK);
+        drawDot(image, 400, 400, Color.BLACK);
+
+        byte[] row = new byte[512];
+        snapshot.getRow(10, row);
+        assertEquals(0, row[10] & 0xff);
+        assertEquals(255, row[20] & 0xff);
+        snapshot.getRow(400, row);
+        assertEquals(255, row[400] & 0xff);
+
+        image.getRow(10, row);
+        assertEquals(0, row[20] & 0xff);
+    }
+
+    /**
+     * Tests whether a copy of a snapshot can be drawn on without changing
+     * the snapshot.
+     */
+    public void testCopyOfSnapshot() {
+        TiledImage image = new TiledImage(512, 512, Color.WHITE);
+        drawDot(image, 10, 10, Color.BLACK);
+
+        TiledImage snapshot = image.snapshot();
+        TiledImage copy = snapshot.copy();
+        drawDot(copy, 20, 10, Color.BLACK);
+
+        byte[] row = new byte[512];
+        copy.getRow(10, row);
+        assertEquals(0, row[10] & 0xff);
+        assertEquals(0, row[20] & 0xff);
+        snapshot.getRow(10, row);
+        assertEquals(255, row[20] & 0xff);
+    }
+
+    /**
+     * Tests whether a path that spans several tiles is drawn in one go,
+     * including its corner.
+     */
+    public void testDrawPath() {
+        TiledImage image = new TiledImage(1024, 600, Color.WHITE);
+        Path2D.Float path = new Path2D.Float();
+        path.moveTo(100, 100);
+        path.lineTo(400, 100);
+        path.lineTo(400, 300);
+        image.drawLine(path, new BasicStroke(3, BasicStroke.CAP_SQUARE,
+                    BasicStroke.JOIN_ROUND), Color.BLACK,
+                new Rectangle(95, 95, 311, 211));
+
+        BufferedImage result = image.toBufferedImage();
+        assertEquals(0, result.getRaster().getSample(100, 100, 0));
+        assertEquals(0, result.getRaster().getSample(400, 100, 0));
+        assertEquals(0, result.getRaster().getSample(400, 300, 0));
+        assertEquals(255, result.getRaster().getSample(300, 200, 0));
+    }
+
+    /**
+     * Tests whether an erased tile is dropped with the next snapshot.
+     */
+    public void testErasedTileIsDropped() {
+        TiledImage image = new TiledImage(512, 512, Color.WHITE);
+        drawDot(image, 10, 10, Color.BLACK);
+        drawDot(image, 10, 10, Color.WHITE);
+        assertEquals(1, image.getAllocatedTileCount());
+
+        image.snapshot();
+        assertEquals(0, image.getAllocatedTileCount());
+    }
+
+    /**
+     * Tests whether a page with one bit per pixel only has the foreground
+     * and the background.
+     */
+    public void testOneBitPage() {
+        TiledImage image = new TiledImage(512, 512, Color.WHITE, Color.BLACK,
+                1);
+        image.drawLine(new Line2D.Float(10, 10, 200, 90), new BasicStroke(3),
+                Color.BLACK, new Rectangle(0, 0, 220, 110));
+        assertEquals(1, image.getAllocatedTileCount());
+
+        byte[] row = new byte[512];
+        for (int y = 0; y < 512; y++) {
+            image.getRow(y, row);
+            for (byte value : row) {
+                assertTrue(value == 0 || value == (byte) 255);
+            }
+        }
+        image.getRow(10, row);
+        assertEquals(0, row[10]);
+    }
+
+    /**
+     * Tests whether the antialiased edges of a packed page are the gray
+     * values of an eight bit page rounded to the nearest level.
+     */
+    public void testTwoBitPageRoundsToNearestLevel() {
+        TiledImage gray = new TiledImage(300, 300, Color.WHITE);
+        TiledImage packed = new TiledImage(300, 300, Color.WHITE, Color.BLACK,
+                2);
+        Line2D line = new Line2D.Float(5, 7, 280, 150);
+        Rectangle bounds = new Rectangle(0, 0, 300, 300);
+        gray.drawLine(line, new BasicStroke(2.5f), Color.BLACK, bounds);
+        packed.drawLine(line, new BasicStroke(2.5f), Color.BLACK, bounds);
+
+        byte[] grayRow = new byte[300];
+        byte[] packedRow = new byte[300];
+        boolean hasShades = false;
+        for (int y = 0; y < 300; y++) {
+            gray.getRow(y, grayRow);
+            packed.getRow(y, packedRow);
+            for (int x = 0; x < 300; x++) {
+                int level = Math.round((grayRow[x] & 0xff) * 3 / 255f);
+                assertEquals(level * 85, packedRow[x] & 0xff);
+                hasShades |= level == 1 || level == 2;
+            }
+        }
+        assertTrue(hasShades);
+    }
+
+    /**
+     * Tests whether a loaded image is rounded to the levels and erased tiles
+     * are dropped in packed pages as well.
+     */
+    public void testPackedLoadAndErase() {
+        BufferedImage loaded = new BufferedImage(512, 300,
+                BufferedImage.TYPE_BYTE_GRAY);
+        loaded.getRaster().setSample(300, 10, 0, 200);
+        loaded.getRaster().setSample(301, 10, 0, 100);
+
+        TiledImage image = new TiledImage(loaded, Color.BLACK, Color.WHITE, 1);
+        assertEquals(1, image.getAllocatedTileCount());
+        byte[] row = new byte[512];
+        image.getRow(10, row);
+        assertEquals(255, row[300] & 0xff);
+        assertEquals(0, row[301] & 0xff);
+
+        image.drawLine(new Line2D.Float(298, 10, 302, 10), new BasicStroke(4),
+                Color.BLACK, new Rectangle(290, 0, 20, 20));
+        image.snapshot();
+        assertEquals(0, image.getAllocatedTileCount());
+    }
+}
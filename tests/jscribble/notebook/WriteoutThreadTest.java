@@ -22,8 +22,12 @@ package tests.jscribble.notebook;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
 
 import jscribble.notebook.writeoutThread.ImageSwapTask;
+import jscribble.notebook.writeoutThread.PendingWrite;
 import jscribble.notebook.writeoutThread.WriteoutThread;
 import junit.framework.TestCase;
 
@@ -78,4 +82,218 @@ public class WriteoutThreadTest extends TestCase {
         outfile.delete();
         assertFalse(outfile.exists());
     }
+
+    /**
+     * Schedules two images of different size for the same file and tests
+     * whether the later one ends up on disk.
+     */
+    public void testWriteoutOrderForSameFile() {
+        WriteoutThread wt = new WriteoutThread();
+
+        File outfile = null;
+        try {
+            outfile = File.createTempFile("JUnit-testWriteoutOrder-", ".png");
+        }
+        catch (IOException e1) {
+            e1.printStackTrace();
+        }
+
+        assertNotNull(outfile);
+
+        for (int i = 1; i <= 20; i++) {
+            wt.schedule(new ImageSwapTask(new BufferedImage(i, i,
+                        BufferedImage.TYPE_BYTE_GRAY), outfile));
+        }
+
+        wt.stopAfterLast();
+        try {
+            wt.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertFalse(wt.isFileInQueue(outfile));
+        assertTrue(wt.getSupersededCount() < 20);
+
+        try {
+            BufferedImage written = ImageIO.read(outfile);
+            assertEquals(20, written.getWidth());
+        }
+        catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        outfile.delete();
+    }
+
+    /**
+     * Schedules many different files and tests whether all of them are
+     * written when the thread dies.
+     */
+    public void testManyWriteouts() {
+        WriteoutThread wt = new WriteoutThread();
+
+        File[] outfiles = new File[30];
+        for (int i = 0; i < outfiles.length; i++) {
+            try {
+                outfiles[i] = File.createTempFile("JUnit-testManyWriteouts-",
+                        ".png");
+            }
+            catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            wt.schedule(new ImageSwapTask(new BufferedImage(100, 100,
+                        BufferedImage.TYPE_BYTE_GRAY), outfiles[i]));
+        }
+
+        wt.stopAfterLast();
+        try {
+            wt.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        for (File outfile : outfiles) {
+            assertTrue(outfile.length() > 0);
+            assertFalse(wt.isFileInQueue(outfile));
+            outfile.delete();
+        }
+    }
+
+    /**
+     * Schedules the same file several times and tests whether all of the
+     * tasks share one handle that hands out the latest image and can be
+     * waited for.
+     */
+    public void testPendingWrite() throws InterruptedException {
+        WriteoutThread wt = new WriteoutThread();
+
+        File outfile = null;
+        try {
+            outfile = File.createTempFile("JUnit-testPendingWrite-", ".png");
+        }
+        catch (IOException e1) {
+            e1.printStackTrace();
+        }
+
+        PendingWrite write;
+
+        // Hold the lock so that no worker can take the pending task away.
+        synchronized (wt) {
+            write = wt.schedule(new ImageSwapTask(new BufferedImage(1, 1,
+                        BufferedImage.TYPE_BYTE_GRAY), outfile));
+            for (int i = 2; i <= 3; i++) {
+                assertSame(write, wt.schedule(new ImageSwapTask(
+                            new BufferedImage(i, i,
+                                BufferedImage.TYPE_BYTE_GRAY), outfile)));
+            }
+            assertSame(write, wt.getPendingWrite(outfile));
+            assertEquals(3, write.getImg().getWidth());
+            assertFalse(write.isDone());
+        }
+
+        write.waitFor();
+        assertTrue(write.isDone());
+        assertNull(wt.getPendingWrite(outfile));
+        try {
+            assertEquals(3, ImageIO.read(outfile).getWidth());
+        }
+        catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        wt.stopAfterLast();
+        wt.join();
+        outfile.delete();
+    }
+
+    /**
+     * Schedules the same file several times while the thread is not able to
+     * dispatch anything and tests whether only the latest image is kept.
+     */
+    public void testSupersededWriteout() {
+        WriteoutThread wt = new WriteoutThread();
+
+        File outfile = null;
+        try {
+            outfile = File.createTempFile("JUnit-testSuperseded-", ".png");
+        }
+        catch (IOException e1) {
+            e1.printStackTrace();
+        }
+
+        // Hold the lock so that no worker can take the pending task away.
+        synchronized (wt) {
+            for (int i = 1; i <= 5; i++) {
+                wt.schedule(new ImageSwapTask(new BufferedImage(i, i,
+                            BufferedImage.TYPE_BYTE_GRAY), outfile));
+            }
+            assertTrue(wt.isFileInQueue(outfile));
+        }
+
+        wt.stopAfterLast();
+        try {
+            wt.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(4, wt.getSupersededCount());
+        try {
+            assertEquals(5, ImageIO.read(outfile).getWidth());
+        }
+        catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        outfile.delete();
+    }
+
+    /**
+     * Writes several files into the same folder and tests whether the folder
+     * is only synced once and no temporary files are left behind.
+     */
+    public void testBatchedFolderSync() {
+        WriteoutThread wt = new WriteoutThread();
+
+        File folder = null;
+        try {
+            folder = Files.createTempDirectory("JUnit-testFolderSync-").toFile();
+        }
+        catch (IOException e1) {
+            e1.printStackTrace();
+        }
+
+        File[] outfiles = new File[10];
+
+        // Hold the lock so that all the tasks are pending before the first
+        // one is written.
+        synchronized (wt) {
+            for (int i = 0; i < outfiles.length; i++) {
+                outfiles[i] = new File(folder, String.format("%06d.png", i + 1));
+                wt.schedule(new ImageSwapTask(new BufferedImage(10, 10,
+                            BufferedImage.TYPE_BYTE_GRAY), outfiles[i]));
+            }
+        }
+
+        wt.stopAfterLast();
+        try {
+            wt.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertTrue(wt.getFolderSyncCount() <= 1);
+        assertEquals(outfiles.length, folder.listFiles().length);
+
+        for (File outfile : outfiles) {
+            assertTrue(outfile.length() > 0);
+            outfile.delete();
+        }
+        folder.delete();
+    }
 }